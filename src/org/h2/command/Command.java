@@ -14,8 +14,10 @@ import org.h2.engine.Session;
 import org.h2.expression.ParameterInterface;
 import org.h2.message.DbException;
 import org.h2.message.Trace;
+import org.h2.result.LazyResult;
 import org.h2.result.ResultInterface;
 import org.h2.util.MathUtils;
+import org.h2.value.Value;
 
 /**
  * Represents a SQL statement. This object is only used on the server side.
@@ -46,9 +48,18 @@ public abstract class Command implements CommandInterface {
 
     private boolean canReuse;
 
+    /**
+     * Whether a lazy result of this command is not completely read yet.
+     */
+    private volatile boolean lazyRunning;
+
     Command(Parser parser, String sql) {
+        this(parser.getSession(), sql);
+    }
+
+    Command(Session session, String sql) {
         System.out.println("Command : 58 : sql :"+sql);
-        this.session = parser.getSession();
+        this.session = session;
         this.sql = sql;
         trace = session.getDatabase().getTrace(Trace.COMMAND);
     }
@@ -113,6 +124,18 @@ public abstract class Command implements CommandInterface {
         throw DbException.get(ErrorCode.METHOD_ONLY_ALLOWED_FOR_QUERY);
     }
 
+    /**
+     * Execute a query statement. If possible, the rows are only computed when
+     * they are read.
+     *
+     * @param maxrows the maximum number of rows returned
+     * @return the result set
+     * @throws DbException if the command is not a query
+     */
+    public ResultInterface queryLazy(int maxrows) {
+        return query(maxrows);
+    }
+
     @Override
     public final ResultInterface getMetaData() {
         return queryMeta();
@@ -178,6 +201,36 @@ public abstract class Command implements CommandInterface {
      */
     @Override
     public ResultInterface executeQuery(int maxrows, boolean scrollable) {
+        return executeQueryInternal(maxrows, false);
+    }
+
+    /**
+     * Execute a query and return a result that is read forward only. If
+     * possible, the rows are computed when they are read (see LazyResult); in
+     * this case the statement only ends when the result is read completely
+     * or closed.
+     *
+     * @param maxrows the maximum number of rows to return
+     * @return the result set
+     */
+    public ResultInterface executeQueryLazy(int maxrows) {
+        return executeQueryInternal(maxrows, true);
+    }
+
+    /**
+     * End the statement of a lazy result. This is called when all rows of the
+     * result were read, or when the result is closed.
+     */
+    public void stopLazy() {
+        Database database = session.getDatabase();
+        Object sync = database.isMultiThreaded() ? (Object) session : (Object) database;
+        synchronized (sync) {
+            lazyRunning = false;
+            stop();
+        }
+    }
+
+    private ResultInterface executeQueryInternal(int maxrows, boolean lazy) {
         startTime = 0;
         long start = 0;
         Database database = session.getDatabase();
@@ -197,7 +250,17 @@ public abstract class Command implements CommandInterface {
                 while (true) {
                     database.checkPowerOff();
                     try {
-                        return query(maxrows);
+                        if (!lazy || writing) {
+                            return query(maxrows);
+                        }
+                        ResultInterface result = queryLazy(maxrows);
+                        if (result instanceof LazyResult) {
+                            // the statement ends when the result is read
+                            ((LazyResult) result).setCommand(this);
+                            lazyRunning = true;
+                            callStop = false;
+                        }
+                        return result;
                     } catch (DbException e) {
                         start = filterConcurrentUpdate(e, start);
                     } catch (OutOfMemoryError e) {
@@ -234,6 +297,13 @@ public abstract class Command implements CommandInterface {
         }
     }
 
+    @Override
+    public int[] executeBatchUpdate(ArrayList<Value[]> batchParameters,
+            DbException[] exceptions) {
+        // in embedded mode there is no round trip to save
+        return null;
+    }
+
     @Override
     public int executeUpdate() {
         long start = 0;
@@ -349,11 +419,13 @@ public abstract class Command implements CommandInterface {
 
     /**
      * Whether the command is already closed (in which case it can be re-used).
+     * A command whose lazy result is still read can not be re-used, even if
+     * it is closed.
      *
      * @return true if it can be re-used
      */
     public boolean canReuse() {
-        return canReuse;
+        return canReuse && !lazyRunning;
     }
 
     /**
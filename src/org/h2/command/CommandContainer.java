@@ -7,6 +7,8 @@ package org.h2.command;
 
 import java.util.ArrayList;
 import org.h2.api.DatabaseEventListener;
+import org.h2.command.dml.Query;
+import org.h2.engine.Session;
 import org.h2.expression.Parameter;
 import org.h2.expression.ParameterInterface;
 import org.h2.result.ResultInterface;
@@ -29,6 +31,24 @@ class CommandContainer extends Command {
         this.prepared = prepared;
     }
 
+    /**
+     * Create a command for a statement that was prepared by another session
+     * (see StatementCache).
+     *
+     * @param session the session
+     * @param sql the SQL statement
+     * @param prepared the prepared statement, already set to this session
+     */
+    CommandContainer(Session session, String sql, Prepared prepared) {
+        super(session, sql);
+        prepared.setCommand(this);
+        this.prepared = prepared;
+    }
+
+    Prepared getPrepared() {
+        return prepared;
+    }
+
     @Override
     public ArrayList<? extends ParameterInterface> getParameters() {
         return prepared.getParameters();
@@ -84,11 +104,21 @@ class CommandContainer extends Command {
 
     @Override
     public ResultInterface query(int maxrows) {
+        return query(maxrows, false);
+    }
+
+    @Override
+    public ResultInterface queryLazy(int maxrows) {
+        return query(maxrows, prepared instanceof Query);
+    }
+
+    private ResultInterface query(int maxrows, boolean lazy) {
         recompileIfRequired();
         setProgress(DatabaseEventListener.STATE_STATEMENT_START);
         start();
         prepared.checkParameters();
-        ResultInterface result = prepared.query(maxrows);
+        ResultInterface result = lazy ? ((Query) prepared).queryLazy(maxrows) :
+                prepared.query(maxrows);
         prepared.trace(startTime, result.getRowCount());
         setProgress(DatabaseEventListener.STATE_STATEMENT_END);
         return result;
@@ -7,7 +7,9 @@ package org.h2.command;
 
 import java.util.ArrayList;
 import org.h2.expression.ParameterInterface;
+import org.h2.message.DbException;
 import org.h2.result.ResultInterface;
+import org.h2.value.Value;
 
 /**
  * Represents a SQL statement.
@@ -491,6 +493,18 @@ public interface CommandInterface {
      */
     int executeUpdate();
 
+    /**
+     * Execute the statement once for each of the given parameter sets.
+     *
+     * @param batchParameters the parameter values of each execution
+     * @param exceptions the array where the exception of each failed
+     *            execution is stored
+     * @return the update counts, or null if batch execution is not supported
+     *         and each parameter set needs to be executed separately
+     */
+    int[] executeBatchUpdate(ArrayList<Value[]> batchParameters,
+            DbException[] exceptions);
+
     /**
      * Close the statement.
      */
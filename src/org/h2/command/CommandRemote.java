@@ -6,7 +6,10 @@
 package org.h2.command;
 
 import java.io.IOException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import org.h2.engine.Constants;
+import org.h2.engine.PendingResponse;
 import org.h2.engine.SessionRemote;
 import org.h2.engine.SysProperties;
 import org.h2.expression.ParameterInterface;
@@ -23,7 +26,7 @@ import org.h2.value.Value;
  * Represents the client-side part of a SQL statement.
  * This class is not used in embedded mode.
  */
-public class CommandRemote implements CommandInterface {
+public class CommandRemote implements CommandInterface, PendingResponse {
 
     private final ArrayList<Transfer> transferList;
     private final ArrayList<ParameterInterface> parameters;
@@ -36,6 +39,16 @@ public class CommandRemote implements CommandInterface {
     private boolean readonly;
     private final int created;
 
+    /**
+     * Whether the prepare request was sent, but the response was not read yet.
+     */
+    private boolean pending;
+
+    /**
+     * The exception the server sent for a pipelined prepare request.
+     */
+    private DbException prepareError;
+
     public CommandRemote(SessionRemote session,
             ArrayList<Transfer> transferList, String sql, int fetchSize) {
         System.out.println("CommandRemote : 41 : "+ sql);
@@ -43,7 +56,13 @@ public class CommandRemote implements CommandInterface {
         trace = session.getTrace();
         this.sql = sql;
         parameters = New.arrayList();
-        prepare(session, true);
+        if (session.isPipelined()) {
+            // the response is read when needed, usually together with
+            // the response of the first execute request
+            preparePipelined(session);
+        } else {
+            prepare(session, true);
+        }
         // set session late because prepare might fail - in this case we don't
         // need to close the object
         this.session = session;
@@ -51,7 +70,84 @@ public class CommandRemote implements CommandInterface {
         created = session.getLastReconnect();
     }
 
+    private void preparePipelined(SessionRemote s) {
+        id = s.getNextId();
+        try {
+            Transfer transfer = transferList.get(0);
+            s.traceOperation("SESSION_PREPARE_READ_PARAMS", id);
+            transfer.writeInt(SessionRemote.SESSION_PREPARE_READ_PARAMS).
+                    writeInt(id).writeString(sql);
+        } catch (IOException e) {
+            prepare(s, true);
+            return;
+        }
+        pending = true;
+        s.addPending(this);
+    }
+
+    /**
+     * Read the response of the pipelined prepare request. An exception sent
+     * by the server is thrown when the command is used.
+     *
+     * @param s the session
+     * @param transfer the transfer object
+     */
+    @Override
+    public void readResponse(SessionRemote s, Transfer transfer)
+            throws IOException {
+        pending = false;
+        try {
+            s.readStatus(transfer);
+        } catch (DbException e) {
+            prepareError = e;
+            return;
+        }
+        readPrepareResult(transfer, true);
+    }
+
+    private void readPrepareResult(Transfer transfer, boolean createParams)
+            throws IOException {
+        isQuery = transfer.readBoolean();
+        readonly = transfer.readBoolean();
+        int paramCount = transfer.readInt();
+        if (createParams) {
+            parameters.clear();
+            //prepare阶段每个ParameterRemote只有类型还没有值，会在接下来通过getParameters()传给JdbcPreparedStatement
+            //然后在JdbcPreparedStatement中设置，如果在executeQuery和executeUpdate中还没有为这些参数设置值，
+            //那么调用checkParameters时会抛异常
+            for (int j = 0; j < paramCount; j++) {
+                ParameterRemote p = new ParameterRemote(j);
+                p.readMetaData(transfer);
+                parameters.add(p);
+            }
+        }
+    }
+
+    /**
+     * Read the response of the prepare request if it was not read yet, and
+     * throw the exception the server sent for it, if any.
+     */
+    private void checkPrepared() {
+        if (pending) {
+            synchronized (session) {
+                try {
+                    session.readPending(transferList.get(0));
+                } catch (IOException e) {
+                    session.removeServer(e, 0, 1);
+                }
+                if (pending) {
+                    // the response was lost, for example after re-connecting
+                    prepare(session, true);
+                }
+            }
+        }
+        if (prepareError != null) {
+            throw prepareError;
+        }
+    }
+
     private void prepare(SessionRemote s, boolean createParams) {
+        pending = false;
     	//虽然getNextId内部是nextId++;
     	//但是org.h2.engine.SessionRemote.prepareCommand(String, int)是synchronized的，
     	//
@@ -77,20 +173,7 @@ public class CommandRemote implements CommandInterface {
                         writeInt(id).writeString(sql);
                 }
                 s.done(transfer);
-                isQuery = transfer.readBoolean();
-                readonly = transfer.readBoolean();
-                int paramCount = transfer.readInt();
-                if (createParams) {
-                    parameters.clear();
-                    //prepare阶段每个ParameterRemote只有类型还没有值，会在接下来通过getParameters()传给JdbcPreparedStatement
-                    //然后在JdbcPreparedStatement中设置，如果在executeQuery和executeUpdate中还没有为这些参数设置值，
-                    //那么调用checkParameters时会抛异常
-                    for (int j = 0; j < paramCount; j++) {
-                        ParameterRemote p = new ParameterRemote(j);
-                        p.readMetaData(transfer);
-                        parameters.add(p);
-                    }
-                }
+                readPrepareResult(transfer, createParams);
             } catch (IOException e) {
                 s.removeServer(e, i--, ++count);
             }
@@ -99,11 +182,13 @@ public class CommandRemote implements CommandInterface {
 
     @Override
     public boolean isQuery() {
+        checkPrepared();
         return isQuery;
     }
 
     @Override
     public ArrayList<ParameterInterface> getParameters() {
+        checkPrepared();
         return parameters;
     }
 
@@ -113,9 +198,30 @@ public class CommandRemote implements CommandInterface {
             id = Integer.MIN_VALUE;
         }
         session.checkClosed();
+        if (prepareError != null) {
+            throw prepareError;
+        }
         if (id <= session.getCurrentId() - SysProperties.SERVER_CACHED_OBJECTS) {
             // object is too old - we need to prepare again
-            prepare(session, false);
+            prepare(session, pending);
+        }
+    }
+
+    /**
+     * Read the status of the response to an execute request. If the prepare
+     * request was pipelined and failed, the server also sent an error for the
+     * execute request, and the prepare error is thrown instead.
+     *
+     * @param transfer the transfer object
+     */
+    private void done(Transfer transfer) throws IOException {
+        try {
+            session.done(transfer);
+        } catch (DbException e) {
+            if (prepareError != null) {
+                throw prepareError;
+            }
+            throw e;
         }
     }
     
@@ -124,6 +230,7 @@ public class CommandRemote implements CommandInterface {
     @Override
     public ResultInterface getMetaData() {
         synchronized (session) {
+            checkPrepared();
             if (!isQuery) {
                 return null;
             }
@@ -178,7 +285,7 @@ public class CommandRemote implements CommandInterface {
                     transfer.writeInt(fetch);
                     //如果是JdbcStatement，没有参数，JdbcPreparedStatement才有
                     sendParameters(transfer);
-                    session.done(transfer);
+                    done(transfer);
                     int columnCount = transfer.readInt();
                     if (result != null) {
                         result.close();
@@ -218,7 +325,7 @@ public class CommandRemote implements CommandInterface {
                     transfer.writeInt(SessionRemote.COMMAND_EXECUTE_UPDATE).writeInt(id);
                     //如果是JdbcStatement，没有参数，JdbcPreparedStatement才有
                     sendParameters(transfer);
-                    session.done(transfer);
+                    done(transfer);
                     updateCount = transfer.readInt();
                     autoCommit = transfer.readBoolean();
                 } catch (IOException e) {
@@ -233,6 +340,60 @@ public class CommandRemote implements CommandInterface {
         }
     }
 
+    @Override
+    public int[] executeBatchUpdate(ArrayList<Value[]> batchParameters,
+            DbException[] exceptions) {
+        if (session.getClientVersion() < Constants.TCP_PROTOCOL_VERSION_16) {
+            return null;
+        }
+        int len = getParameters().size();
+        for (Value[] set : batchParameters) {
+            for (Value v : set) {
+                if (v == null) {
+                    // the error is reported for each row
+                    return null;
+                }
+            }
+        }
+        synchronized (session) {
+            int size = batchParameters.size();
+            int[] updateCounts = null;
+            boolean autoCommit = false;
+            for (int i = 0, count = 0; i < transferList.size(); i++) {
+                prepareIfRequired();
+                Transfer transfer = transferList.get(i);
+                try {
+                    session.traceOperation("COMMAND_EXECUTE_BATCH_UPDATE", id);
+                    transfer.writeInt(SessionRemote.COMMAND_EXECUTE_BATCH_UPDATE).
+                        writeInt(id).writeInt(size).writeInt(len);
+                    for (Value[] set : batchParameters) {
+                        for (Value v : set) {
+                            transfer.writeValue(v);
+                        }
+                    }
+                    session.done(transfer);
+                    updateCounts = new int[size];
+                    for (int j = 0; j < size; j++) {
+                        if (transfer.readInt() == SessionRemote.STATUS_ERROR) {
+                            exceptions[j] = DbException.convert(
+                                    session.readException(transfer));
+                            updateCounts[j] = Statement.EXECUTE_FAILED;
+                        } else {
+                            updateCounts[j] = transfer.readInt();
+                        }
+                    }
+                    autoCommit = transfer.readBoolean();
+                } catch (IOException e) {
+                    session.removeServer(e, i--, ++count);
+                }
+            }
+            session.setAutoCommitFromServer(autoCommit);
+            session.autoCommitIfCluster();
+            session.readSessionState();
+            return updateCounts;
+        }
+    }
+
     private void checkParameters() {
         for (ParameterInterface p : parameters) {
             p.checkSet();
@@ -289,7 +450,7 @@ public class CommandRemote implements CommandInterface {
 
     @Override
     public String toString() {
-        return sql + Trace.formatParams(getParameters());
+        return sql + Trace.formatParams(parameters);
     }
 
     @Override
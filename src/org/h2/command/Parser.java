@@ -5347,6 +5347,10 @@ public class Parser {
             readIfEqualOrTo();
             read();
             return new NoOperation(session);
+        } else if (readIf("NETWORK_COMPRESSION")) {
+            readIfEqualOrTo();
+            read();
+            return new NoOperation(session);
         } else if (readIf("PAGE_SIZE")) {
             readIfEqualOrTo();
             read();
@@ -6,15 +6,18 @@
 package org.h2.command;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import org.h2.api.DatabaseEventListener;
 import org.h2.api.ErrorCode;
 import org.h2.engine.Database;
+import org.h2.engine.DbObject;
 import org.h2.engine.Session;
 import org.h2.expression.Expression;
 import org.h2.expression.Parameter;
 import org.h2.message.DbException;
 import org.h2.message.Trace;
 import org.h2.result.ResultInterface;
+import org.h2.table.Table;
 import org.h2.util.StatementBuilder;
 import org.h2.value.Value;
 
@@ -451,4 +454,37 @@ public abstract class Prepared {
         return false;
     }
 
+    /**
+     * Check if the statement can be kept in the database-wide statement cache
+     * (see StatementCache), and then be executed by other sessions. This is
+     * only possible for cacheable statements that only use regular tables
+     * (no views, and no session specific tables).
+     *
+     * @param dependencies the set to which the objects the statement depends
+     *            on are added
+     * @return true if the statement can be shared
+     */
+    public boolean isShareable(HashSet<DbObject> dependencies) {
+        return false;
+    }
+
+    /**
+     * Check whether all tables the statement depends on are regular tables.
+     *
+     * @param dependencies the dependencies (tables and other objects)
+     * @return true if the statement can be shared
+     */
+    protected static boolean isRegularTables(HashSet<DbObject> dependencies) {
+        for (DbObject obj : dependencies) {
+            if (obj instanceof Table) {
+                Table t = (Table) obj;
+                if (!Table.TABLE.equals(t.getTableType()) ||
+                        (t.isTemporary() && !t.isGlobalTemporary())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
 }
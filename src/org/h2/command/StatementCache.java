@@ -0,0 +1,265 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.command;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.h2.engine.Database;
+import org.h2.engine.DbObject;
+import org.h2.engine.DbObjectBase;
+import org.h2.engine.Session;
+import org.h2.util.New;
+
+/**
+ * A database-wide cache of prepared statements that are currently not used
+ * by any session. When a session is closed, or removes a statement from its
+ * own query cache, the statement is added here. A session that prepares the
+ * same statement later on takes it from here and continues to use it, instead
+ * of parsing and optimizing the statement again. A statement is only used by
+ * one session at a time.
+ * <p>
+ * The key is the SQL statement and the session settings parsing depends on:
+ * the user, the current schema, and the schema search path. Only statements
+ * that use regular tables are cached (see Prepared.isShareable).
+ * <p>
+ * A statement is only taken from the cache if the objects it depends on were
+ * not modified since it was added. All statements are removed when a schema
+ * object, a user, a role or a right is created, changed, or removed, because
+ * this may change how a statement is parsed (see Database.clearStatementCache),
+ * and when a setting is changed that affects statements. Other settings (for
+ * example the lock timeout set in the database URL) do not remove statements.
+ */
+//会话关闭时把它缓存的Prepared交给这里，其他会话再执行同样的SQL时直接拿过去用(改成自己的session)，
+//不需要重新解析和优化，同一时刻一个Prepared只属于一个会话
+public class StatementCache {
+
+    private final Database database;
+    private final int maxSize;
+
+    /**
+     * The unused statements per key (least recently used first).
+     */
+    private final LinkedHashMap<String, ArrayList<Entry>> map =
+            new LinkedHashMap<String, ArrayList<Entry>>(16, 0.75f, true);
+
+    /**
+     * The number of statements in the map.
+     */
+    private int size;
+
+    /**
+     * The meta data modification id when the cache was cleared the last time.
+     * Statements that were prepared before can not be added.
+     */
+    private long clearedModificationMetaId;
+
+    private long hits, misses, evictions;
+
+    /**
+     * Create a new cache.
+     *
+     * @param database the database
+     * @param maxSize the maximum number of statements
+     */
+    public StatementCache(Database database, int maxSize) {
+        this.database = database;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Take a statement from the cache. The statement is removed from the
+     * cache, and now belongs to the given session.
+     *
+     * @param session the session
+     * @param sql the SQL statement
+     * @return the command, or null if the statement is not cached
+     */
+    public synchronized Command take(Session session, String sql) {
+        String key = getKey(session, sql);
+        ArrayList<Entry> list = map.get(key);
+        Prepared p = null;
+        while (p == null && list != null && !list.isEmpty()) {
+            Entry e = list.remove(list.size() - 1);
+            size--;
+            if (e.isValid()) {
+                p = e.prepared;
+            }
+        }
+        if (list != null && list.isEmpty()) {
+            map.remove(key);
+        }
+        if (p == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        // the statement is still valid, even if the meta data modification
+        // id was changed in the meantime (for example by a SET statement)
+        p.setModificationMetaId(database.getModificationMetaId());
+        p.setSession(session);
+        Command command = new CommandContainer(session, sql, p);
+        // clear the parameter values of the last execution
+        command.reuse();
+        return command;
+    }
+
+    /**
+     * Add a statement the session does not use any longer. Statements that
+     * are still in use, or that can not be shared, are ignored.
+     *
+     * @param session the session
+     * @param sql the SQL statement
+     * @param command the command
+     */
+    public synchronized void add(Session session, String sql,
+            Command command) {
+        if (!command.canReuse() || !(command instanceof CommandContainer)) {
+            return;
+        }
+        Prepared p = ((CommandContainer) command).getPrepared();
+        if (p.getModificationMetaId() < clearedModificationMetaId ||
+                database.getSettings().recompileAlways) {
+            return;
+        }
+        HashSet<DbObject> dependencies = New.hashSet();
+        if (!p.isShareable(dependencies)) {
+            return;
+        }
+        Entry e = new Entry(p, dependencies);
+        if (!e.isValid()) {
+            // an object was removed in the meantime
+            return;
+        }
+        String key = getKey(session, sql);
+        ArrayList<Entry> list = map.get(key);
+        if (list == null) {
+            list = New.arrayList();
+            map.put(key, list);
+        }
+        list.add(e);
+        size++;
+        while (size > maxSize) {
+            Iterator<Map.Entry<String, ArrayList<Entry>>> it =
+                    map.entrySet().iterator();
+            ArrayList<Entry> eldest = it.next().getValue();
+            eldest.remove(0);
+            if (eldest.isEmpty()) {
+                it.remove();
+            }
+            size--;
+            evictions++;
+        }
+    }
+
+    private static String getKey(Session session, String sql) {
+        StringBuilder buff = new StringBuilder();
+        buff.append(session.getUser().getName()).append('\0').
+                append(session.getCurrentSchemaName()).append('\0');
+        String[] path = session.getSchemaSearchPath();
+        if (path != null) {
+            for (String s : path) {
+                buff.append(s).append(',');
+            }
+        }
+        return buff.append('\0').append(sql).toString();
+    }
+
+    /**
+     * Remove all statements. Statements that were prepared before can not be
+     * added afterwards. The meta data modification id must have been
+     * incremented before this method is called.
+     */
+    public synchronized void clear() {
+        map.clear();
+        size = 0;
+        clearedModificationMetaId = database.getModificationMetaId();
+    }
+
+    /**
+     * Get the number of cached statements.
+     *
+     * @return the number of statements
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of times a statement was found in the cache.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of times a statement was not found in the cache.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of statements that were removed because the cache was
+     * full.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * A cached statement, and the modification ids of the objects it depends
+     * on at the time it was added.
+     */
+    private static class Entry {
+
+        final Prepared prepared;
+        private final DbObjectBase[] dependencies;
+        private final long[] modificationIds;
+
+        Entry(Prepared prepared, HashSet<DbObject> dependencies) {
+            this.prepared = prepared;
+            ArrayList<DbObjectBase> list = New.arrayList();
+            for (DbObject obj : dependencies) {
+                if (obj instanceof DbObjectBase) {
+                    list.add((DbObjectBase) obj);
+                }
+            }
+            this.dependencies = list.toArray(new DbObjectBase[list.size()]);
+            modificationIds = new long[this.dependencies.length];
+            for (int i = 0; i < modificationIds.length; i++) {
+                modificationIds[i] = this.dependencies[i].getModificationId();
+            }
+        }
+
+        /**
+         * Check whether none of the objects the statement depends on was
+         * modified or removed.
+         *
+         * @return true if the statement can be used
+         */
+        boolean isValid() {
+            for (int i = 0; i < dependencies.length; i++) {
+                DbObjectBase obj = dependencies[i];
+                if (obj.getModificationId() != modificationIds[i] ||
+                        obj.getDatabase() == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -5,13 +5,17 @@
  */
 package org.h2.command.dml;
 
+import java.util.HashSet;
+
 import org.h2.api.Trigger;
 import org.h2.command.CommandInterface;
 import org.h2.command.Prepared;
+import org.h2.engine.DbObject;
 import org.h2.engine.Right;
 import org.h2.engine.Session;
 import org.h2.engine.UndoLogRecord;
 import org.h2.expression.Expression;
+import org.h2.expression.ExpressionVisitor;
 import org.h2.result.ResultInterface;
 import org.h2.result.Row;
 import org.h2.result.RowList;
@@ -167,4 +171,15 @@ public class Delete extends Prepared {
         return true;
     }
 
+    @Override
+    public boolean isShareable(HashSet<DbObject> dependencies) {
+        ExpressionVisitor visitor =
+                ExpressionVisitor.getDependenciesVisitor(dependencies);
+        visitor.addDependency(tableFilter.getTable());
+        if (condition != null) {
+            condition.isEverything(visitor);
+        }
+        return isRegularTables(dependencies);
+    }
+
 }
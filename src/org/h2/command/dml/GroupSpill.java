@@ -0,0 +1,250 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.command.dml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.h2.engine.Session;
+import org.h2.expression.Aggregate;
+import org.h2.expression.Expression;
+import org.h2.expression.ExpressionColumn;
+import org.h2.message.DbException;
+import org.h2.result.SpillFile;
+import org.h2.util.New;
+import org.h2.util.ValueHashMap;
+import org.h2.value.Value;
+import org.h2.value.ValueArray;
+
+/**
+ * The groups of a GROUP BY query that did not fit in memory. Groups are
+ * written to a number of partitions (temporary files) by the hash code of the
+ * group key, together with the partial state of the aggregates. When reading,
+ * one partition after the other is loaded and the partial states of the same
+ * group are merged. A partition that is still too large is split again using
+ * other bits of the hash code (grace hash aggregation).
+ */
+class GroupSpill {
+
+    /**
+     * The number of partitions a file is split into.
+     */
+    private static final int PARTITION_BITS = 4;
+
+    private static final int PARTITIONS = 1 << PARTITION_BITS;
+
+    private static final int MAX_LEVEL = 32 / PARTITION_BITS - 1;
+
+    private final Session session;
+    private final int keyLength;
+    private final int maxGroups;
+    private final HashMap<Expression, Integer> expressionIds = New.hashMap();
+    private final ArrayList<Expression> expressions = New.arrayList();
+    private final SpillFile[] partitions = new SpillFile[PARTITIONS];
+    private final ArrayList<SpillFile> pending = New.arrayList();
+    private final ArrayList<Integer> pendingLevels = New.arrayList();
+
+    /**
+     * @param session the session
+     * @param keyLength the number of GROUP BY expressions
+     * @param maxGroups the number of groups to keep in memory when reading
+     */
+    GroupSpill(Session session, int keyLength, int maxGroups) {
+        this.session = session;
+        this.keyLength = keyLength;
+        this.maxGroups = maxGroups;
+    }
+
+    /**
+     * Check whether the state of this group can be written to disk. This is
+     * not the case for user defined aggregates.
+     *
+     * @param group the group
+     * @return true if it can be written
+     */
+    static boolean isSpillable(HashMap<Expression, Object> group) {
+        for (Map.Entry<Expression, Object> e : group.entrySet()) {
+            Expression expr = e.getKey();
+            if (expr instanceof ExpressionColumn) {
+                continue;
+            }
+            if (expr instanceof Aggregate &&
+                    ((Aggregate) expr).getGroupState(e.getValue()) != null) {
+                continue;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write all groups to the partitions.
+     *
+     * @param groups the groups
+     */
+    void write(ValueHashMap<HashMap<Expression, Object>> groups) {
+        for (Value k : groups.keys()) {
+            HashMap<Expression, Object> group = groups.get(k);
+            Value[] state = new Value[expressions.size() + group.size()];
+            int len = 0;
+            for (Map.Entry<Expression, Object> e : group.entrySet()) {
+                Expression expr = e.getKey();
+                Value v;
+                if (expr instanceof Aggregate) {
+                    v = ((Aggregate) expr).getGroupState(e.getValue());
+                    if (v == null) {
+                        throw DbException.throwInternalError(expr.getSQL());
+                    }
+                } else {
+                    v = (Value) e.getValue();
+                }
+                int id = getExpressionId(expr);
+                state[id] = v;
+                len = Math.max(len, id + 1);
+            }
+            Value[] keyValues = ((ValueArray) k).getList();
+            Value[] row = new Value[keyLength + len];
+            System.arraycopy(keyValues, 0, row, 0, keyLength);
+            System.arraycopy(state, 0, row, keyLength, len);
+            int p = getPartition(k, 0);
+            if (partitions[p] == null) {
+                partitions[p] = new SpillFile(session);
+            }
+            partitions[p].add(row);
+        }
+    }
+
+    private int getExpressionId(Expression expr) {
+        Integer id = expressionIds.get(expr);
+        if (id == null) {
+            id = expressions.size();
+            expressions.add(expr);
+            expressionIds.put(expr, id);
+        }
+        return id;
+    }
+
+    private static int getPartition(Value key, int level) {
+        int h = key.hashCode();
+        // spread the bits, as in java.util.HashMap
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return (h >>> (level * PARTITION_BITS)) & (PARTITIONS - 1);
+    }
+
+    /**
+     * Stop writing, and prepare reading the partitions.
+     */
+    void done() {
+        for (SpillFile f : partitions) {
+            if (f != null) {
+                pending.add(f);
+                pendingLevels.add(0);
+            }
+        }
+    }
+
+    /**
+     * Read the next partition and merge the groups it contains.
+     *
+     * @return the groups, or null if all partitions were read
+     */
+    ValueHashMap<HashMap<Expression, Object>> next() {
+        while (!pending.isEmpty()) {
+            int last = pending.size() - 1;
+            SpillFile file = pending.remove(last);
+            int level = pendingLevels.remove(last);
+            ValueHashMap<HashMap<Expression, Object>> groups = read(file, level);
+            file.close();
+            if (groups != null) {
+                return groups;
+            }
+        }
+        return null;
+    }
+
+    private ValueHashMap<HashMap<Expression, Object>> read(SpillFile file,
+            int level) {
+        ValueHashMap<HashMap<Expression, Object>> groups =
+                ValueHashMap.newInstance();
+        file.reset();
+        while (file.hasNext()) {
+            Value[] row = file.next();
+            Value[] keyValues = new Value[keyLength];
+            System.arraycopy(row, 0, keyValues, 0, keyLength);
+            ValueArray key = ValueArray.get(keyValues);
+            HashMap<Expression, Object> group = groups.get(key);
+            if (group == null) {
+                if (groups.size() >= maxGroups && level < MAX_LEVEL) {
+                    split(file, level + 1);
+                    return null;
+                }
+                group = New.hashMap();
+                groups.put(key, group);
+            }
+            for (int i = keyLength; i < row.length; i++) {
+                Value v = row[i];
+                if (v == null) {
+                    continue;
+                }
+                Expression expr = expressions.get(i - keyLength);
+                Object old = group.get(expr);
+                if (expr instanceof Aggregate) {
+                    Aggregate a = (Aggregate) expr;
+                    Object data = a.readGroupState(v);
+                    if (old == null) {
+                        group.put(expr, data);
+                    } else {
+                        a.mergeGroupState(session, old, data);
+                    }
+                } else if (old == null) {
+                    // like ExpressionColumn.updateAggregate,
+                    // keep the first value
+                    group.put(expr, v);
+                }
+            }
+        }
+        return groups;
+    }
+
+    private void split(SpillFile file, int level) {
+        SpillFile[] parts = new SpillFile[PARTITIONS];
+        file.reset();
+        while (file.hasNext()) {
+            Value[] row = file.next();
+            Value[] keyValues = new Value[keyLength];
+            System.arraycopy(row, 0, keyValues, 0, keyLength);
+            int p = getPartition(ValueArray.get(keyValues), level);
+            if (parts[p] == null) {
+                parts[p] = new SpillFile(session);
+            }
+            parts[p].add(row);
+        }
+        for (SpillFile f : parts) {
+            if (f != null) {
+                pending.add(f);
+                pendingLevels.add(level);
+            }
+        }
+    }
+
+    /**
+     * Close and delete all temporary files.
+     */
+    void close() {
+        for (SpillFile f : partitions) {
+            if (f != null) {
+                f.close();
+            }
+        }
+        for (SpillFile f : pending) {
+            f.close();
+        }
+        pending.clear();
+        pendingLevels.clear();
+    }
+
+}
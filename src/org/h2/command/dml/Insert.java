@@ -7,12 +7,16 @@ package org.h2.command.dml;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import org.h2.api.ErrorCode;
 import org.h2.api.Trigger;
 import org.h2.command.Command;
 import org.h2.command.CommandInterface;
 import org.h2.command.Prepared;
+import org.h2.constraint.Constraint;
+import org.h2.engine.DbObject;
+import org.h2.engine.FunctionAlias;
 import org.h2.engine.Right;
 import org.h2.engine.Session;
 import org.h2.engine.UndoLogRecord;
@@ -20,6 +24,7 @@ import org.h2.expression.Comparison;
 import org.h2.expression.ConditionAndOr;
 import org.h2.expression.Expression;
 import org.h2.expression.ExpressionColumn;
+import org.h2.expression.ExpressionVisitor;
 import org.h2.expression.Parameter;
 import org.h2.index.Index;
 import org.h2.message.DbException;
@@ -39,6 +44,11 @@ import org.h2.value.ValueNull;
  */
 public class Insert extends Prepared implements ResultTarget {
 
+    /**
+     * The maximum number of rows that are added to the table as a group.
+     */
+    private static final int BULK_ROWS = 10000;
+
     private Table table;
     private Column[] columns;
     private final ArrayList<Expression[]> list = New.arrayList();
@@ -52,6 +62,13 @@ public class Insert extends Prepared implements ResultTarget {
      */
     private HashMap<Column, Expression> duplicateKeyAssignmentMap;
 
+    /**
+     * The rows that were not yet added to the table, or null if each row is
+     * added immediately.
+     */
+    private ArrayList<Row> bulkRows;
+    private int bulkSize;
+
     public Insert(Session session) {
         super(session);
     }
@@ -124,7 +141,14 @@ public class Insert extends Prepared implements ResultTarget {
         setCurrentRowNumber(0);
         table.fire(session, Trigger.INSERT, true);
         rowNumber = 0;
+        bulkRows = null;
         int listSize = list.size();
+        if (listSize != 1 && duplicateKeyAssignmentMap == null &&
+                table.isMVStore() && table.canAddRows() && !readsTable()) {
+            bulkRows = New.arrayList();
+            bulkSize = Math.max(1, Math.min(BULK_ROWS,
+                    session.getDatabase().getMaxMemoryRows()));
+        }
         if (listSize > 0) {
             int columnLen = columns.length;
             for (int x = 0; x < listSize; x++) {
@@ -151,7 +175,9 @@ public class Insert extends Prepared implements ResultTarget {
                 rowNumber++;
                 table.validateConvertUpdateSequence(session, newRow);
                 boolean done = table.fireBeforeRow(session, null, newRow); //INSTEAD OF触发器会返回true
-                if (!done) {
+                if (!done && bulkRows != null) {
+                    addBulkRow(newRow);
+                } else if (!done) {
                 	//直到事务commit或rollback时才解琐，见org.h2.engine.Session.unlockAll()
                     table.lock(session, true, false);
                     try {
@@ -181,10 +207,76 @@ public class Insert extends Prepared implements ResultTarget {
                 rows.close();
             }
         }
+        flushBulkRows();
         table.fire(session, Trigger.INSERT, false);
         return rowNumber;
     }
 
+    /**
+     * Check if computing a row may read the table (in the values, the query,
+     * a column default or a check constraint), or call a user defined function
+     * that could read it. Such rows are added one by one, because the rows
+     * that are buffered are not visible yet.
+     *
+     * @return true if the table may be read
+     */
+    private boolean readsTable() {
+        HashSet<DbObject> dependencies = New.hashSet();
+        ExpressionVisitor visitor =
+                ExpressionVisitor.getDependenciesVisitor(dependencies);
+        for (Column c : table.getColumns()) {
+            c.isEverything(visitor);
+        }
+        ArrayList<Constraint> constraints = table.getConstraints();
+        if (constraints != null) {
+            for (Constraint c : constraints) {
+                c.isEverything(visitor);
+            }
+        }
+        if (query != null) {
+            query.isEverything(visitor);
+        }
+        for (Expression[] expr : list) {
+            for (Expression e : expr) {
+                if (e != null) {
+                    e.isEverything(visitor);
+                }
+            }
+        }
+        for (DbObject d : dependencies) {
+            if (d == table || d instanceof FunctionAlias) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addBulkRow(Row newRow) {
+        bulkRows.add(newRow);
+        if (bulkRows.size() >= bulkSize) {
+            flushBulkRows();
+        }
+    }
+
+    /**
+     * Add the buffered rows to the table. Sorting them per index first means
+     * neighbouring keys are added one after the other, instead of searching
+     * a random position in the index for each row.
+     */
+    private void flushBulkRows() {
+        if (bulkRows == null || bulkRows.isEmpty()) {
+            return;
+        }
+        table.lock(session, true, false);
+        table.addRows(session, bulkRows);
+        for (int i = 0, size = bulkRows.size(); i < size; i++) {
+            Row row = bulkRows.get(i);
+            session.log(table, UndoLogRecord.INSERT, row);
+            table.fireAfterRow(session, null, row, false);
+        }
+        bulkRows.clear();
+    }
+
     @Override
     public void addRow(Value[] values) {
         Row newRow = table.getTemplateRow();
@@ -201,7 +293,9 @@ public class Insert extends Prepared implements ResultTarget {
         }
         table.validateConvertUpdateSequence(session, newRow);
         boolean done = table.fireBeforeRow(session, null, newRow);
-        if (!done) {
+        if (!done && bulkRows != null) {
+            addBulkRow(newRow);
+        } else if (!done) {
             table.addRow(session, newRow);
             session.log(table, UndoLogRecord.INSERT, newRow);
             table.fireAfterRow(session, null, newRow, false);
@@ -321,6 +415,35 @@ public class Insert extends Prepared implements ResultTarget {
                 duplicateKeyAssignmentMap.isEmpty();
     }
 
+    @Override
+    public boolean isShareable(HashSet<DbObject> dependencies) {
+        if (!isCacheable()) {
+            return false;
+        }
+        ExpressionVisitor visitor =
+                ExpressionVisitor.getDependenciesVisitor(dependencies);
+        visitor.addDependency(table);
+        for (Expression[] expr : list) {
+            for (Expression e : expr) {
+                if (e != null) {
+                    e.isEverything(visitor);
+                }
+            }
+        }
+        if (query != null) {
+            query.isEverything(visitor);
+        }
+        return isRegularTables(dependencies);
+    }
+
+    @Override
+    public void setSession(Session currentSession) {
+        super.setSession(currentSession);
+        if (query != null) {
+            query.setSession(currentSession);
+        }
+    }
+
     private void handleOnDuplicate(DbException de) {
         if (de.getErrorCode() != ErrorCode.DUPLICATE_KEY_1) {
             throw de;
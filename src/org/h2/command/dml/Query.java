@@ -11,6 +11,7 @@ import java.util.HashSet;
 import org.h2.api.ErrorCode;
 import org.h2.command.Prepared;
 import org.h2.engine.Database;
+import org.h2.engine.DbObject;
 import org.h2.engine.Session;
 import org.h2.expression.Alias;
 import org.h2.expression.Expression;
@@ -20,6 +21,7 @@ import org.h2.expression.Parameter;
 import org.h2.expression.ValueExpression;
 import org.h2.message.DbException;
 import org.h2.result.LocalResult;
+import org.h2.result.ResultInterface;
 import org.h2.result.ResultTarget;
 import org.h2.result.SortOrder;
 import org.h2.table.ColumnResolver;
@@ -298,6 +300,18 @@ public abstract class Query extends Prepared {
         return query(maxrows, null);
     }
 
+    /**
+     * Execute the query. If possible, a result is returned that only computes
+     * the rows when they are read; otherwise, the result is built first. The
+     * result can only be read forward.
+     *
+     * @param maxrows the maximum number of rows to return
+     * @return the result set
+     */
+    public ResultInterface queryLazy(int maxrows) {
+        return query(maxrows);
+    }
+
     /**
      * Execute the query, writing the result to the target result.
      *
@@ -562,6 +576,26 @@ public abstract class Query extends Prepared {
         return v.getInt();
     }
 
+    @Override
+    public void setSession(Session currentSession) {
+        if (currentSession != session) {
+            // the last result may contain uncommitted changes
+            // of the other session
+            closeLastResult();
+            lastResult = null;
+        }
+        super.setSession(currentSession);
+    }
+
+    @Override
+    public boolean isShareable(HashSet<DbObject> dependencies) {
+        if (!isCacheable()) {
+            return false;
+        }
+        isEverything(ExpressionVisitor.getDependenciesVisitor(dependencies));
+        return isRegularTables(dependencies);
+    }
+
     public final long getMaxDataModificationId() {
         //获得SQL语句(包括表达式中)涉及到的表或Sequence的ModificationId的最大值
         ExpressionVisitor visitor = ExpressionVisitor.getMaxModificationIdVisitor();
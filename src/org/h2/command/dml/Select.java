@@ -27,6 +27,7 @@ import org.h2.index.Cursor;
 import org.h2.index.Index;
 import org.h2.index.IndexType;
 import org.h2.message.DbException;
+import org.h2.result.LazyResult;
 import org.h2.result.LocalResult;
 import org.h2.result.ResultInterface;
 import org.h2.result.ResultTarget;
@@ -89,6 +90,7 @@ public class Select extends Query {
     private boolean sortUsingIndex;
     private SortOrder sort;
     private int currentGroupRowId;
+    private LazySelectResult lazyResult;
 
     public Select(Session session) {
         super(session);
@@ -362,69 +364,124 @@ public class Select extends Query {
         currentGroup = null;
         ValueArray defaultGroup = ValueArray.get(new Value[0]);
         int sampleSize = getSampleSizeValue(session);
-        while (topTableFilter.next()) {
-            setCurrentRowNumber(rowNumber + 1);
-            if (condition == null ||
-                    Boolean.TRUE.equals(condition.getBooleanValue(session))) {
-                Value key;
-                rowNumber++;
-                //聚合函数的情形
-                if (groupIndex == null) { //如select count(id) from mytable where id>0时groupIndex=null
-                    key = defaultGroup;
-                } else { //group by、having的情形
-                    //避免在ExpressionColumn.getValue中取到旧值
-                    //例如SELECT id/3 AS A, COUNT(*) FROM mytable GROUP BY A HAVING A>=0
-                    currentGroup = null; //我加上的
+        int maxGroups = getMaxMemoryGroups();
+        GroupSpill spill = null;
+        try {
+            while (topTableFilter.next()) {
+                setCurrentRowNumber(rowNumber + 1);
+                if (condition == null ||
+                        Boolean.TRUE.equals(condition.getBooleanValue(session))) {
+                    Value key;
+                    rowNumber++;
+                    //聚合函数的情形
+                    if (groupIndex == null) { //如select count(id) from mytable where id>0时groupIndex=null
+                        key = defaultGroup;
+                    } else { //group by、having的情形
+                        //避免在ExpressionColumn.getValue中取到旧值
+                        //例如SELECT id/3 AS A, COUNT(*) FROM mytable GROUP BY A HAVING A>=0
+                        currentGroup = null; //我加上的
                     
-                	//按当前行，抽取group by字段列表的值，组合成一个key
-                	//例如group by id,name，那么先按id的字段下标从当前行中取出值，放到keyValues[0]中，
-                	//然后取出name字段的值放到keyValues[1]中。
-                    Value[] keyValues = new Value[groupIndex.length];
-                    // update group
-                    for (int i = 0; i < groupIndex.length; i++) {
-                        int idx = groupIndex[i];
-                        Expression expr = expressions.get(idx);
-                        keyValues[i] = expr.getValue(session);
+                    	//按当前行，抽取group by字段列表的值，组合成一个key
+                    	//例如group by id,name，那么先按id的字段下标从当前行中取出值，放到keyValues[0]中，
+                    	//然后取出name字段的值放到keyValues[1]中。
+                        Value[] keyValues = new Value[groupIndex.length];
+                        // update group
+                        for (int i = 0; i < groupIndex.length; i++) {
+                            int idx = groupIndex[i];
+                            Expression expr = expressions.get(idx);
+                            keyValues[i] = expr.getValue(session);
+                        }
+                        key = ValueArray.get(keyValues);
                     }
-                    key = ValueArray.get(keyValues);
-                }
-                HashMap<Expression, Object> values = groups.get(key);
-                if (values == null) {
-                    values = new HashMap<Expression, Object>();
-                    groups.put(key, values);
-                }
-                currentGroup = values;
-                currentGroupRowId++;
-                int len = columnCount;
-                //如果是聚合函数的场景，那么select表达式列表部分不能出现字段
-                //如果是group by、having的场景，那么select表达式列表部分只允许出现group by字段
-                for (int i = 0; i < len; i++) {
-                	//当是聚合函数时groupByExpression为null，group by、having的情形groupByExpression不为null
-                	//select id,count(id) from mytable where id>0时是聚合函数，但是加入id字段是错误的，
-                	//从常识理解来看字段和聚合函数放在一起有歧义，不知道该怎么显式结果，
-                	//所以会报错: Column "ID" must be in the GROUP BY list
-                	//如果变成这样select id,count(id) from mytable where id>0 group by id
-                	//那么语义就很明确了：以id分组，然后统计每组的行数。
-                	//这样显示结果时，
-                	//1  2
-                	//2  4
-                	//3  5
-                	//就表示id是1的有两行，id是2的有4行，id是3的有5行
-                    if (groupByExpression == null || !groupByExpression[i]) {
-                        Expression expr = expressions.get(i);
-                        expr.updateAggregate(session);
+                    HashMap<Expression, Object> values = groups.get(key);
+                    if (values == null) {
+                        values = new HashMap<Expression, Object>();
+                        groups.put(key, values);
+                    }
+                    currentGroup = values;
+                    currentGroupRowId++;
+                    int len = columnCount;
+                    //如果是聚合函数的场景，那么select表达式列表部分不能出现字段
+                    //如果是group by、having的场景，那么select表达式列表部分只允许出现group by字段
+                    for (int i = 0; i < len; i++) {
+                    	//当是聚合函数时groupByExpression为null，group by、having的情形groupByExpression不为null
+                    	//select id,count(id) from mytable where id>0时是聚合函数，但是加入id字段是错误的，
+                    	//从常识理解来看字段和聚合函数放在一起有歧义，不知道该怎么显式结果，
+                    	//所以会报错: Column "ID" must be in the GROUP BY list
+                    	//如果变成这样select id,count(id) from mytable where id>0 group by id
+                    	//那么语义就很明确了：以id分组，然后统计每组的行数。
+                    	//这样显示结果时，
+                    	//1  2
+                    	//2  4
+                    	//3  5
+                    	//就表示id是1的有两行，id是2的有4行，id是3的有5行
+                        if (groupByExpression == null || !groupByExpression[i]) {
+                            Expression expr = expressions.get(i);
+                            expr.updateAggregate(session);
+                        }
+                    }
+                    //分组数超过MAX_MEMORY_ROWS时把所有分组的中间状态写到临时文件中
+                    if (groups.size() > maxGroups) {
+                        if (spill == null) {
+                            if (GroupSpill.isSpillable(values)) {
+                                spill = new GroupSpill(session, groupIndex.length, maxGroups);
+                            } else {
+                                // user defined aggregates: keep all groups in memory
+                                maxGroups = Integer.MAX_VALUE;
+                            }
+                        }
+                        if (spill != null) {
+                            spill.write(groups);
+                            groups = ValueHashMap.newInstance();
+                            currentGroup = null;
+                        }
+                    }
+                    if (sampleSize > 0 && rowNumber >= sampleSize) {
+                        break;
                     }
                 }
-                if (sampleSize > 0 && rowNumber >= sampleSize) {
-                    break;
+            }
+            //只有聚会函数，但是没有记录(可能是表本身没有记录，或没有满足条件的记录)
+            //例如假设id最大为10,用此语句测试select count(id) from mytable where id>1000
+            if (groupIndex == null && groups.size() == 0) {
+                groups.put(defaultGroup, new HashMap<Expression, Object>());
+            }
+            if (spill == null) {
+                addGroupRows(groups, columnCount, result);
+            } else {
+                spill.write(groups);
+                spill.done();
+                while (true) {
+                    ValueHashMap<HashMap<Expression, Object>> part = spill.next();
+                    if (part == null) {
+                        break;
+                    }
+                    addGroupRows(part, columnCount, result);
                 }
             }
+        } finally {
+            if (spill != null) {
+                spill.close();
+            }
         }
-        //只有聚会函数，但是没有记录(可能是表本身没有记录，或没有满足条件的记录)
-        //例如假设id最大为10,用此语句测试select count(id) from mytable where id>1000
-        if (groupIndex == null && groups.size() == 0) {
-            groups.put(defaultGroup, new HashMap<Expression, Object>());
+    }
+
+    /**
+     * Get the maximum number of groups to keep in memory in a GROUP BY
+     * query. If there are more groups, they are written to temporary files.
+     *
+     * @return the maximum number of groups
+     */
+    private int getMaxMemoryGroups() {
+        Database db = session.getDatabase();
+        if (db.isPersistent() && !db.isReadOnly() && groupIndex != null) {
+            return Math.max(1, db.getMaxMemoryRows());
         }
+        return Integer.MAX_VALUE;
+    }
+
+    private void addGroupRows(ValueHashMap<HashMap<Expression, Object>> groups,
+            int columnCount, LocalResult result) {
         ArrayList<Value> keys = groups.keys();
         for (Value v : keys) {
             ValueArray key = (ValueArray) v;
@@ -480,10 +537,17 @@ public class Select extends Query {
                 return null;
             }
             ExpressionColumn exprCol = (ExpressionColumn) expr;
-            if (exprCol.getTableFilter() != topTableFilter) {
-                return null;
+            Column col;
+            if (exprCol.getTableFilter() == topTableFilter) {
+                col = exprCol.getColumn();
+            } else {
+                // ORDER BY B.X, with an inner join condition A.X = B.X
+                col = getJoinedTopColumn(exprCol);
+                if (col == null) {
+                    return null;
+                }
             }
-            sortColumns.add(exprCol.getColumn());
+            sortColumns.add(col);
         }
         Column[] sortCols = sortColumns.toArray(new Column[sortColumns.size()]);
         int[] sortTypes = sort.getSortTypes();
@@ -544,6 +608,70 @@ public class Select extends Query {
         return null;
     }
 
+    /**
+     * Get the column of the top table filter that is always equal to the
+     * given column of another table filter, because both are compared with
+     * = in the condition of an inner join.
+     *
+     * @param exprCol the column of the other table filter
+     * @return the column of the top table filter, or null
+     */
+    private Column getJoinedTopColumn(ExpressionColumn exprCol) {
+        TableFilter f = exprCol.getTableFilter();
+        if (f == null || f.isJoinOuter() || f.isJoinOuterIndirect()) {
+            return null;
+        }
+        ArrayList<Expression> list = New.arrayList();
+        addAndConditions(list, condition);
+        for (TableFilter tf : filters) {
+            if (!tf.isJoinOuter() && !tf.isJoinOuterIndirect()) {
+                addAndConditions(list, tf.getJoinCondition());
+            }
+        }
+        Column column = exprCol.getColumn();
+        for (Expression e : list) {
+            if (!(e instanceof Comparison)) {
+                continue;
+            }
+            Comparison comp = (Comparison) e;
+            if (comp.getCompareType() != Comparison.EQUAL) {
+                continue;
+            }
+            Expression left = comp.getExpression(true);
+            Expression right = comp.getExpression(false);
+            if (!(left instanceof ExpressionColumn) ||
+                    !(right instanceof ExpressionColumn)) {
+                continue;
+            }
+            ExpressionColumn a = (ExpressionColumn) left;
+            ExpressionColumn b = (ExpressionColumn) right;
+            if (b.getTableFilter() == topTableFilter) {
+                ExpressionColumn t = a;
+                a = b;
+                b = t;
+            }
+            if (a.getTableFilter() == topTableFilter &&
+                    b.getTableFilter() == f && b.getColumn() == column &&
+                    a.getColumn().getType() == column.getType()) {
+                return a.getColumn();
+            }
+        }
+        return null;
+    }
+
+    private static void addAndConditions(ArrayList<Expression> list,
+            Expression e) {
+        if (e instanceof ConditionAndOr) {
+            ConditionAndOr c = (ConditionAndOr) e;
+            if (c.getAndOrType() == ConditionAndOr.AND) {
+                addAndConditions(list, c.getExpression(true));
+                addAndConditions(list, c.getExpression(false));
+            }
+        } else if (e != null) {
+            list.add(e);
+        }
+    }
+
     //对于select distinct name from mytable, 直接走name的B-tree索引就可以得到name例的值了，不用找PageData索引
     private void queryDistinct(ResultTarget result, long limitRows) {
         // limitRows must be long, otherwise we get an int overflow
@@ -654,9 +782,7 @@ public class Select extends Query {
         return result;
     }
 
-    @Override
-    protected LocalResult queryWithoutCache(int maxRows, ResultTarget target) { //执行insert into t select时target不为null
-        System.out.println("Select : 659:");
+    private int getLimitRows(int maxRows) {
         int limitRows = maxRows == 0 ? -1 : maxRows;
         if (limitExpr != null) {
             Value v = limitExpr.getValue(session);
@@ -667,6 +793,75 @@ public class Select extends Query {
                 limitRows = Math.min(l, limitRows);
             }
         }
+        return limitRows;
+    }
+
+    @Override
+    public ResultInterface queryLazy(int maxrows) {
+        if (!isLazyQueryPossible()) {
+            return query(maxrows);
+        }
+        fireBeforeSelectTriggers();
+        detachLazyResult();
+        int limitRows = getLimitRows(maxrows);
+        int offset = 0;
+        if (offsetExpr != null) {
+            offset = offsetExpr.getValue(session).getInt();
+        }
+        topTableFilter.startQuery(session);
+        topTableFilter.reset();
+        topTableFilter.lock(session, false, false);
+        setCurrentRowNumber(0);
+        lazyResult = new LazySelectResult(limitRows, offset,
+                getSampleSizeValue(session));
+        return lazyResult;
+    }
+
+    /**
+     * Check if the rows of this query can be computed when they are read.
+     * This is only possible if the rows don't need to be sorted, grouped, or
+     * checked for duplicates, and if all tables are MVStore tables (so that
+     * the open cursors stay valid when the table is changed).
+     */
+    private boolean isLazyQueryPossible() {
+        Database db = session.getDatabase();
+        if (!db.getSettings().lazyQueryExecution || !db.isMultiVersion() ||
+                session.getQueryTimeout() > 0) {
+            return false;
+        }
+        if (isQuickAggregateQuery || isGroupQuery || isDistinctQuery ||
+                distinct || randomAccessResult || isForUpdate) {
+            return false;
+        }
+        if (sort != null && !sortUsingIndex) {
+            return false;
+        }
+        for (TableFilter f : filters) {
+            if (!f.getTable().isMVStore()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * If the lazy result of the last execution is still open, read the
+     * remaining rows, so that the table filters can be used again.
+     */
+    private void detachLazyResult() {
+        if (lazyResult != null) {
+            if (!lazyResult.isClosed()) {
+                lazyResult.detach();
+            }
+            lazyResult = null;
+        }
+    }
+
+    @Override
+    protected LocalResult queryWithoutCache(int maxRows, ResultTarget target) { //执行insert into t select时target不为null
+        System.out.println("Select : 659:");
+        detachLazyResult();
+        int limitRows = getLimitRows(maxRows);
         int columnCount = expressions.size();
         LocalResult result = null;
         if (target == null ||
@@ -691,60 +886,65 @@ public class Select extends Query {
         if (limitRows >= 0 || offsetExpr != null) {
             result = createLocalResult(result);
         }
-        topTableFilter.startQuery(session);
-        topTableFilter.reset();
-        boolean exclusive = isForUpdate && !isForUpdateMvcc; //见setForUpdate(boolean)
-        if (isForUpdateMvcc) {
-            if (isGroupQuery) {
-                throw DbException.getUnsupportedException(
-                        "MVCC=TRUE && FOR UPDATE && GROUP");
-            } else if (distinct) {
-                throw DbException.getUnsupportedException(
-                        "MVCC=TRUE && FOR UPDATE && DISTINCT");
-            } else if (isQuickAggregateQuery) {
-                throw DbException.getUnsupportedException(
-                        "MVCC=TRUE && FOR UPDATE && AGGREGATE");
-            } else if (topTableFilter.getJoin() != null) {
-                throw DbException.getUnsupportedException(
-                        "MVCC=TRUE && FOR UPDATE && JOIN");
-            }
-        }
-        topTableFilter.lock(session, exclusive, exclusive);
-        ResultTarget to = result != null ? result : target;
-        //如果行数限制是0，那么什么也不做
-        if (limitRows != 0) {
-            if (isQuickAggregateQuery) {
-                queryQuick(columnCount, to);
-            } else if (isGroupQuery) {
-                if (isGroupSortedQuery) {
-                    queryGroupSorted(columnCount, to);
-                } else { //isGroupQuery为true且isGroupSortedQuery为false时，result总是为null的，此时用to也是一样的
-                    queryGroup(columnCount, result);
+        try {
+            topTableFilter.startQuery(session);
+            topTableFilter.reset();
+            boolean exclusive = isForUpdate && !isForUpdateMvcc; //见setForUpdate(boolean)
+            if (isForUpdateMvcc) {
+                if (isGroupQuery) {
+                    throw DbException.getUnsupportedException(
+                            "MVCC=TRUE && FOR UPDATE && GROUP");
+                } else if (distinct) {
+                    throw DbException.getUnsupportedException(
+                            "MVCC=TRUE && FOR UPDATE && DISTINCT");
+                } else if (isQuickAggregateQuery) {
+                    throw DbException.getUnsupportedException(
+                            "MVCC=TRUE && FOR UPDATE && AGGREGATE");
+                } else if (topTableFilter.getJoin() != null) {
+                    throw DbException.getUnsupportedException(
+                            "MVCC=TRUE && FOR UPDATE && JOIN");
                 }
-            } else if (isDistinctQuery) {
-                queryDistinct(to, limitRows);
-            } else {
-                queryFlat(columnCount, to, limitRows);
             }
-        }
-        if (offsetExpr != null) {
-            result.setOffset(offsetExpr.getValue(session).getInt());
-        }
-        if (limitRows >= 0) {
-            result.setLimit(limitRows);
-        }
-        if (result != null) {
-            result.done();
-            if (target != null) {
-                while (result.next()) {
-                    target.addRow(result.currentRow());
+            topTableFilter.lock(session, exclusive, exclusive);
+            ResultTarget to = result != null ? result : target;
+            //如果行数限制是0，那么什么也不做
+            if (limitRows != 0) {
+                if (isQuickAggregateQuery) {
+                    queryQuick(columnCount, to);
+                } else if (isGroupQuery) {
+                    if (isGroupSortedQuery) {
+                        queryGroupSorted(columnCount, to);
+                    } else { //isGroupQuery为true且isGroupSortedQuery为false时，result总是为null的，此时用to也是一样的
+                        queryGroup(columnCount, result);
+                    }
+                } else if (isDistinctQuery) {
+                    queryDistinct(to, limitRows);
+                } else {
+                    queryFlat(columnCount, to, limitRows);
                 }
-                result.close();
-                return null;
             }
-            return result;
+            if (offsetExpr != null) {
+                result.setOffset(offsetExpr.getValue(session).getInt());
+            }
+            if (limitRows >= 0) {
+                result.setLimit(limitRows);
+            }
+            if (result != null) {
+                result.done();
+                if (target != null) {
+                    while (result.next()) {
+                        target.addRow(result.currentRow());
+                    }
+                    result.close();
+                    return null;
+                }
+                return result;
+            }
+            return null;
+        } finally {
+            // release the rows of a hash join
+            topTableFilter.endQuery();
         }
-        return null;
     }
 
     private LocalResult createLocalResult(LocalResult old) {
@@ -1527,4 +1727,86 @@ public class Select extends Query {
 	public String toString() { //我加上的
         return getPlanSQL();
     }
+
+    /**
+     * The result of a simple query, where the rows are computed when they are
+     * read (like in queryFlat).
+     */
+    private final class LazySelectResult extends LazyResult {
+
+        private final int limitRows;
+        private final int offset;
+        private final int sampleSize;
+        private int rowNumber;
+        private int count;
+        private ArrayList<Value[]> detached;
+        private int detachedIndex;
+
+        LazySelectResult(int limitRows, int offset, int sampleSize) {
+            super(session, expressionArray, visibleColumnCount);
+            this.limitRows = limitRows;
+            this.offset = offset;
+            this.sampleSize = sampleSize;
+        }
+
+        @Override
+        protected Value[] fetchNextRow() {
+            if (detached != null) {
+                return detachedIndex < detached.size() ?
+                        detached.get(detachedIndex++) : null;
+            }
+            return computeNextRow();
+        }
+
+        private Value[] computeNextRow() {
+            if (limitRows >= 0 && count >= limitRows) {
+                topTableFilter.endQuery();
+                return null;
+            }
+            int columnCount = expressions.size();
+            while (!(sampleSize > 0 && rowNumber >= sampleSize) &&
+                    topTableFilter.next()) {
+                setCurrentRowNumber(rowNumber + 1);
+                if (condition == null ||
+                        Boolean.TRUE.equals(condition.getBooleanValue(session))) {
+                    rowNumber++;
+                    if (rowNumber <= offset) {
+                        continue;
+                    }
+                    Value[] row = new Value[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        row[i] = expressions.get(i).getValue(session);
+                    }
+                    count++;
+                    return row;
+                }
+            }
+            // release the rows of a hash join
+            topTableFilter.endQuery();
+            return null;
+        }
+
+        @Override
+        public void close() {
+            if (!isClosed() && detached == null) {
+                topTableFilter.endQuery();
+            }
+            super.close();
+        }
+
+        /**
+         * Read all remaining rows, so that the query can be executed again.
+         * The statement is then ended by the new execution.
+         */
+        void detach() {
+            ArrayList<Value[]> rows = New.arrayList();
+            for (Value[] row; (row = computeNextRow()) != null;) {
+                rows.add(row);
+            }
+            detached = rows;
+            setCommand(null);
+        }
+
+    }
+
 }
@@ -93,6 +93,13 @@ public class SelectUnion extends Query {
         return right;
     }
 
+    @Override
+    public void setSession(Session currentSession) {
+        super.setSession(currentSession);
+        left.setSession(currentSession);
+        right.setSession(currentSession);
+    }
+
     @Override
     public void setSQL(String sql) {
         this.sqlStatement = sql;
@@ -495,9 +495,58 @@ public class Set extends Prepared {
         // query caches might be affected as well, for example
         // when changing the compatibility mode
         database.getNextModificationMetaId();
+        if (affectsStatements()) {
+            database.clearStatementCache();
+        }
         return 0;
     }
 
+    /**
+     * Check whether the setting may change how a statement is parsed or
+     * executed, so that the statements in the database-wide statement cache
+     * can no longer be used. Settings that are often part of the database
+     * URL, such as the lock timeout, do not.
+     *
+     * @return true if the cached statements need to be removed
+     */
+    private boolean affectsStatements() {
+        switch (type) {
+        case SetTypes.CACHE_SIZE:
+        case SetTypes.CLUSTER:
+        case SetTypes.COMPRESS_LOB:
+        case SetTypes.CREATE_BUILD:
+        case SetTypes.DATABASE_EVENT_LISTENER:
+        case SetTypes.DB_CLOSE_DELAY:
+        case SetTypes.DEFAULT_LOCK_TIMEOUT:
+        case SetTypes.DEFAULT_TABLE_TYPE:
+        case SetTypes.EXCLUSIVE:
+        case SetTypes.LOCK_TIMEOUT:
+        case SetTypes.LOG:
+        case SetTypes.MAX_LENGTH_INPLACE_LOB:
+        case SetTypes.MAX_LOG_SIZE:
+        case SetTypes.MAX_MEMORY_UNDO:
+        case SetTypes.MAX_OPERATION_MEMORY:
+        case SetTypes.QUERY_STATISTICS:
+        case SetTypes.QUERY_STATISTICS_MAX_ENTRIES:
+        case SetTypes.QUERY_TIMEOUT:
+        case SetTypes.REDO_LOG_BINARY:
+        case SetTypes.RETENTION_TIME:
+        case SetTypes.SCHEMA:
+        case SetTypes.SCHEMA_SEARCH_PATH:
+        case SetTypes.THROTTLE:
+        case SetTypes.TRACE_LEVEL_FILE:
+        case SetTypes.TRACE_LEVEL_SYSTEM_OUT:
+        case SetTypes.TRACE_MAX_FILE_SIZE:
+        case SetTypes.UNDO_LOG:
+        case SetTypes.VARIABLE:
+        case SetTypes.WRITE_DELAY:
+            // the schema and the search path are part of the key
+            return false;
+        default:
+            return true;
+        }
+    }
+
     private int getIntValue() {
         expression = expression.optimize(session);
         return expression.getValue(session).getInt();
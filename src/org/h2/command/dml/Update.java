@@ -7,14 +7,17 @@ package org.h2.command.dml;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import org.h2.api.ErrorCode;
 import org.h2.api.Trigger;
 import org.h2.command.CommandInterface;
 import org.h2.command.Prepared;
+import org.h2.engine.DbObject;
 import org.h2.engine.Right;
 import org.h2.engine.Session;
 import org.h2.expression.Expression;
+import org.h2.expression.ExpressionVisitor;
 import org.h2.expression.Parameter;
 import org.h2.expression.ValueExpression;
 import org.h2.message.DbException;
@@ -230,4 +233,20 @@ public class Update extends Prepared {
         return true;
     }
 
+    @Override
+    public boolean isShareable(HashSet<DbObject> dependencies) {
+        ExpressionVisitor visitor =
+                ExpressionVisitor.getDependenciesVisitor(dependencies);
+        visitor.addDependency(tableFilter.getTable());
+        if (condition != null) {
+            condition.isEverything(visitor);
+        }
+        for (Expression e : expressionMap.values()) {
+            if (e != null) {
+                e.isEverything(visitor);
+            }
+        }
+        return isRegularTables(dependencies);
+    }
+
 }
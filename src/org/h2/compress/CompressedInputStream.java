@@ -0,0 +1,162 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.h2.message.DbException;
+
+/**
+ * An input stream to read the frames written by a CompressedOutputStream.
+ * Unlike LZFInputStream, a read only blocks until one frame is available, so
+ * that it can be used for a network connection.
+ */
+public class CompressedInputStream extends InputStream {
+
+    private final InputStream in;
+    private final Compressor compress;
+    private byte[] buffer = new byte[0];
+    private byte[] inBuffer;
+    private int pos, limit;
+    private long bytes, compressedBytes;
+
+    /**
+     * Create a new stream.
+     *
+     * @param in the source stream
+     * @param compress the compression algorithm
+     */
+    public CompressedInputStream(InputStream in, Compressor compress) {
+        this.in = in;
+        this.compress = compress;
+    }
+
+    /**
+     * Read the next frame if the current frame was read completely.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fillBuffer() throws IOException {
+        while (pos >= limit) {
+            int first = in.read();
+            if (first < 0) {
+                return false;
+            }
+            int len = (first << 24) | readInt(3);
+            if (len < 0) {
+                len = -len;
+                buffer = ensureSize(buffer, len);
+                readFully(buffer, len);
+                compressedBytes += 4 + len;
+            } else {
+                int size = readInt(4);
+                inBuffer = ensureSize(inBuffer, len);
+                readFully(inBuffer, len);
+                buffer = ensureSize(buffer, size);
+                try {
+                    compress.expand(inBuffer, 0, len, buffer, 0, size);
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    throw DbException.convertToIOException(e);
+                }
+                compressedBytes += 8 + len;
+                len = size;
+            }
+            bytes += len;
+            pos = 0;
+            limit = len;
+        }
+        return true;
+    }
+
+    private static byte[] ensureSize(byte[] buff, int len) {
+        return buff == null || buff.length < len ? new byte[len] : buff;
+    }
+
+    private int readInt(int byteCount) throws IOException {
+        int x = 0;
+        for (int i = 0; i < byteCount; i++) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            x = (x << 8) | b;
+        }
+        return x;
+    }
+
+    private void readFully(byte[] buff, int len) throws IOException {
+        int off = 0;
+        while (len > 0) {
+            int l = in.read(buff, off, len);
+            if (l < 0) {
+                throw new EOFException();
+            }
+            len -= l;
+            off += l;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillBuffer()) {
+            return -1;
+        }
+        return buffer[pos++] & 255;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillBuffer()) {
+            return -1;
+        }
+        len = Math.min(len, limit - pos);
+        System.arraycopy(buffer, pos, b, off, len);
+        pos += len;
+        return len;
+    }
+
+    /**
+     * Get the number of bytes that can be read without blocking. If the
+     * current frame was read completely, this is the number of bytes of the
+     * next frame that are available in the source stream.
+     *
+     * @return the number of bytes
+     */
+    @Override
+    public int available() throws IOException {
+        return pos < limit ? limit - pos : in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Get the number of bytes read from this stream (after expanding).
+     *
+     * @return the number of bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the number of bytes read from the source stream (compressed,
+     * including the frame headers).
+     *
+     * @return the number of bytes
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+}
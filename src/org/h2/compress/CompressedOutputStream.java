@@ -0,0 +1,132 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that writes the data in frames, and compresses frames that
+ * are large enough. A frame is written when the buffer is full, or when the
+ * stream is flushed, so that it can be used for a network connection.
+ * <p>
+ * Each frame starts with the length (int). If the length is negative, the
+ * frame is not compressed, and the data (-length bytes) follows. Otherwise,
+ * the uncompressed length (int) and the compressed data follows.
+ */
+public class CompressedOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final Compressor compress;
+    private final int minSize;
+    private final byte[] buffer;
+    private int pos;
+    private byte[] outBuffer;
+    private long bytes, compressedBytes;
+
+    /**
+     * Create a new stream.
+     *
+     * @param out the target stream
+     * @param compress the compression algorithm
+     * @param bufferSize the maximum size of a frame
+     * @param minSize the minimum size of a frame to be compressed
+     */
+    public CompressedOutputStream(OutputStream out, Compressor compress,
+            int bufferSize, int minSize) {
+        this.out = out;
+        this.compress = compress;
+        this.minSize = minSize;
+        buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (pos >= buffer.length) {
+            writeFrame();
+        }
+        buffer[pos++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] buff, int off, int len) throws IOException {
+        while (len > 0) {
+            if (pos >= buffer.length) {
+                writeFrame();
+            }
+            int copy = Math.min(buffer.length - pos, len);
+            System.arraycopy(buff, off, buffer, pos, copy);
+            pos += copy;
+            off += copy;
+            len -= copy;
+        }
+    }
+
+    private void writeFrame() throws IOException {
+        int len = pos;
+        if (len == 0) {
+            return;
+        }
+        pos = 0;
+        bytes += len;
+        if (len >= minSize) {
+            int outLen = (len < 100 ? len + 100 : len) * 2;
+            if (outBuffer == null || outBuffer.length < outLen) {
+                outBuffer = new byte[outLen];
+            }
+            int compressed = compress.compress(buffer, len, outBuffer, 0);
+            if (compressed < len) {
+                writeInt(compressed);
+                writeInt(len);
+                out.write(outBuffer, 0, compressed);
+                compressedBytes += 8 + compressed;
+                return;
+            }
+        }
+        writeInt(-len);
+        out.write(buffer, 0, len);
+        compressedBytes += 4 + len;
+    }
+
+    private void writeInt(int x) throws IOException {
+        out.write((byte) (x >> 24));
+        out.write((byte) (x >> 16));
+        out.write((byte) (x >> 8));
+        out.write((byte) x);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeFrame();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    /**
+     * Get the number of bytes written to this stream (before compression).
+     *
+     * @return the number of bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the number of bytes written to the target stream (after
+     * compression, including the frame headers).
+     *
+     * @return the number of bytes
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+}
@@ -96,6 +96,26 @@ public class Constants {
      */
     public static final int TCP_PROTOCOL_VERSION_15 = 15;
 
+    /**
+     * The TCP protocol version number 16.
+     */
+    public static final int TCP_PROTOCOL_VERSION_16 = 16;
+
+    /**
+     * The TCP protocol version number 17.
+     */
+    public static final int TCP_PROTOCOL_VERSION_17 = 17;
+
+    /**
+     * The TCP protocol version number 18.
+     */
+    public static final int TCP_PROTOCOL_VERSION_18 = 18;
+
+    /**
+     * The TCP protocol version number 19.
+     */
+    public static final int TCP_PROTOCOL_VERSION_19 = 19;
+
     /**
      * The major version of this database.
      */
@@ -456,6 +476,11 @@ public class Constants {
      */
     public static final String SUFFIX_MV_STORE_TEMP_FILE = ".tempFile";
 
+    /**
+     * The file name suffix of the redo log of a MVStore database.
+     */
+    public static final String SUFFIX_REDO_FILE = ".redo.db";
+
     /**
      * The file name suffix of temporary files.
      */
@@ -19,6 +19,7 @@ import org.h2.api.ErrorCode;
 import org.h2.api.JavaObjectSerializer;
 import org.h2.api.TableEngine;
 import org.h2.command.CommandInterface;
+import org.h2.command.StatementCache;
 import org.h2.command.ddl.CreateTableData;
 import org.h2.command.dml.SetTypes;
 import org.h2.constraint.Constraint;
@@ -191,11 +192,15 @@ public class Database implements DataHandler {
     private boolean queryStatistics;
     private int queryStatisticsMaxEntries = Constants.QUERY_STATISTICS_MAX_ENTRIES;
     private QueryStatisticsData queryStatisticsData;
+    private final StatementCache statementCache;
 
     public Database(ConnectionInfo ci, String cipher) {
         String name = ci.getName();
         this.dbSettings = ci.getDbSettings();
         this.reconnectCheckDelay = dbSettings.reconnectCheckDelay;
+        statementCache = dbSettings.sharedQueryCacheSize > 0 ?
+                new StatementCache(this, dbSettings.sharedQueryCacheSize) :
+                null;
         this.compareMode = CompareMode.getInstance(null, 0);
         this.persistent = ci.isPersistent();
         this.filePasswordHash = ci.getFilePasswordHash();
@@ -1005,6 +1010,7 @@ public class Database implements DataHandler {
         synchronized (this) {
             obj.getSchema().add(obj);
             addMeta(session, obj);
+            clearStatementCache();
         }
     }
 
@@ -1033,6 +1039,9 @@ public class Database implements DataHandler {
         lockMeta(session);
         addMeta(session, obj);
         map.put(name, obj);
+        if (obj.getType() != DbObject.SETTING) {
+            clearStatementCache();
+        }
     }
 
     /**
@@ -1639,6 +1648,11 @@ public class Database implements DataHandler {
         if (id > 0) {
             objectIds.set(id);
         }
+        int type = obj.getType();
+        // sequences are updated when more values are reserved
+        if (type != DbObject.SETTING && type != DbObject.SEQUENCE) {
+            clearStatementCache();
+        }
     }
 
     /**
@@ -1770,6 +1784,9 @@ public class Database implements DataHandler {
         obj.removeChildrenAndResources(session);  //里面也有可能调用removeMeta
         map.remove(objName);
         removeMeta(session, id);
+        if (type != DbObject.SETTING) {
+            clearStatementCache();
+        }
     }
 
     /**
@@ -1855,6 +1872,7 @@ public class Database implements DataHandler {
                 obj.removeChildrenAndResources(session);
             }
             removeMeta(session, id);
+            clearStatementCache();
         }
     }
 
@@ -2286,6 +2304,28 @@ public class Database implements DataHandler {
         }
     }
 
+    /**
+     * Get the database-wide statement cache.
+     *
+     * @return the cache, or null if disabled
+     */
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Remove all statements from the database-wide statement cache, because
+     * the meta data was changed in a way that may affect statements (for
+     * example, a table or a right was added, changed, or removed).
+     */
+    public synchronized void clearStatementCache() {
+        if (statementCache != null) {
+            // statements prepared before can then not be added
+            getNextModificationMetaId();
+            statementCache.clear();
+        }
+    }
+
     public QueryStatisticsData getQueryStatisticsData() {
         if (!queryStatistics) {
             return null;
@@ -127,12 +127,27 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean functionsInSchema = get("FUNCTIONS_IN_SCHEMA", true);
 
+    /**
+     * Database setting <code>HASH_JOIN</code> (default: false).<br />
+     * Whether the optimizer may build a temporary hash table for the inner
+     * table of a join, if there is no index on the join columns.
+     */
+    public final boolean hashJoin = get("HASH_JOIN", false);
+
     /**
      * Database setting <code>LARGE_TRANSACTIONS</code> (default: true).<br />
      * Support very large transactions
      */
     public final boolean largeTransactions = get("LARGE_TRANSACTIONS", true);
 
+    /**
+     * Database setting <code>LAZY_QUERY_EXECUTION</code> (default: false).<br />
+     * Whether simple queries of a client that are read forward only may
+     * compute the rows when they are fetched, instead of building the
+     * complete result first.
+     */
+    public final boolean lazyQueryExecution = get("LAZY_QUERY_EXECUTION", false);
+
     /**
      * Database setting <code>LOB_TIMEOUT</code> (default: 300000,
      * which means 5 minutes).<br />
@@ -164,6 +179,14 @@ public class DbSettings extends SettingsBase {
      */
     public int maxQueryTimeout = get("MAX_QUERY_TIMEOUT", 0);
 
+    /**
+     * Database setting <code>MERGE_JOIN</code> (default: false).<br />
+     * Whether the index lookups of the inner table of a join may reuse the
+     * open index cursor if the outer table is read in the order of the join
+     * column.
+     */
+    public final boolean mergeJoin = get("MERGE_JOIN", false);
+
     /**
      * Database setting <code>NESTED_JOINS</code> (default: true).<br />
      * Whether nested joins should be supported.
@@ -291,6 +314,15 @@ public class DbSettings extends SettingsBase {
      */
     public final int reconnectCheckDelay = get("RECONNECT_CHECK_DELAY", 200);
 
+    /**
+     * Database setting <code>REDO_LOG</code> (default: false).<br />
+     * If enabled, committed transactions of a MVStore database are appended
+     * to a redo log file (.redo.db), which is synced on each commit. The
+     * database file itself is written later on, and the log is applied again
+     * when opening the database after a crash.
+     */
+    public final boolean redoLog = get("REDO_LOG", false);
+
     /**
      * Database setting <code>REUSE_SPACE</code> (default: true).<br />
      * If disabled, all changes are appended to the database file, and existing
@@ -313,6 +345,19 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean selectForUpdateMvcc = get("SELECT_FOR_UPDATE_MVCC", true);
 
+    /**
+     * Database setting <code>SHARED_QUERY_CACHE_SIZE</code>
+     * (default: 256).<br />
+     * The size of the database-wide statement cache, in number of statements.
+     * Cached statements of a session that are not in use when the session is
+     * closed (or when they are removed from the session's query cache) are
+     * kept here, so that other sessions can use them without parsing them
+     * again. Only SELECT, INSERT, UPDATE, and DELETE statements that use
+     * regular tables (no views and no local temporary tables) are kept. Use 0
+     * to disable.
+     */
+    public final int sharedQueryCacheSize = get("SHARED_QUERY_CACHE_SIZE", 256);
+
     /**
      * Database setting <code>SHARE_LINKED_CONNECTIONS</code>
      * (default: true).<br />
@@ -323,6 +368,15 @@ public class DbSettings extends SettingsBase {
     public final boolean shareLinkedConnections = get(
             "SHARE_LINKED_CONNECTIONS", true);
 
+    /**
+     * Database setting <code>SYNC_ON_COMMIT</code>
+     * (default: false).<br />
+     * If set, and if the write delay is 0, committing a transaction syncs the
+     * file of the MVStore before it returns. Transactions that commit at the
+     * same time are stored and synced together.
+     */
+    public final boolean syncOnCommit = get("SYNC_ON_COMMIT", false);
+
     /**
      * Database setting <code>DEFAULT_TABLE_ENGINE</code>
      * (default: null).<br />
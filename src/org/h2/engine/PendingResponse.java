@@ -0,0 +1,29 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.engine;
+
+import java.io.IOException;
+
+import org.h2.value.Transfer;
+
+/**
+ * A request that was sent to the server without waiting for the response (a
+ * pipelined request). The responses are read in the order the requests were
+ * sent, before the response of any other request.
+ */
+public interface PendingResponse {
+
+    /**
+     * Read the response. An exception sent by the server should be kept and
+     * thrown when the object is used, and not be thrown by this method.
+     *
+     * @param session the session
+     * @param transfer the transfer object
+     */
+    void readResponse(SessionRemote session, Transfer transfer)
+            throws IOException;
+
+}
@@ -10,6 +10,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Random;
 
 import org.h2.api.ErrorCode;
@@ -17,6 +18,7 @@ import org.h2.command.Command;
 import org.h2.command.CommandInterface;
 import org.h2.command.Parser;
 import org.h2.command.Prepared;
+import org.h2.command.StatementCache;
 import org.h2.command.dml.SetTypes;
 import org.h2.constraint.Constraint;
 import org.h2.index.Index;
@@ -452,7 +454,9 @@ public class Session extends SessionWithState {
             } else {
                 long newModificationMetaID = database.getModificationMetaId();
                 if (newModificationMetaID != modificationMetaID) {
-                    queryCache.clear();
+                    // the database-wide cache checks whether the
+                    // statements can still be used
+                    releaseQueryCache();
                     modificationMetaID = newModificationMetaID;
                 }
                 command = queryCache.get(sql);
@@ -463,20 +467,66 @@ public class Session extends SessionWithState {
                 }
             }
         }
-        Parser parser = new Parser(this);
-        command = parser.prepareCommand(sql);
+        StatementCache statementCache = getStatementCache();
+        command = statementCache == null ? null :
+                statementCache.take(this, sql);
+        if (command == null) {
+            Parser parser = new Parser(this);
+            command = parser.prepareCommand(sql);
+        }
         if (queryCache != null) {
             //只有DML并且是下面的这几类可缓存:
             //Insert、Delete、Update、Merge、TransactionCommand这5个无条件可缓存
             //Call这个当产生的结果不是结果集时可缓存，否则不可缓存
             //Select这个当不是isForUpdate时可缓存，否则不可缓存
             if (command.isCacheable()) {
+                if (statementCache != null &&
+                        queryCache.size() >= queryCacheSize &&
+                        !queryCache.containsKey(sql)) {
+                    // pass the least recently used statement
+                    // to the database-wide cache
+                    Iterator<Map.Entry<String, Command>> it =
+                            queryCache.entrySet().iterator();
+                    Map.Entry<String, Command> eldest = it.next();
+                    it.remove();
+                    statementCache.add(this, eldest.getKey(), eldest.getValue());
+                }
                 queryCache.put(sql, command);
             }
         }
         return command;
     }
 
+    /**
+     * Get the database-wide statement cache, if this session can use it.
+     *
+     * @return the cache, or null
+     */
+    private StatementCache getStatementCache() {
+        if (localTempTables != null && !localTempTables.isEmpty()) {
+            // a local temporary table hides a table with the same name
+            return null;
+        }
+        return database.getStatementCache();
+    }
+
+    /**
+     * Pass the statements of the query cache that are not in use to the
+     * database-wide cache.
+     */
+    private void releaseQueryCache() {
+        if (queryCache == null) {
+            return;
+        }
+        StatementCache statementCache = getStatementCache();
+        if (statementCache != null) {
+            for (Map.Entry<String, Command> e : queryCache.entrySet()) {
+                statementCache.add(this, e.getKey(), e.getValue());
+            }
+        }
+        queryCache.clear();
+    }
+
     public Database getDatabase() {
         return database;
     }
@@ -718,6 +768,7 @@ public class Session extends SessionWithState {
         if (!closed) {
             try {
                 database.checkPowerOff();
+                releaseQueryCache();
                 removeTemporaryLobs(false);
                 cleanTempTables(true);
                 undoLog.clear();
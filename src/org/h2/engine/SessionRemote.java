@@ -14,6 +14,7 @@ import org.h2.api.JavaObjectSerializer;
 import org.h2.command.CommandInterface;
 import org.h2.command.CommandRemote;
 import org.h2.command.dml.SetTypes;
+import org.h2.compress.Compressor;
 import org.h2.jdbc.JdbcSQLException;
 import org.h2.message.DbException;
 import org.h2.message.Trace;
@@ -24,6 +25,7 @@ import org.h2.store.FileStore;
 import org.h2.store.LobStorageFrontend;
 import org.h2.store.LobStorageInterface;
 import org.h2.store.fs.FileUtils;
+import org.h2.tools.CompressTool;
 import org.h2.util.JdbcUtils;
 import org.h2.util.MathUtils;
 import org.h2.util.NetUtils;
@@ -59,6 +61,7 @@ public class SessionRemote extends SessionWithState implements DataHandler {
     public static final int SESSION_SET_AUTOCOMMIT = 15;
     public static final int SESSION_HAS_PENDING_TRANSACTION = 16;
     public static final int LOB_READ = 17;
+    public static final int COMMAND_EXECUTE_BATCH_UPDATE = 18;
 
     public static final int STATUS_ERROR = 0;
     public static final int STATUS_OK = 1;
@@ -83,12 +86,18 @@ public class SessionRemote extends SessionWithState implements DataHandler {
     private final Object lobSyncObject = new Object();
     private String sessionId;
     private int clientVersion;
+    private int networkCompression;
     private boolean autoReconnect;
     private int lastReconnect;
     private SessionInterface embedded;
     private DatabaseEventListener eventListener;
     private LobStorageFrontend lobStorage;
     private boolean cluster;
+
+    /**
+     * The objects that wait for the response of a pipelined request.
+     */
+    private final ArrayList<PendingResponse> pendingResponses = New.arrayList();
     private TempFileDeleter tempFileDeleter;
 
     private JavaObjectSerializer javaObjectSerializer;
@@ -112,6 +121,17 @@ public class SessionRemote extends SessionWithState implements DataHandler {
         return serverList;
     }
 
+    /**
+     * Check whether the setting is only used by the client, and is therefore
+     * not sent to the server.
+     *
+     * @param key the setting name
+     * @return true if it is not sent
+     */
+    private static boolean isClientSetting(String key) {
+        return "NETWORK_COMPRESSION".equals(key);
+    }
+
     private Transfer initTransfer(ConnectionInfo ci, String db, String server)
             throws IOException {
         Socket socket = NetUtils.createSocket(server,
@@ -121,7 +141,7 @@ public class SessionRemote extends SessionWithState implements DataHandler {
         trans.setSSL(ci.isSSL());
         trans.init();
         trans.writeInt(Constants.TCP_PROTOCOL_VERSION_6);
-        trans.writeInt(Constants.TCP_PROTOCOL_VERSION_15);
+        trans.writeInt(Constants.TCP_PROTOCOL_VERSION_19);
         trans.writeString(db);
         trans.writeString(ci.getOriginalURL());
         trans.writeString(ci.getUserName());
@@ -131,14 +151,32 @@ public class SessionRemote extends SessionWithState implements DataHandler {
         //for(String key : keys ){
             System.out.println("SessionRemote : 132 : key :"+keys.length);
         //}
-        trans.writeInt(keys.length);
+        int keyCount = 0;
+        for (String key : keys) {
+            if (!isClientSetting(key)) {
+                keyCount++;
+            }
+        }
+        trans.writeInt(keyCount);
         for (String key : keys) {
-            trans.writeString(key).writeString(ci.getProperty(key));
+            if (!isClientSetting(key)) {
+                trans.writeString(key).writeString(ci.getProperty(key));
+            }
         }
         try {
             done(trans);
             clientVersion = trans.readInt();
             trans.setVersion(clientVersion);
+            // the algorithm is sent after the version is known, as older
+            // servers would not accept it as a setting; both sides switch
+            // right after it
+            if (clientVersion >= Constants.TCP_PROTOCOL_VERSION_19) {
+                trans.writeString(networkCompression == Compressor.NO ? null :
+                        ci.getProperty("NETWORK_COMPRESSION"));
+                if (networkCompression != Compressor.NO) {
+                    trans.setCompression(networkCompression);
+                }
+            }
             if (clientVersion >= Constants.TCP_PROTOCOL_VERSION_14) {
                 if (ci.getFileEncryptionKey() != null) {
                     trans.writeBytes(ci.getFileEncryptionKey());
@@ -458,6 +496,9 @@ public class SessionRemote extends SessionWithState implements DataHandler {
         if (cipher != null) {
             fileEncryptionKey = MathUtils.secureRandomBytes(32); //只是在client端用
         }
+        String compression = ci.getProperty("NETWORK_COMPRESSION");
+        networkCompression = compression == null ? Compressor.NO :
+                CompressTool.getCompressAlgorithm(compression);
         String[] servers = StringUtils.arraySplit(server, ',', true);
         int len = servers.length;
         transferList.clear();
@@ -505,6 +546,8 @@ public class SessionRemote extends SessionWithState implements DataHandler {
      */
     public void removeServer(IOException e, int i, int count) {
         trace.error(e, "removing server because of exception");
+        // the responses of pipelined requests are lost
+        pendingResponses.clear();
         transferList.remove(i);
         if (transferList.size() == 0 && autoReconnect(count)) {
             return;
@@ -600,6 +643,10 @@ public class SessionRemote extends SessionWithState implements DataHandler {
                         transfer.writeInt(SessionRemote.SESSION_CLOSE);
                         done(transfer);
                         transfer.close();
+                        String statistics = transfer.getCompressionStatistics();
+                        if (statistics != null) {
+                            trace.debug("compression: {0}", statistics);
+                        }
                     } catch (RuntimeException e) {
                         trace.error(e, "close");
                         closeError = e;
@@ -636,7 +683,8 @@ public class SessionRemote extends SessionWithState implements DataHandler {
     /**
      * Called to flush the output after data has been sent to the server and
      * just before receiving data. This method also reads the status code from
-     * the server and throws any exception the server sent.
+     * the server and throws any exception the server sent. The responses of
+     * pipelined prepare requests are read first.
      *
      * @param transfer the transfer object
      * @throws DbException if the server sent an exception
@@ -644,17 +692,22 @@ public class SessionRemote extends SessionWithState implements DataHandler {
      *             and server
      */
     public void done(Transfer transfer) throws IOException {
+        readPending(transfer);
+        readStatus(transfer);
+    }
+
+    /**
+     * Write pending changes and read the status of the next response, without
+     * reading the responses of pending commands first.
+     *
+     * @param transfer the transfer object
+     */
+    public void readStatus(Transfer transfer) throws IOException {
         transfer.flush();
         int status = transfer.readInt();
         if (status == STATUS_ERROR) {
-            String sqlstate = transfer.readString();
-            String message = transfer.readString();
-            String sql = transfer.readString();
-            int errorCode = transfer.readInt();
-            String stackTrace = transfer.readString();
-            JdbcSQLException s = new JdbcSQLException(message, sql, sqlstate,
-                    errorCode, null, stackTrace);
-            if (errorCode == ErrorCode.CONNECTION_BROKEN_1) {
+            JdbcSQLException s = readException(transfer);
+            if (s.getErrorCode() == ErrorCode.CONNECTION_BROKEN_1) {
                 // allow re-connect
                 IOException e = new IOException(s.toString(), s);
                 throw e;
@@ -672,6 +725,68 @@ public class SessionRemote extends SessionWithState implements DataHandler {
         }
     }
 
+    /**
+     * Check whether requests can be pipelined, that is, whether a command can
+     * send the prepare request (or a result the request for the next rows)
+     * without waiting for the response. This is only
+     * supported if the session is connected to one server.
+     *
+     * @return true if requests can be pipelined
+     */
+    public boolean isPipelined() {
+        return clientVersion >= Constants.TCP_PROTOCOL_VERSION_18 &&
+                transferList.size() == 1;
+    }
+
+    /**
+     * Add a request that was sent without reading the response. The
+     * responses of pending requests are read (in the order the requests were
+     * sent) before any other response.
+     *
+     * @param pending the object that reads the response
+     */
+    public void addPending(PendingResponse pending) {
+        pendingResponses.add(pending);
+    }
+
+    /**
+     * Read the responses of the pending requests.
+     *
+     * @param transfer the transfer object
+     */
+    public void readPending(Transfer transfer) throws IOException {
+        while (!pendingResponses.isEmpty()) {
+            PendingResponse pending = pendingResponses.remove(0);
+            pending.readResponse(this, transfer);
+        }
+    }
+
+    /**
+     * Read an exception that was sent by the server. The status has already
+     * been read.
+     *
+     * @param transfer the transfer object
+     * @return the exception
+     */
+    public JdbcSQLException readException(Transfer transfer) throws IOException {
+        String sqlstate = transfer.readString();
+        String message = transfer.readString();
+        String sql = transfer.readString();
+        int errorCode = transfer.readInt();
+        String stackTrace = transfer.readString();
+        return new JdbcSQLException(message, sql, sqlstate, errorCode, null,
+                stackTrace);
+    }
+
+    /**
+     * Get the protocol version that was agreed with the server.
+     *
+     * @return the protocol version
+     */
+    public int getClientVersion() {
+        return clientVersion;
+    }
+
     /**
      * Returns true if the connection was opened in cluster mode.
      *
@@ -299,6 +299,15 @@ public class SysProperties {
     public static final boolean MODIFY_ON_WRITE =
             Utils.getProperty("h2.modifyOnWrite", false);
 
+    /**
+     * System property <code>h2.networkCompressionMinSize</code>
+     * (default: 256).<br />
+     * TCP Server and client: if network compression is enabled, only frames
+     * of at least this many bytes are compressed.
+     */
+    public static final int NETWORK_COMPRESSION_MIN_SIZE =
+            Utils.getProperty("h2.networkCompressionMinSize", 256);
+
     /**
      * System property <code>h2.nioLoadMapped</code> (default: false).<br />
      * If the mapped buffer should be loaded when the file is opened.
@@ -372,6 +381,17 @@ public class SysProperties {
     public static final int SERVER_CACHED_OBJECTS =
             Utils.getProperty("h2.serverCachedObjects", 64);
 
+    /**
+     * System property <code>h2.serverResultSetFetchMemory</code>
+     * (default: 4194304).<br />
+     * The maximum estimated memory in bytes of a batch of rows fetched by the
+     * client when using the server mode. The fetch size of a large result is
+     * increased while the application reads the rows faster than they arrive,
+     * up to this limit.
+     */
+    public static final int SERVER_RESULT_SET_FETCH_MEMORY =
+            Utils.getProperty("h2.serverResultSetFetchMemory", 4 * 1024 * 1024);
+
     /**
      * System property <code>h2.serverResultSetFetchSize</code>
      * (default: 100).<br />
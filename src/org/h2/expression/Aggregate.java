@@ -286,6 +286,41 @@ public class Aggregate extends Expression {
         data.add(session.getDatabase(), dataType, distinct, v);
     }
 
+    /**
+     * Get the partial state of this aggregate for one group, so that the
+     * group can be written to a temporary file.
+     *
+     * @param data the object this aggregate stored in the group
+     * @return the state, or null if this aggregate does not support it
+     */
+    public Value getGroupState(Object data) {
+        return ((AggregateData) data).getState();
+    }
+
+    /**
+     * Re-create the object to store in a group from a partial state.
+     *
+     * @param state the state returned by getGroupState
+     * @return the object to store in the group
+     */
+    public Object readGroupState(Value state) {
+        AggregateData data = AggregateData.create(type);
+        data.setState(state);
+        return data;
+    }
+
+    /**
+     * Merge two partial states of this aggregate for the same group.
+     *
+     * @param session the session
+     * @param target the object to merge into
+     * @param source the object to merge
+     */
+    public void mergeGroupState(Session session, Object target, Object source) {
+        ((AggregateData) target).merge(session.getDatabase(), dataType,
+                distinct, (AggregateData) source);
+    }
+
     @Override
     public Value getValue(Session session) {
         //快速聚合查询，行数通过索引里的某个字段就能得到
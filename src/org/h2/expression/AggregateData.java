@@ -5,8 +5,12 @@
  */
 package org.h2.expression;
 
+import java.util.ArrayList;
 import org.h2.engine.Database;
+import org.h2.util.ValueHashMap;
 import org.h2.value.Value;
+import org.h2.value.ValueArray;
+import org.h2.value.ValueNull;
 
 /**
  * Abstract class for the computation of an aggregate.
@@ -54,4 +58,86 @@ abstract class AggregateData {
      * @return the value
      */
     abstract Value getValue(Database database, int dataType, boolean distinct);
+
+    /**
+     * Get the partial state of this aggregate, so that it can be written to a
+     * temporary file while grouping, and merged again later.
+     *
+     * @return the state, or null if this aggregate does not support it
+     */
+    abstract Value getState();
+
+    /**
+     * Restore the partial state returned by getState.
+     *
+     * @param state the state
+     */
+    abstract void setState(Value state);
+
+    /**
+     * Merge the partial state of another aggregate of the same type into
+     * this one.
+     *
+     * @param database the database
+     * @param dataType the datatype of the computed result
+     * @param distinct if the calculation is distinct
+     * @param other the other aggregate
+     */
+    abstract void merge(Database database, int dataType, boolean distinct,
+            AggregateData other);
+
+    /**
+     * Convert the keys of a distinct value map to a value.
+     *
+     * @param map the map (may be null)
+     * @return the array of keys, or NULL
+     */
+    static Value getDistinctState(ValueHashMap<?> map) {
+        if (map == null) {
+            return ValueNull.INSTANCE;
+        }
+        ArrayList<Value> keys = map.keys();
+        return ValueArray.get(keys.toArray(new Value[keys.size()]));
+    }
+
+    /**
+     * Re-build a distinct value map from the state returned by
+     * getDistinctState.
+     *
+     * @param state the state
+     * @param marker the value to put for each key
+     * @return the map, or null
+     */
+    static <T> ValueHashMap<T> readDistinctState(Value state, T marker) {
+        if (state == ValueNull.INSTANCE) {
+            return null;
+        }
+        ValueHashMap<T> map = ValueHashMap.newInstance();
+        for (Value v : ((ValueArray) state).getList()) {
+            map.put(v, marker);
+        }
+        return map;
+    }
+
+    /**
+     * Add all keys of the source map to the target map.
+     *
+     * @param target the target map (may be null)
+     * @param source the source map (may be null)
+     * @param marker the value to put for each key
+     * @return the target map
+     */
+    static <T> ValueHashMap<T> mergeDistinct(ValueHashMap<T> target,
+            ValueHashMap<?> source, T marker) {
+        if (source == null) {
+            return target;
+        }
+        if (target == null) {
+            target = ValueHashMap.newInstance();
+        }
+        for (Value v : source.keys()) {
+            target.put(v, marker);
+        }
+        return target;
+    }
 }
@@ -8,6 +8,7 @@ package org.h2.expression;
 import org.h2.engine.Database;
 import org.h2.util.ValueHashMap;
 import org.h2.value.Value;
+import org.h2.value.ValueArray;
 import org.h2.value.ValueLong;
 import org.h2.value.ValueNull;
 
@@ -46,4 +47,25 @@ class AggregateDataCount extends AggregateData {
         return v.convertTo(dataType);
     }
 
+    @Override
+    Value getState() {
+        return ValueArray.get(new Value[] { ValueLong.get(count),
+                getDistinctState(distinctValues) });
+    }
+
+    @Override
+    void setState(Value state) {
+        Value[] list = ((ValueArray) state).getList();
+        count = list[0].getLong();
+        distinctValues = readDistinctState(list[1], this);
+    }
+
+    @Override
+    void merge(Database database, int dataType, boolean distinct,
+            AggregateData other) {
+        AggregateDataCount o = (AggregateDataCount) other;
+        count += o.count;
+        distinctValues = mergeDistinct(distinctValues, o.distinctValues, this);
+    }
+
 }
@@ -35,4 +35,20 @@ class AggregateDataCountAll extends AggregateData {
         return v == null ? ValueNull.INSTANCE : v.convertTo(dataType);
     }
 
+    @Override
+    Value getState() {
+        return ValueLong.get(count);
+    }
+
+    @Override
+    void setState(Value state) {
+        count = state.getLong();
+    }
+
+    @Override
+    void merge(Database database, int dataType, boolean distinct,
+            AggregateData other) {
+        count += ((AggregateDataCountAll) other).count;
+    }
+
 }
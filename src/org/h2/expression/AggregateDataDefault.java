@@ -10,6 +10,7 @@ import org.h2.message.DbException;
 import org.h2.util.ValueHashMap;
 import org.h2.value.DataType;
 import org.h2.value.Value;
+import org.h2.value.ValueArray;
 import org.h2.value.ValueBoolean;
 import org.h2.value.ValueDouble;
 import org.h2.value.ValueLong;
@@ -203,4 +204,87 @@ class AggregateDataDefault extends AggregateData {
         }
     }
 
+    @Override
+    Value getState() {
+        return ValueArray.get(new Value[] { ValueLong.get(count),
+                value == null ? ValueNull.INSTANCE : value,
+                ValueDouble.get(mean), ValueDouble.get(m2),
+                getDistinctState(distinctValues) });
+    }
+
+    @Override
+    void setState(Value state) {
+        Value[] list = ((ValueArray) state).getList();
+        count = list[0].getLong();
+        value = list[1] == ValueNull.INSTANCE ? null : list[1];
+        mean = list[2].getDouble();
+        m2 = list[3].getDouble();
+        distinctValues = readDistinctState(list[4], this);
+    }
+
+    @Override
+    void merge(Database database, int dataType, boolean distinct,
+            AggregateData other) {
+        AggregateDataDefault o = (AggregateDataDefault) other;
+        if (distinct) {
+            count += o.count;
+            distinctValues = mergeDistinct(distinctValues, o.distinctValues, this);
+            return;
+        }
+        if (o.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            count = o.count;
+            value = o.value;
+            mean = o.mean;
+            m2 = o.m2;
+            return;
+        }
+        switch (aggregateType) {
+        case Aggregate.SUM:
+        case Aggregate.AVG:
+            value = value.add(o.value.convertTo(value.getType()));
+            break;
+        case Aggregate.MIN:
+            if (database.compare(o.value, value) < 0) {
+                value = o.value;
+            }
+            break;
+        case Aggregate.MAX:
+            if (database.compare(o.value, value) > 0) {
+                value = o.value;
+            }
+            break;
+        case Aggregate.STDDEV_POP:
+        case Aggregate.STDDEV_SAMP:
+        case Aggregate.VAR_POP:
+        case Aggregate.VAR_SAMP: {
+            // parallel variant of Welford's method (Chan et al.)
+            double n = count + o.count;
+            double delta = o.mean - mean;
+            mean += delta * o.count / n;
+            m2 += o.m2 + delta * delta * count * o.count / n;
+            break;
+        }
+        case Aggregate.BOOL_AND:
+            value = ValueBoolean.get(value.getBoolean().booleanValue() &&
+                    o.value.getBoolean().booleanValue());
+            break;
+        case Aggregate.BOOL_OR:
+            value = ValueBoolean.get(value.getBoolean().booleanValue() ||
+                    o.value.getBoolean().booleanValue());
+            break;
+        case Aggregate.BIT_AND:
+            value = ValueLong.get(value.getLong() & o.value.getLong()).convertTo(dataType);
+            break;
+        case Aggregate.BIT_OR:
+            value = ValueLong.get(value.getLong() | o.value.getLong()).convertTo(dataType);
+            break;
+        default:
+            DbException.throwInternalError("type=" + aggregateType);
+        }
+        count += o.count;
+    }
+
 }
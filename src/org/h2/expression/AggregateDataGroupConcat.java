@@ -6,10 +6,12 @@
 package org.h2.expression;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import org.h2.engine.Database;
 import org.h2.util.New;
 import org.h2.util.ValueHashMap;
 import org.h2.value.Value;
+import org.h2.value.ValueArray;
 import org.h2.value.ValueNull;
 
 /**
@@ -57,4 +59,37 @@ class AggregateDataGroupConcat extends AggregateData {
             add(database, dataType, false, v);
         }
     }
+
+    @Override
+    Value getState() {
+        Value l = list == null ? ValueNull.INSTANCE :
+                ValueArray.get(list.toArray(new Value[list.size()]));
+        return ValueArray.get(new Value[] { l,
+                getDistinctState(distinctValues) });
+    }
+
+    @Override
+    void setState(Value state) {
+        Value[] s = ((ValueArray) state).getList();
+        if (s[0] == ValueNull.INSTANCE) {
+            list = null;
+        } else {
+            list = New.arrayList(Arrays.asList(((ValueArray) s[0]).getList()));
+        }
+        distinctValues = readDistinctState(s[1], this);
+    }
+
+    @Override
+    void merge(Database database, int dataType, boolean distinct,
+            AggregateData other) {
+        AggregateDataGroupConcat o = (AggregateDataGroupConcat) other;
+        if (o.list != null) {
+            if (list == null) {
+                list = New.arrayList();
+            }
+            list.addAll(o.list);
+        }
+        distinctValues = mergeDistinct(distinctValues, o.distinctValues, this);
+    }
+
 }
@@ -5,6 +5,7 @@
  */
 package org.h2.expression;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import org.h2.engine.Constants;
@@ -14,6 +15,7 @@ import org.h2.value.CompareMode;
 import org.h2.value.Value;
 import org.h2.value.ValueArray;
 import org.h2.value.ValueLong;
+import org.h2.value.ValueNull;
 
 /**
  * Data stored while calculating a HISTOGRAM aggregate.
@@ -75,4 +77,57 @@ class AggregateDataHistogram extends AggregateData {
         }
     }
 
+    @Override
+    Value getState() {
+        if (distinctValues == null) {
+            return ValueNull.INSTANCE;
+        }
+        ArrayList<Value> keys = distinctValues.keys();
+        Value[] list = new Value[keys.size()];
+        for (int i = 0; i < list.length; i++) {
+            Value k = keys.get(i);
+            list[i] = ValueArray.get(new Value[] { k,
+                    ValueLong.get(distinctValues.get(k).count) });
+        }
+        return ValueArray.get(list);
+    }
+
+    @Override
+    void setState(Value state) {
+        if (state == ValueNull.INSTANCE) {
+            distinctValues = null;
+            return;
+        }
+        distinctValues = ValueHashMap.newInstance();
+        for (Value v : ((ValueArray) state).getList()) {
+            Value[] pair = ((ValueArray) v).getList();
+            AggregateDataHistogram a = new AggregateDataHistogram();
+            a.count = pair[1].getLong();
+            distinctValues.put(pair[0], a);
+        }
+    }
+
+    @Override
+    void merge(Database database, int dataType, boolean distinct,
+            AggregateData other) {
+        AggregateDataHistogram o = (AggregateDataHistogram) other;
+        if (o.distinctValues == null) {
+            return;
+        }
+        if (distinctValues == null) {
+            distinctValues = ValueHashMap.newInstance();
+        }
+        for (Value v : o.distinctValues.keys()) {
+            AggregateDataHistogram a = distinctValues.get(v);
+            if (a == null) {
+                if (distinctValues.size() >= Constants.SELECTIVITY_DISTINCT_COUNT) {
+                    continue;
+                }
+                a = new AggregateDataHistogram();
+                distinctValues.put(v, a);
+            }
+            a.count += o.distinctValues.get(v).count;
+        }
+    }
+
 }
@@ -7,6 +7,7 @@ package org.h2.expression;
 
 import org.h2.engine.Constants;
 import org.h2.engine.Database;
+import org.h2.message.DbException;
 import org.h2.util.IntIntHashMap;
 import org.h2.value.Value;
 import org.h2.value.ValueInt;
@@ -57,4 +58,22 @@ class AggregateDataSelectivity extends AggregateData {
         v = ValueInt.get(s);
         return v.convertTo(dataType);
     }
+
+    @Override
+    Value getState() {
+        // the distinct hashes are not kept in a form that can be merged
+        return null;
+    }
+
+    @Override
+    void setState(Value state) {
+        throw DbException.throwInternalError();
+    }
+
+    @Override
+    void merge(Database database, int dataType, boolean distinct,
+            AggregateData other) {
+        throw DbException.throwInternalError();
+    }
+
 }
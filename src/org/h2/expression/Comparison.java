@@ -572,6 +572,15 @@ public class Comparison extends Condition {
         return null;
     }
 
+    /**
+     * Get the comparison type.
+     *
+     * @return the type, for example EQUAL
+     */
+    public int getCompareType() {
+        return compareType;
+    }
+
     /**
      * Get the left or the right sub-expression of this condition.
      *
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.index;
+
+import java.util.ArrayList;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.message.DbException;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.result.SortOrder;
+import org.h2.table.Column;
+import org.h2.table.IndexColumn;
+import org.h2.table.Table;
+import org.h2.table.TableFilter;
+import org.h2.util.New;
+import org.h2.util.ValueHashMap;
+import org.h2.value.CompareMode;
+import org.h2.value.Value;
+import org.h2.value.ValueArray;
+
+/**
+ * A transient hash index that is used for the inner table of a join if the
+ * table (or view) has no index on the join columns. When the query starts, all
+ * rows of the table are read once and put in a hash map keyed by the join
+ * columns (build); each row of the outer table then only needs a hash lookup
+ * (probe) instead of a table scan.
+ * <p>
+ * A hash join is only used if the table is expected to have at most
+ * MAX_MEMORY_ROWS rows. If it turns out to have more when the rows are read,
+ * they are not kept; instead, the table is scanned for each lookup, as without
+ * a hash join (the lookups are in the order of the outer rows, so reading a
+ * partition from disk for each of them would be even slower).
+ * </p>
+ * The index may return rows that don't match the join condition (for example
+ * if a value could not be converted); the condition is always evaluated
+ * afterwards.
+ */
+//对于join中的内表(level > 1)，如果join字段上没有索引，每读一行外表都要扫描一次内表，
+//此时可以用HashJoinIndex，第一次查找时把内表的所有记录按join字段放到hash表中，之后每次查找只需一次hash查找
+public class HashJoinIndex extends BaseIndex {
+
+    private final Index source;
+    private final int maxMemoryRows;
+    private ValueHashMap<ArrayList<Row>> rows;
+    private ArrayList<Row> unhashed;
+    private boolean built;
+
+    private HashJoinIndex(Table table, Index source, IndexColumn[] columns,
+            int maxMemoryRows) {
+        initBaseIndex(table, 0, null, columns, IndexType.createNonUnique(false));
+        this.source = source;
+        this.maxMemoryRows = maxMemoryRows;
+    }
+
+    /**
+     * Create a hash join index for the given table if there is at least one
+     * equality condition on a column that can be hashed, and the rows are
+     * expected to fit in memory.
+     *
+     * @param session the session
+     * @param table the table
+     * @param masks the condition masks per column
+     * @return the index, or null if a hash join can not be used
+     */
+    public static HashJoinIndex create(Session session, Table table, int[] masks) {
+        Database db = session.getDatabase();
+        if (masks == null || !db.getSettings().hashJoin) {
+            return null;
+        }
+        String type = table.getTableType();
+        if (!Table.TABLE.equals(type) && !Table.VIEW.equals(type)) {
+            return null;
+        }
+        ArrayList<IndexColumn> list = New.arrayList();
+        Column[] cols = table.getColumns();
+        for (int i = 0; i < masks.length; i++) {
+            if ((masks[i] & IndexCondition.EQUALITY) == IndexCondition.EQUALITY &&
+                    isHashable(db, cols[i])) {
+                IndexColumn c = new IndexColumn();
+                c.column = cols[i];
+                c.columnName = cols[i].getName();
+                list.add(c);
+            }
+        }
+        if (list.isEmpty()) {
+            return null;
+        }
+        Index source = table.getScanIndex(session);
+        if (source instanceof ViewIndex && ((ViewIndex) source).isRecursive()) {
+            return null;
+        }
+        int maxMemoryRows = Integer.MAX_VALUE;
+        if (db.isPersistent() && !db.isReadOnly()) {
+            maxMemoryRows = Math.max(1, db.getMaxMemoryRows());
+            if (table.getRowCountApproximation() > maxMemoryRows) {
+                return null;
+            }
+        }
+        IndexColumn[] columns = new IndexColumn[list.size()];
+        list.toArray(columns);
+        return new HashJoinIndex(table, source, columns, maxMemoryRows);
+    }
+
+    /**
+     * Check if equal values of this column (according to compareTo) are
+     * always equal according to Value.equals.
+     */
+    private static boolean isHashable(Database db, Column column) {
+        switch (column.getType()) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+        case Value.BYTES:
+        case Value.UUID:
+        case Value.STRING_IGNORECASE:
+            return true;
+        case Value.STRING:
+        case Value.STRING_FIXED:
+            // with a collator, different strings can be equal
+            return CompareMode.OFF.equals(db.getCompareMode().getName());
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Forget the rows, so that they are read again on the next lookup. This
+     * is called when the query is started.
+     */
+    public void reset() {
+        rows = null;
+        unhashed = null;
+        built = false;
+    }
+
+    private void build(Session session) {
+        rows = ValueHashMap.newInstance();
+        unhashed = New.arrayList();
+        long rowCount = 0;
+        Cursor cursor = source.find(session, null, null);
+        while (cursor.next()) {
+            if (++rowCount > maxMemoryRows) {
+                // more rows than expected: scan the table for each lookup
+                rows = null;
+                unhashed = null;
+                break;
+            }
+            Row row = cursor.get();
+            if (getKey(row) == null) {
+                unhashed.add(row);
+            } else {
+                addRow(row);
+            }
+        }
+        built = true;
+    }
+
+    /**
+     * Get the hash key of a row, converted to the column types (the values
+     * of a view are not always of the column type).
+     *
+     * @param row the row
+     * @return the key, or null if a value can not be converted
+     */
+    private Value getKey(SearchRow row) {
+        Value[] list = new Value[columns.length];
+        for (int i = 0; i < list.length; i++) {
+            Value v = row.getValue(columnIds[i]);
+            if (v == null) {
+                return null;
+            }
+            try {
+                list[i] = columns[i].convert(v);
+            } catch (DbException e) {
+                return null;
+            }
+        }
+        return list.length == 1 ? list[0] : ValueArray.get(list);
+    }
+
+    private void addRow(Row row) {
+        Value key = getKey(row);
+        ArrayList<Row> list = rows.get(key);
+        if (list == null) {
+            list = New.arrayList();
+            rows.put(key, list);
+        }
+        list.add(row);
+    }
+
+    @Override
+    public Cursor find(Session session, SearchRow first, SearchRow last) {
+        if (!built) {
+            build(session);
+        }
+        Value key = first == null ? null : getKey(first);
+        if (key == null || rows == null) {
+            // no value, the value can not be converted to the column type,
+            // or there are too many rows: let the join condition decide
+            return source.find(session, null, null);
+        }
+        return new HashJoinCursor(rows.get(key), unhashed);
+    }
+
+    @Override
+    public double getCost(Session session, int[] masks, TableFilter filter,
+            SortOrder sortOrder) {
+        // the rows are not sorted
+        long rowCount = table.getRowCountApproximation();
+        double cost = getCostRangeIndex(masks, rowCount, filter, null) + 1;
+        // all rows are read and hashed once per execution of the query,
+        // which is shared by the lookups of all rows of the outer tables
+        // (hashing a row takes about ten times as long as reading it)
+        double build = 10 * source.getCost(session, null, null, null);
+        return cost + build / Math.max(1, filter.getOuterRowCount());
+    }
+
+    @Override
+    public String getPlanSQL() {
+        return table.getSQL() + ".hashJoin";
+    }
+
+    @Override
+    public void close(Session session) {
+        reset();
+    }
+
+    @Override
+    public void add(Session session, Row row) {
+        throw DbException.getUnsupportedException("HASH JOIN");
+    }
+
+    @Override
+    public void remove(Session session, Row row) {
+        throw DbException.getUnsupportedException("HASH JOIN");
+    }
+
+    @Override
+    public void remove(Session session) {
+        reset();
+    }
+
+    @Override
+    public void truncate(Session session) {
+        reset();
+    }
+
+    @Override
+    public boolean needRebuild() {
+        return false;
+    }
+
+    @Override
+    public void checkRename() {
+        throw DbException.getUnsupportedException("HASH JOIN");
+    }
+
+    @Override
+    public boolean canGetFirstOrLast() {
+        return false;
+    }
+
+    @Override
+    public Cursor findFirstOrLast(Session session, boolean first) {
+        throw DbException.getUnsupportedException("HASH JOIN");
+    }
+
+    @Override
+    public long getRowCount(Session session) {
+        return source.getRowCount(session);
+    }
+
+    @Override
+    public long getRowCountApproximation() {
+        return source.getRowCountApproximation();
+    }
+
+    @Override
+    public long getDiskSpaceUsed() {
+        return 0;
+    }
+
+    @Override
+    public boolean canScan() {
+        return false;
+    }
+
+    /**
+     * The cursor over the rows of one hash bucket.
+     */
+    private static class HashJoinCursor implements Cursor {
+
+        private final ArrayList<Row> list, unhashed;
+        private final int size;
+        private int index = -1;
+        private Row current;
+
+        HashJoinCursor(ArrayList<Row> list, ArrayList<Row> unhashed) {
+            this.list = list;
+            this.unhashed = unhashed;
+            size = list == null ? 0 : list.size();
+        }
+
+        @Override
+        public Row get() {
+            return current;
+        }
+
+        @Override
+        public SearchRow getSearchRow() {
+            return current;
+        }
+
+        @Override
+        public boolean next() {
+            index++;
+            if (index < size) {
+                current = list.get(index);
+            } else if (index - size < unhashed.size()) {
+                current = unhashed.get(index - size);
+            } else {
+                current = null;
+            }
+            return current != null;
+        }
+
+        @Override
+        public boolean previous() {
+            throw DbException.throwInternalError();
+        }
+
+    }
+
+}
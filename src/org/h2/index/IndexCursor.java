@@ -48,6 +48,7 @@ public class IndexCursor implements Cursor {
     private Value[] inList;
     private ResultInterface inResult;
     private HashSet<Value> inResultTested;
+    private MergeJoinCursor mergeCursor;
 
     public IndexCursor(TableFilter filter) {
         this.tableFilter = filter;
@@ -56,6 +57,7 @@ public class IndexCursor implements Cursor {
     public void setIndex(Index index) {
         this.index = index;
         this.table = index.getTable();
+        mergeCursor = null;
         Column[] columns = table.getColumns();
         //把表中的所有字段做一下标记，如果是索引字段，那么对应indexColumns数组中的元素不为null
         indexColumns = new IndexColumn[columns.length];
@@ -70,6 +72,17 @@ public class IndexCursor implements Cursor {
         }
     }
 
+    /**
+     * Enable or disable reusing the open index cursor for the next lookup.
+     * This is only allowed if all index conditions are equality conditions
+     * on the first column of the index.
+     *
+     * @param mergeJoin whether to read the index like in a sort-merge join
+     */
+    public void setMergeJoin(boolean mergeJoin) {
+        mergeCursor = mergeJoin ? new MergeJoinCursor(index) : null;
+    }
+
     /**
      * Re-evaluate the start and end values of the index search for rows.
      *
@@ -105,7 +118,7 @@ public class IndexCursor implements Cursor {
                 if (start == null && end == null) {
                     if (canUseIndexForIn(column)) {
                         this.inColumn = column;
-                        inResult = condition.getCurrentResult();
+                        inResult = condition.getCurrentResult(s);
                     }
                 }
             } else {
@@ -161,6 +174,8 @@ public class IndexCursor implements Cursor {
             if (intersects != null && index instanceof SpatialIndex) {
                 cursor = ((SpatialIndex) index).findByGeometry(tableFilter,
                         intersects);
+            } else if (mergeCursor != null && start != null) {
+                cursor = mergeCursor.find(tableFilter, start);
             } else {
                 cursor = index.find(tableFilter, start, end);
             }
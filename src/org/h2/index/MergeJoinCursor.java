@@ -0,0 +1,118 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.index;
+
+import java.util.ArrayList;
+import org.h2.message.DbException;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.table.TableFilter;
+import org.h2.util.New;
+
+/**
+ * A cursor for the inner table of a join where the outer table is read in the
+ * order of the join column (a sort-merge join). Instead of searching the index
+ * for each row of the outer table, one index cursor is kept open and moved
+ * forward to the next key. The rows of the current key are kept, so that
+ * duplicate keys of the outer table don't need another lookup.
+ * <p>
+ * If the key is smaller than the previous key (because the outer table is not
+ * sorted after all), or if many rows would need to be skipped, the index is
+ * searched again, so the result is always the same as with a normal lookup.
+ * </p>
+ */
+//外表按join字段有序时，内表不需要每次都从B-tree的根节点开始找，只要沿着已打开的游标往后读即可
+class MergeJoinCursor implements Cursor {
+
+    /**
+     * The number of non-matching rows to skip before the index is searched
+     * again.
+     */
+    private static final int MAX_SKIP = 64;
+
+    private final Index index;
+    private final ArrayList<Row> rows = New.arrayList();
+    private Cursor cursor;
+    private SearchRow pending;
+    private SearchRow key;
+    private int rowIndex;
+    private Row current;
+
+    MergeJoinCursor(Index index) {
+        this.index = index;
+    }
+
+    /**
+     * Position the cursor before the first row with the given key.
+     *
+     * @param filter the table filter
+     * @param first the search row (only the first index column is set)
+     * @return this cursor
+     */
+    Cursor find(TableFilter filter, SearchRow first) {
+        rowIndex = 0;
+        current = null;
+        if (key != null) {
+            int comp = index.compareRows(first, key);
+            if (comp == 0) {
+                return this;
+            } else if (comp < 0) {
+                cursor = null;
+            }
+        }
+        key = first;
+        rows.clear();
+        if (cursor == null) {
+            open(filter, first);
+        }
+        int skipped = 0;
+        while (pending != null) {
+            int comp = index.compareRows(pending, first);
+            if (comp > 0) {
+                break;
+            } else if (comp == 0) {
+                rows.add(cursor.get());
+            } else if (++skipped > MAX_SKIP) {
+                open(filter, first);
+                skipped = 0;
+                continue;
+            }
+            pending = cursor.next() ? cursor.getSearchRow() : null;
+        }
+        return this;
+    }
+
+    private void open(TableFilter filter, SearchRow first) {
+        cursor = index.find(filter, first, null);
+        pending = cursor.next() ? cursor.getSearchRow() : null;
+    }
+
+    @Override
+    public Row get() {
+        return current;
+    }
+
+    @Override
+    public SearchRow getSearchRow() {
+        return current;
+    }
+
+    @Override
+    public boolean next() {
+        if (rowIndex < rows.size()) {
+            current = rows.get(rowIndex++);
+            return true;
+        }
+        current = null;
+        return false;
+    }
+
+    @Override
+    public boolean previous() {
+        throw DbException.throwInternalError();
+    }
+
+}
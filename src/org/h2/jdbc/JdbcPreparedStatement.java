@@ -165,6 +165,19 @@ public class JdbcPreparedStatement extends JdbcStatement implements
         return updateCount;
     }
 
+    private int[] executeBatchInternal(DbException[] exceptions)
+            throws SQLException {
+        closeOldResultSet();
+        synchronized (session) {
+            try {
+                setExecutingStatement(command);
+                return command.executeBatchUpdate(batchParameters, exceptions);
+            } finally {
+                setExecutingStatement(null);
+            }
+        }
+    }
+
     /**
      * Executes an arbitrary statement. If another result set exists for this
      * statement, this will be closed (even if this statement fails). If auto
@@ -1174,18 +1187,30 @@ public class JdbcPreparedStatement extends JdbcStatement implements
             SQLException next = null;
             checkClosedForWrite();
             try {
+                DbException[] exceptions = new DbException[size];
+                int[] updateCounts = executeBatchInternal(exceptions);
                 for (int i = 0; i < size; i++) {
-                    Value[] set = batchParameters.get(i);
-                    ArrayList<? extends ParameterInterface> parameters =
-                            command.getParameters();
-                    for (int j = 0; j < set.length; j++) {
-                        Value value = set[j];
-                        ParameterInterface param = parameters.get(j);
-                        param.setValue(value, false);
+                    Exception re = null;
+                    if (updateCounts != null) {
+                        // the whole batch was sent at once
+                        result[i] = updateCounts[i];
+                        re = exceptions[i];
+                    } else {
+                        Value[] set = batchParameters.get(i);
+                        ArrayList<? extends ParameterInterface> parameters =
+                                command.getParameters();
+                        for (int j = 0; j < set.length; j++) {
+                            Value value = set[j];
+                            ParameterInterface param = parameters.get(j);
+                            param.setValue(value, false);
+                        }
+                        try {
+                            result[i] = executeUpdateInternal();
+                        } catch (Exception e) {
+                            re = e;
+                        }
                     }
-                    try {
-                        result[i] = executeUpdateInternal();
-                    } catch (Exception re) {
+                    if (re != null) {
                         SQLException e = logAndConvert(re);
                         if (next == null) {
                             next = e;
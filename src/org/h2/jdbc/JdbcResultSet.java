@@ -2509,7 +2509,8 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
             debugCodeCall("getRow");
             checkClosed();
             int rowId = result.getRowId();
-            if (rowId >= result.getRowCount()) {
+            int count = result.getRowCount();
+            if (count >= 0 && rowId >= count) {
                 return 0;
             }
             return rowId + 1;
@@ -2659,7 +2660,8 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
             checkClosed();
             int row = result.getRowId();
             int count = result.getRowCount();
-            return count > 0 && row < 0;
+            // the row count of a lazy result is not known (-1)
+            return count != 0 && row < 0;
         } catch (Exception e) {
             throw logAndConvert(e);
         }
@@ -2699,7 +2701,8 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
             debugCodeCall("isFirst");
             checkClosed();
             int row = result.getRowId();
-            return row == 0 && row < result.getRowCount();
+            int count = result.getRowCount();
+            return row == 0 && (count < 0 || row < count);
         } catch (Exception e) {
             throw logAndConvert(e);
         }
@@ -2818,18 +2821,29 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
             debugCodeCall("absolute", rowNumber);
             checkClosed();
             if (rowNumber < 0) {
+                if (result.getRowCount() < 0) {
+                    // the number of rows of a lazy result is only
+                    // known when all rows were read
+                    while (nextRow()) {
+                        // read to the end
+                    }
+                }
                 rowNumber = result.getRowCount() + rowNumber + 1;
-            } else if (rowNumber > result.getRowCount() + 1) {
+            } else if (result.getRowCount() >= 0 &&
+                    rowNumber > result.getRowCount() + 1) {
                 rowNumber = result.getRowCount() + 1;
             }
             if (rowNumber <= result.getRowId()) {
                 resetResult();
             }
             while (result.getRowId() + 1 < rowNumber) {
-                nextRow();
+                if (!nextRow()) {
+                    break;
+                }
             }
             int row = result.getRowId();
-            return row >= 0 && row < result.getRowCount();
+            int count = result.getRowCount();
+            return row >= 0 && (count < 0 || row < count);
         } catch (Exception e) {
             throw logAndConvert(e);
         }
@@ -2851,10 +2865,11 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
             debugCodeCall("relative", rowCount);
             checkClosed();
             int row = result.getRowId() + 1 + rowCount;
+            int count = result.getRowCount();
             if (row < 0) {
                 row = 0;
-            } else if (row > result.getRowCount()) {
-                row = result.getRowCount() + 1;
+            } else if (count >= 0 && row > count) {
+                row = count + 1;
             }
             return absolute(row);
         } catch (Exception e) {
@@ -3191,7 +3206,9 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
     }
 
     private void checkOnValidRow() {
-        if (result.getRowId() < 0 || result.getRowId() >= result.getRowCount()) {
+        int rowId = result.getRowId();
+        int count = result.getRowCount();
+        if (rowId < 0 || (count >= 0 && rowId >= count)) {
             throw DbException.get(ErrorCode.NO_DATA_AVAILABLE);
         }
     }
@@ -48,8 +48,8 @@ public class FileStore {
      * The free spaces between the chunks. The first block to use is block 2
      * (the first two blocks are the store header).
      */
-    protected final FreeSpaceBitSet freeSpace =
-            new FreeSpaceBitSet(2, MVStore.BLOCK_SIZE);
+    protected final FreeSpaceTree freeSpace =
+            new FreeSpaceTree(2, MVStore.BLOCK_SIZE);
 
     /**
      * The file name.
@@ -101,6 +101,27 @@ public class FileStore {
         return dst;
     }
 
+    /**
+     * Read from the file. The returned buffer may be shared with the file
+     * store, so it may only be used until endRead is called, which is
+     * required after each call of this method.
+     *
+     * @param pos the read position
+     * @param len the number of bytes to read
+     * @return the byte buffer
+     */
+    public ByteBuffer beginRead(long pos, int len) {
+        return readFully(pos, len);
+    }
+
+    /**
+     * Release the buffer returned by the last call of beginRead in this
+     * thread.
+     */
+    public void endRead() {
+        // the buffer is not shared
+    }
+
     /**
      * Write to the file.
      *
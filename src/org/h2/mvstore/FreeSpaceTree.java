@@ -0,0 +1,358 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.h2.util.MathUtils;
+
+/**
+ * A free space map that keeps the free extents (runs of free blocks) in a
+ * tree ordered by position. For each bucket of positions, the length of the
+ * largest extent that starts in it is kept in a segment tree. Allocating and
+ * freeing space is therefore O(log n), independent of how the file is used.
+ * <p>
+ * As in FreeSpaceBitSet, space is allocated in the first free extent that is
+ * large enough (first fit), so that chunks move towards the start of the file
+ * and the file can be truncated after compacting it. If no extent is large
+ * enough, the space is allocated at the end, after the last used block.
+ */
+public class FreeSpaceTree {
+
+    /**
+     * The first usable block.
+     */
+    private final int firstFreeBlock;
+
+    /**
+     * The block size in bytes.
+     */
+    private final int blockSize;
+
+    /**
+     * The free extents before the end, ordered by position (start block to
+     * number of blocks). Extents are never adjacent to each other or to the
+     * end.
+     */
+    private final TreeMap<Integer, Integer> extents =
+            new TreeMap<Integer, Integer>();
+
+    /**
+     * The number of blocks per bucket is 1 &lt;&lt; BUCKET_SHIFT.
+     */
+    private static final int BUCKET_SHIFT = 8;
+
+    /**
+     * The segment tree of the largest extent length per bucket: the element
+     * 1 is the root, the children of element i are 2 * i and 2 * i + 1, and
+     * the buckets are the elements starting at bucketCount.
+     */
+    private int[] maxLength;
+
+    /**
+     * The number of buckets in the segment tree (a power of 2).
+     */
+    private int bucketCount;
+
+    /**
+     * The first block after the last used block.
+     */
+    private int end;
+
+    /**
+     * The number of used blocks.
+     */
+    private long usedBlocks;
+
+    /**
+     * Create a new free space map.
+     *
+     * @param firstFreeBlock the first free block
+     * @param blockSize the block size
+     */
+    public FreeSpaceTree(int firstFreeBlock, int blockSize) {
+        this.firstFreeBlock = firstFreeBlock;
+        this.blockSize = blockSize;
+        clear();
+    }
+
+    /**
+     * Reset the list.
+     */
+    public void clear() {
+        extents.clear();
+        bucketCount = 1;
+        maxLength = new int[2];
+        end = firstFreeBlock;
+        usedBlocks = firstFreeBlock;
+    }
+
+    /**
+     * Check whether all of the blocks are in use.
+     *
+     * @param pos the position in bytes
+     * @param length the number of bytes
+     * @return true if all blocks are in use
+     */
+    public boolean isUsed(long pos, int length) {
+        int start = getBlock(pos);
+        int stop = start + getBlockCount(length);
+        if (stop > end) {
+            return false;
+        }
+        Map.Entry<Integer, Integer> e = extents.lowerEntry(stop);
+        return e == null || e.getKey() + e.getValue() <= start;
+    }
+
+    /**
+     * Check whether all of the blocks are free.
+     *
+     * @param pos the position in bytes
+     * @param length the number of bytes
+     * @return true if all blocks are free
+     */
+    public boolean isFree(long pos, int length) {
+        int start = getBlock(pos);
+        int stop = start + getBlockCount(length);
+        if (start >= end) {
+            return true;
+        }
+        Map.Entry<Integer, Integer> e = extents.floorEntry(start);
+        return e != null && e.getKey() + e.getValue() >= stop;
+    }
+
+    /**
+     * Allocate a number of blocks and mark them as used.
+     *
+     * @param length the number of bytes to allocate
+     * @return the start position in bytes
+     */
+    public long allocate(int length) {
+        int blocks = getBlockCount(length);
+        int start;
+        if (maxLength[1] < blocks) {
+            start = end;
+            end += blocks;
+        } else {
+            // the first bucket with a large enough extent
+            int i = 1;
+            while (i < bucketCount) {
+                i = maxLength[2 * i] >= blocks ? 2 * i : 2 * i + 1;
+            }
+            int len = 0;
+            start = -1;
+            for (Map.Entry<Integer, Integer> e : getBucket(i - bucketCount).entrySet()) {
+                if (e.getValue() >= blocks) {
+                    start = e.getKey();
+                    len = e.getValue();
+                    break;
+                }
+            }
+            removeExtent(start, len);
+            if (len > blocks) {
+                addExtent(start + blocks, len - blocks);
+            }
+        }
+        usedBlocks += blocks;
+        return getPos(start);
+    }
+
+    /**
+     * Mark the space as in use.
+     *
+     * @param pos the position in bytes
+     * @param length the number of bytes
+     */
+    public void markUsed(long pos, int length) {
+        int start = getBlock(pos);
+        int stop = start + getBlockCount(length);
+        if (start > end) {
+            // the blocks between the old and the new end are free
+            addExtent(end, start - end);
+            usedBlocks += stop - start;
+            end = stop;
+            return;
+        }
+        int count = removeFree(start, Math.min(stop, end));
+        if (stop > end) {
+            count += stop - end;
+            end = stop;
+        }
+        usedBlocks += count;
+    }
+
+    /**
+     * Mark the space as free.
+     *
+     * @param pos the position in bytes
+     * @param length the number of bytes
+     */
+    public void free(long pos, int length) {
+        int start = getBlock(pos);
+        int stop = Math.min(start + getBlockCount(length), end);
+        if (start >= stop) {
+            return;
+        }
+        // merge with the overlapping and adjacent free extents
+        int mergedStart = start, mergedStop = stop;
+        int count = 0;
+        Integer k = extents.floorKey(start);
+        if (k == null) {
+            k = extents.ceilingKey(start);
+        }
+        while (k != null && k <= stop) {
+            int len = extents.get(k);
+            int kStop = k + len;
+            Integer next = extents.higherKey(k);
+            if (kStop >= start) {
+                removeExtent(k, len);
+                count += Math.max(0, Math.min(kStop, stop) - Math.max(k, start));
+                mergedStart = Math.min(mergedStart, k);
+                mergedStop = Math.max(mergedStop, kStop);
+            }
+            k = next;
+        }
+        usedBlocks -= stop - start - count;
+        if (mergedStop == end) {
+            end = mergedStart;
+        } else {
+            addExtent(mergedStart, mergedStop - mergedStart);
+        }
+    }
+
+    /**
+     * Remove the free blocks in the given range from the free extents.
+     *
+     * @param start the first block
+     * @param stop the block after the last block
+     * @return the number of blocks that were free
+     */
+    private int removeFree(int start, int stop) {
+        int count = 0;
+        Integer k = extents.floorKey(start);
+        if (k == null) {
+            k = extents.ceilingKey(start);
+        }
+        while (k != null && k < stop) {
+            int len = extents.get(k);
+            int kStop = k + len;
+            Integer next = extents.higherKey(k);
+            if (kStop > start) {
+                removeExtent(k, len);
+                int s = Math.max(k, start), e = Math.min(kStop, stop);
+                count += e - s;
+                if (k < s) {
+                    addExtent(k, s - k);
+                }
+                if (kStop > e) {
+                    addExtent(e, kStop - e);
+                }
+            }
+            k = next;
+        }
+        return count;
+    }
+
+    private void addExtent(int start, int len) {
+        extents.put(start, len);
+        int bucket = start >>> BUCKET_SHIFT;
+        if (bucket >= bucketCount || maxLength[bucketCount + bucket] < len) {
+            setMaxLength(bucket, len);
+        }
+    }
+
+    private void removeExtent(int start, int len) {
+        extents.remove(start);
+        int bucket = start >>> BUCKET_SHIFT;
+        if (maxLength[bucketCount + bucket] == len) {
+            int max = 0;
+            for (int l : getBucket(bucket).values()) {
+                max = Math.max(max, l);
+            }
+            setMaxLength(bucket, max);
+        }
+    }
+
+    private Map<Integer, Integer> getBucket(int bucket) {
+        int first = bucket << BUCKET_SHIFT;
+        return extents.subMap(first, true,
+                first + (1 << BUCKET_SHIFT) - 1, true);
+    }
+
+    private void setMaxLength(int bucket, int len) {
+        if (bucket >= bucketCount) {
+            int count = bucketCount;
+            while (bucket >= count) {
+                count *= 2;
+            }
+            int[] m = new int[2 * count];
+            System.arraycopy(maxLength, bucketCount, m, count, bucketCount);
+            for (int i = count - 1; i > 0; i--) {
+                m[i] = Math.max(m[2 * i], m[2 * i + 1]);
+            }
+            maxLength = m;
+            bucketCount = count;
+        }
+        int i = bucketCount + bucket;
+        maxLength[i] = len;
+        for (i /= 2; i > 0; i /= 2) {
+            int max = Math.max(maxLength[2 * i], maxLength[2 * i + 1]);
+            if (maxLength[i] == max) {
+                break;
+            }
+            maxLength[i] = max;
+        }
+    }
+
+    private long getPos(int block) {
+        return (long) block * (long) blockSize;
+    }
+
+    private int getBlock(long pos) {
+        return (int) (pos / blockSize);
+    }
+
+    private int getBlockCount(int length) {
+        return MathUtils.roundUpInt(length, blockSize) / blockSize;
+    }
+
+    /**
+     * Get the fill rate of the space in percent. The value 0 means the space is
+     * completely free, and 100 means it is completely full.
+     *
+     * @return the fill rate (0 - 100)
+     */
+    public int getFillRate() {
+        if (usedBlocks == 0) {
+            return 0;
+        }
+        return Math.max(1, (int) (100L * usedBlocks / end));
+    }
+
+    /**
+     * Get the position of the first free space.
+     *
+     * @return the position.
+     */
+    public long getFirstFree() {
+        return getPos(extents.isEmpty() ? end : extents.firstKey());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buff = new StringBuilder();
+        buff.append('[');
+        for (Map.Entry<Integer, Integer> e : extents.entrySet()) {
+            buff.append(Integer.toHexString(e.getKey())).append('-').
+                append(Integer.toHexString(e.getKey() + e.getValue() - 1)).
+                append(", ");
+        }
+        buff.append(Integer.toHexString(end)).append("-]");
+        return buff.toString();
+    }
+
+}
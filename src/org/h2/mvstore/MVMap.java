@@ -8,12 +8,14 @@ package org.h2.mvstore;
 import java.util.AbstractList;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.h2.mvstore.type.DataType;
 import org.h2.mvstore.type.ObjectDataType;
@@ -28,8 +30,9 @@ import org.h2.util.New;
  * Write operations first read the relevant area from disk to memory
  * concurrently, and only then modify the data. The in-memory part of write
  * operations is synchronized. For scalable concurrent in-memory write
- * operations, the map should be split into multiple smaller sub-maps that are
- * then synchronized independently.
+ * operations, either use MVMapConcurrent (where the new root page is installed
+ * using compare-and-set), or split the map into multiple smaller sub-maps that
+ * are then synchronized independently.
  *
  * @param <K> the key class
  * @param <V> the value class
@@ -37,6 +40,10 @@ import org.h2.util.New;
 public class MVMap<K, V> extends AbstractMap<K, V>
         implements ConcurrentMap<K, V> {
 
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MVMap, Page> ROOT_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(MVMap.class, Page.class, "root");
+
     /**
      * The store.
      */
@@ -515,6 +522,242 @@ public class MVMap<K, V> extends AbstractMap<K, V>
         newRoot(Page.createEmpty(this, writeVersion));
     }
 
+    /**
+     * Add the given entries to the map. The entries must be sorted by key,
+     * and there may be no duplicate keys.
+     * <p>
+     * If the map is empty, the pages are built bottom-up instead of adding one
+     * entry at a time: the leaf pages are filled up to the page split size,
+     * and the parent pages are created when all their children are known. If
+     * there is a lot of unsaved data, the map is stored, and only the
+     * positions of the completed pages are kept.
+     * </p>
+     * If the map is not empty, the entries are added using put.
+     *
+     * @param it the entries, in ascending key order
+     */
+    public synchronized void putAllSorted(Iterator<? extends Map.Entry<K, V>> it) {
+        beforeWrite();
+        if (sizeAsLong() > 0) {
+            while (it.hasNext()) {
+                Map.Entry<K, V> e = it.next();
+                put(e.getKey(), e.getValue());
+            }
+            return;
+        }
+        //整颗树自底向上构建：叶子节点装满后才创建，父节点在所有子节点都确定后才创建，每个page只创建一次
+        int splitSize = store.getPageSplitSize();
+        ArrayList<BulkLevel> levels = New.arrayList();
+        ArrayList<Object> keys = New.arrayList();
+        ArrayList<Object> values = New.arrayList();
+        ArrayList<Page> temporary = New.arrayList();
+        temporary.add(root);
+        int memory = DataUtils.PAGE_MEMORY;
+        while (it.hasNext()) {
+            Map.Entry<K, V> e = it.next();
+            K key = e.getKey();
+            V value = e.getValue();
+            DataUtils.checkArgument(value != null, "The value may not be null");
+            keys.add(key);
+            values.add(value);
+            memory += keyType.getMemory(key) + valueType.getMemory(value);
+            if (memory < splitSize) {
+                continue;
+            }
+            Page leaf = createLeaf(keys, values);
+            addBulkChild(levels, 0,
+                    new Page.PageReference(leaf, 0, leaf.getTotalCount()),
+                    keys.get(0), splitSize);
+            keys.clear();
+            values.clear();
+            memory = DataUtils.PAGE_MEMORY;
+            int autoCommitMemory = store.getAutoCommitMemory();
+            if (store.getFileStore() != null && autoCommitMemory > 0 &&
+                    store.getUnsavedMemory() > autoCommitMemory) {
+                // store what we have so far, so that the pages
+                // don't need to be kept in memory
+                ArrayList<Page> created = New.arrayList();
+                installBulkRoot(createBulkRoot(levels, keys, values, created),
+                        temporary);
+                temporary = created;
+                store.commit();
+                for (BulkLevel level : levels) {
+                    level.release();
+                }
+            }
+        }
+        ArrayList<Page> created = New.arrayList();
+        installBulkRoot(createBulkRoot(levels, keys, values, created), temporary);
+    }
+
+    private Page createLeaf(ArrayList<Object> keys, ArrayList<Object> values) {
+        int len = keys.size();
+        return Page.create(this, writeVersion,
+                keys.toArray(new Object[len]), values.toArray(new Object[len]),
+                null, len, 0);
+    }
+
+    private void addBulkChild(ArrayList<BulkLevel> levels, int depth,
+            Page.PageReference ref, Object firstKey, int splitSize) {
+        if (depth == levels.size()) {
+            levels.add(new BulkLevel());
+        }
+        BulkLevel level = levels.get(depth);
+        level.add(ref, firstKey, keyType.getMemory(firstKey));
+        if (level.memory >= splitSize && level.children.size() > 1) {
+            Page p = level.createPage(this, writeVersion, null, null);
+            Object first = level.keys.get(0);
+            level.clear();
+            addBulkChild(levels, depth + 1,
+                    new Page.PageReference(p, 0, p.getTotalCount()),
+                    first, splitSize);
+        }
+    }
+
+    /**
+     * Create a root page from the pages that are not yet complete. The levels
+     * are not changed.
+     *
+     * @param levels the levels
+     * @param keys the keys of the last leaf
+     * @param values the values of the last leaf
+     * @param created the list of created pages
+     * @return the root page
+     */
+    private Page createBulkRoot(ArrayList<BulkLevel> levels,
+            ArrayList<Object> keys, ArrayList<Object> values,
+            ArrayList<Page> created) {
+        Page.PageReference ref = null;
+        Object first = null;
+        if (keys.size() > 0) {
+            Page leaf = createLeaf(keys, values);
+            created.add(leaf);
+            ref = new Page.PageReference(leaf, 0, leaf.getTotalCount());
+            first = keys.get(0);
+        }
+        for (BulkLevel level : levels) {
+            int count = level.children.size() + (ref == null ? 0 : 1);
+            if (count == 0) {
+                continue;
+            } else if (count == 1) {
+                // a node needs at least two children:
+                // use the single child one level up
+                if (ref == null) {
+                    ref = level.children.get(0);
+                    first = level.keys.get(0);
+                }
+                continue;
+            }
+            Page p = level.createPage(this, writeVersion, ref, first);
+            created.add(p);
+            first = level.keys.get(0);
+            ref = new Page.PageReference(p, 0, p.getTotalCount());
+        }
+        if (ref == null) {
+            Page p = Page.createEmpty(this, writeVersion);
+            created.add(p);
+            return p;
+        }
+        return ref.page != null ? ref.page : readPage(ref.pos);
+    }
+
+    private void installBulkRoot(Page p, ArrayList<Page> temporary) {
+        for (Page old : temporary) {
+            if (old != p) {
+                old.removePage();
+            }
+        }
+        newRoot(p);
+    }
+
+    /**
+     * The completed child pages of one level of the tree that is built
+     * bottom-up, for which the parent page was not yet created.
+     */
+    private static class BulkLevel {
+
+        /**
+         * The first key of each child.
+         */
+        final ArrayList<Object> keys = New.arrayList();
+
+        /**
+         * The children.
+         */
+        final ArrayList<Page.PageReference> children = New.arrayList();
+
+        /**
+         * The estimated memory of the parent page.
+         */
+        int memory = DataUtils.PAGE_MEMORY;
+
+        /**
+         * Add a child page.
+         *
+         * @param ref the child
+         * @param firstKey the first key of the child
+         * @param keyMemory the memory of the key
+         */
+        void add(Page.PageReference ref, Object firstKey, int keyMemory) {
+            keys.add(firstKey);
+            children.add(ref);
+            memory += keyMemory + DataUtils.PAGE_MEMORY_CHILD;
+        }
+
+        /**
+         * Create the parent page.
+         *
+         * @param map the map
+         * @param version the version
+         * @param last an additional last child, or null
+         * @param lastKey the first key of the additional last child
+         * @return the page
+         */
+        Page createPage(MVMap<?, ?> map, long version,
+                Page.PageReference last, Object lastKey) {
+            int len = children.size() + (last == null ? 0 : 1);
+            Page.PageReference[] refs = new Page.PageReference[len];
+            children.toArray(refs);
+            Object[] k = new Object[len - 1];
+            for (int i = 1; i < keys.size(); i++) {
+                k[i - 1] = keys.get(i);
+            }
+            long totalCount = 0;
+            for (Page.PageReference r : children) {
+                totalCount += r.count;
+            }
+            if (last != null) {
+                refs[len - 1] = last;
+                k[len - 2] = lastKey;
+                totalCount += last.count;
+            }
+            return Page.create(map, version, k, null, refs, totalCount, 0);
+        }
+
+        /**
+         * Only keep the position of the child pages that were stored.
+         */
+        void release() {
+            for (int i = 0; i < children.size(); i++) {
+                Page.PageReference r = children.get(i);
+                if (r.page != null && r.page.getPos() != 0) {
+                    children.set(i, new Page.PageReference(
+                            null, r.page.getPos(), r.count));
+                }
+            }
+        }
+
+        /**
+         * Remove all children.
+         */
+        void clear() {
+            keys.clear();
+            children.clear();
+            memory = DataUtils.PAGE_MEMORY;
+        }
+
+    }
+
     /**
      * Close the map. Accessing the data is still possible (to allow concurrent
      * reads), but it is marked as closed.
@@ -699,6 +942,56 @@ public class MVMap<K, V> extends AbstractMap<K, V>
         }
     }
 
+    /**
+     * Use the new root page from now on, but only if the root page was not
+     * changed in the meantime by another thread (compare-and-set).
+     *
+     * @param expected the root page the new root page is based on
+     * @param newRoot the new root page
+     * @return true if the root page was replaced
+     */
+    protected boolean replaceRoot(Page expected, Page newRoot) {
+        if (expected.getVersion() == newRoot.getVersion()) {
+            if (!ROOT_UPDATER.compareAndSet(this, expected, newRoot)) {
+                return false;
+            }
+        } else {
+            // the old root must be in the list of old roots before the new
+            // root is visible, so that the old version can be stored
+            synchronized (oldRoots) {
+                if (root != expected) {
+                    return false;
+                }
+                Page last = oldRoots.peekLast();
+                boolean added = false;
+                if (last == null || last.getVersion() != expected.getVersion()) {
+                    oldRoots.add(expected);
+                    added = true;
+                }
+                if (!ROOT_UPDATER.compareAndSet(this, expected, newRoot)) {
+                    if (added) {
+                        oldRoots.removeLast(expected);
+                    }
+                    return false;
+                }
+            }
+        }
+        removeUnusedOldVersions();
+        return true;
+    }
+
+    /**
+     * Check whether a page that is replaced by a write operation of the
+     * current thread is only removed later, if the new root page is used.
+     *
+     * @param p the page
+     * @return true if the page was recorded, false if it should be removed
+     *         now
+     */
+    boolean deferPageRemoval(Page p) {
+        return false;
+    }
+
     /**
      * Compare two keys.
      *
@@ -766,11 +1059,25 @@ public class MVMap<K, V> extends AbstractMap<K, V>
      * @return whether rewriting was successful
      */
     boolean rewrite(Set<Integer> set) {
+        return rewrite(set, Integer.MAX_VALUE) >= 0;
+    }
+
+    /**
+     * Re-write at most the given number of pages that belong to one of the
+     * chunks in the given set. Pages that were re-written are no longer in
+     * one of the chunks once the changes are stored, so that calling this
+     * method again continues with the remaining pages.
+     *
+     * @param set the set of chunk ids
+     * @param maxPages the maximum number of pages to re-write
+     * @return the number of re-written pages, or -1 if rewriting failed
+     */
+    int rewrite(Set<Integer> set, int maxPages) {
         // read from old version, to avoid concurrent reads
         long previousVersion = store.getCurrentVersion() - 1;
         if (previousVersion < createVersion) {
             // a new map
-            return true;
+            return 0;
         }
         MVMap<K, V> readMap;
         try {
@@ -778,22 +1085,21 @@ public class MVMap<K, V> extends AbstractMap<K, V>
         } catch (IllegalArgumentException e) {
             // unknown version: ok
             // TODO should not rely on exception handling
-            return true;
+            return 0;
         }
         try {
-            rewrite(readMap.root, set);
-            return true;
+            return rewrite(readMap.root, set, maxPages);
         } catch (IllegalStateException e) {
             // TODO should not rely on exception handling
             if (DataUtils.getErrorCode(e.getMessage()) == DataUtils.ERROR_CHUNK_NOT_FOUND) {
                 // ignore
-                return false;
+                return -1;
             }
             throw e;
         }
     }
 
-    private int rewrite(Page p, Set<Integer> set) {
+    private int rewrite(Page p, Set<Integer> set, int maxPages) {
         if (p.isLeaf()) {
             long pos = p.getPos();
             int chunkId = DataUtils.getPageChunkId(pos);
@@ -812,6 +1118,9 @@ public class MVMap<K, V> extends AbstractMap<K, V>
         }
         int writtenPageCount = 0;
         for (int i = 0; i < getChildPageCount(p); i++) {
+            if (writtenPageCount >= maxPages) {
+                break;
+            }
             long childPos = p.getChildPagePos(i);
             if (childPos != 0 && DataUtils.getPageType(childPos) == DataUtils.PAGE_TYPE_LEAF) {
                 // we would need to load the page, and it's a leaf:
@@ -822,7 +1131,8 @@ public class MVMap<K, V> extends AbstractMap<K, V>
                     continue;
                 }
             }
-            writtenPageCount += rewrite(p.getChildPage(i), set);
+            writtenPageCount += rewrite(p.getChildPage(i), set,
+                    maxPages - writtenPageCount);
         }
         if (writtenPageCount == 0) {
             long pos = p.getPos();
@@ -5,21 +5,180 @@
  */
 package org.h2.mvstore;
 
+import java.util.ArrayList;
 import org.h2.mvstore.type.DataType;
 import org.h2.mvstore.type.ObjectDataType;
 
 /**
- * A class used for backward compatibility.
+ * A map where write operations are not synchronized. Each write operation
+ * creates a copy of the changed pages, starting from the current root page,
+ * and then installs the new root page using compare-and-set. If another
+ * thread changed the map in the meantime, the operation is repeated. This
+ * allows concurrent writes to scale with the number of threads.
+ * <p>
+ * The pages that are replaced are only marked as removed once the new root
+ * page is used, so that a failed attempt does not change the bookkeeping of
+ * the store. Like read operations, write operations may read pages of an old
+ * version while the store is written, so the retention time should not be
+ * set to 0.
  *
  * @param <K> the key type
  * @param <V> the value type
  */
+//写操作不再对整个map加锁，而是先在当前root的基础上copy-on-write，最后用CAS替换root，失败就重试
 public class MVMapConcurrent<K, V> extends MVMap<K, V> {
 
+    /**
+     * Always change the entry.
+     */
+    private static final int ANY = 0;
+
+    /**
+     * Only change the entry if the key does not exist.
+     */
+    private static final int ABSENT = 1;
+
+    /**
+     * Only change the entry if the key exists.
+     */
+    private static final int PRESENT = 2;
+
+    /**
+     * Only change the entry if the value matches the expected value.
+     */
+    private static final int EQUAL = 3;
+
+    /**
+     * The pages replaced by the current write operation of a thread.
+     */
+    private final ThreadLocal<ArrayList<Page>> removedPages =
+            new ThreadLocal<ArrayList<Page>>();
+
     public MVMapConcurrent(DataType keyType, DataType valueType) {
         super(keyType, valueType);
     }
 
+    @Override
+    public V put(K key, V value) {
+        DataUtils.checkArgument(value != null, "The value may not be null");
+        return update(key, value, ANY, null);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return update(key, null, ANY, null);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        DataUtils.checkArgument(value != null, "The value may not be null");
+        return update(key, value, ABSENT, null);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return areValuesEqual(update(key, null, EQUAL, value), value);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        DataUtils.checkArgument(newValue != null, "The value may not be null");
+        return areValuesEqual(update(key, newValue, EQUAL, oldValue), oldValue);
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        DataUtils.checkArgument(value != null, "The value may not be null");
+        return update(key, value, PRESENT, null);
+    }
+
+    @Override
+    public void clear() {
+        beforeWrite();
+        while (true) {
+            Page oldRoot = root;
+            if (replaceRoot(oldRoot, Page.createEmpty(this, writeVersion))) {
+                oldRoot.removeAllRecursive();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add, replace or remove an entry, if the condition is met. The condition
+     * is checked against the same root page that the change is based on.
+     *
+     * @param key the key
+     * @param value the new value, or null to remove the entry
+     * @param condition the condition (ANY, ABSENT, PRESENT, or EQUAL)
+     * @param expected the expected value (only used for EQUAL)
+     * @return the old value, or null if the key did not exist
+     */
+    @SuppressWarnings("unchecked")
+    private V update(Object key, V value, int condition, Object expected) {
+        beforeWrite();
+        ArrayList<Page> removed = new ArrayList<Page>();
+        removedPages.set(removed);
+        try {
+            while (true) {
+                Page oldRoot = root;
+                // for a plain put, the old value is found while changing
+                Object old = condition == ANY && value != null ?
+                        null : binarySearch(oldRoot, key);
+                boolean change;
+                switch (condition) {
+                case ABSENT:
+                    change = old == null;
+                    break;
+                case PRESENT:
+                    change = old != null;
+                    break;
+                case EQUAL:
+                    change = areValuesEqual(old, expected);
+                    break;
+                default:
+                    change = true;
+                }
+                if (!change || (value == null && old == null)) {
+                    return (V) old;
+                }
+                long v = writeVersion;
+                Page p = oldRoot.copy(v);
+                if (value == null) {
+                    remove(p, v, key);
+                    if (!p.isLeaf() && p.getTotalCount() == 0) {
+                        p.removePage();
+                        p = Page.createEmpty(this,  p.getVersion());
+                    }
+                } else {
+                    p = splitRootIfNeeded(p, v);
+                    old = put(p, v, key, value);
+                }
+                if (replaceRoot(oldRoot, p)) {
+                    removedPages.remove();
+                    for (Page r : removed) {
+                        r.removePage();
+                    }
+                    return (V) old;
+                }
+                // another thread was faster: the copies are discarded
+                removed.clear();
+            }
+        } finally {
+            removedPages.remove();
+        }
+    }
+
+    @Override
+    boolean deferPageRemoval(Page p) {
+        ArrayList<Page> removed = removedPages.get();
+        if (removed == null) {
+            return false;
+        }
+        removed.add(p);
+        return true;
+    }
+
     /**
      * A builder for this class.
      *
@@ -14,16 +14,24 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.h2.compress.CompressDeflate;
 import org.h2.compress.CompressLZF;
 import org.h2.compress.Compressor;
 import org.h2.mvstore.Page.PageChildren;
 import org.h2.mvstore.cache.CacheLongKeyLIRS;
+import org.h2.mvstore.cache.OffHeapPageCache;
 import org.h2.mvstore.type.StringDataType;
 import org.h2.util.MathUtils;
 import org.h2.util.New;
@@ -143,6 +151,18 @@ public class MVStore {
      */
     private static final int MARKED_FREE = 10000000;
 
+    /**
+     * The minimum number of unsaved pages per thread to compress the pages
+     * of a chunk concurrently.
+     */
+    private static final int MIN_PAGES_PER_COMPRESS_THREAD = 16;
+
+    /**
+     * The number of pages the background thread re-writes at a time when
+     * compacting incrementally.
+     */
+    private static final int COMPACT_PAGES_PER_STEP = 64;
+
     /**
      * The background thread, if any.
      */
@@ -171,6 +191,12 @@ public class MVStore {
      */
     private CacheLongKeyLIRS<PageChildren> cacheChunkRef;
 
+    /**
+     * The cache of serialized pages outside of the heap, or null. It is
+     * disabled by default.
+     */
+    private OffHeapPageCache offHeapCache;
+
     /**
      * The newest chunk. If nothing was stored yet, this field is not set.
      */
@@ -214,6 +240,17 @@ public class MVStore {
      */
     private final int compressionLevel;
 
+    /**
+     * The number of threads used to compress the pages of a chunk.
+     */
+    private final int compressThreads;
+
+    /**
+     * The threads that compress pages, created when needed (the thread that
+     * stores the chunk compresses a part as well).
+     */
+    private ThreadPoolExecutor compressExecutor;
+
     private Compressor compressorFast;
 
     private Compressor compressorHigh;
@@ -236,6 +273,37 @@ public class MVStore {
     private int autoCommitMemory;
     private boolean saveNeeded;
 
+    /**
+     * The lock and condition for group commits.
+     */
+    private final Object groupCommitSync = new Object();
+
+    /**
+     * The number of group commit requests so far. Each request is numbered.
+     */
+    private long groupCommitRequested;
+
+    /**
+     * All group commit requests up to this number are stored.
+     */
+    private long groupCommitDone;
+
+    /**
+     * The last group commit request that needs a sync.
+     */
+    private long groupCommitSyncRequested;
+
+    /**
+     * Whether a thread is currently storing a group of commits.
+     */
+    private boolean groupCommitRunning;
+
+    /**
+     * The time in milliseconds a group commit waits for other commits to
+     * join, or 0.
+     */
+    private int groupCommitDelay;
+
     /**
      * The time the store was created, in milliseconds since 1970.
      */
@@ -273,6 +341,19 @@ public class MVStore {
     private int autoCompactFillRate;
     private long autoCompactLastFileOpCount;
 
+    /**
+     * The maximum number of KB per second the background thread may write
+     * when compacting, or 0 to compact in one operation.
+     */
+    private int autoCompactWriteRate;
+    private long autoCompactBudget;
+    private long autoCompactLastTime;
+
+    /**
+     * The ids of the chunks that are compacted incrementally, or null.
+     */
+    private HashSet<Integer> compactChunks;
+
     private Object compactSync = new Object();
 
     private IllegalStateException panicException;
@@ -290,6 +371,9 @@ public class MVStore {
     MVStore(HashMap<String, Object> config) {
         Object o = config.get("compress");
         this.compressionLevel = o == null ? 0 : (Integer) o;
+        o = config.get("compressThreads");
+        this.compressThreads = o == null ?
+                Runtime.getRuntime().availableProcessors() : (Integer) o;
         String fileName = (String) config.get("fileName");
         o = config.get("pageSplitSize");
         if (o == null) {
@@ -313,7 +397,11 @@ public class MVStore {
         }
         if (fileStore == null) {
             fileStoreIsProvided = false;
-            fileStore = new FileStore();
+            if (config.containsKey("memoryMapped")) {
+                fileStore = new MappedFileStore();
+            } else {
+                fileStore = new FileStore();
+            }
         } else {
             fileStoreIsProvided = true;
         }
@@ -324,10 +412,19 @@ public class MVStore {
         if (mb > 0) {
             CacheLongKeyLIRS.Config cc = new CacheLongKeyLIRS.Config();
             cc.maxMemory = mb * 1024L * 1024L;
+            o = config.get("cacheConcurrency");
+            if (o != null) {
+                cc.segmentCount = (Integer) o;
+            }
             cache = new CacheLongKeyLIRS<Page>(cc);
             cc.maxMemory /= 4;
             cacheChunkRef = new CacheLongKeyLIRS<PageChildren>(cc);
         }
+        o = config.get("offHeapCacheSize");
+        mb = o == null ? 0 : (Integer) o;
+        if (mb > 0) {
+            offHeapCache = new OffHeapPageCache(mb * 1024L * 1024L);
+        }
         o = config.get("autoCommitBufferSize");
         int kb = o == null ? 1024 : (Integer) o;
         // 19 KB memory is about 1 KB storage
@@ -335,6 +432,10 @@ public class MVStore {
 
         o = config.get("autoCompactFillRate");
         autoCompactFillRate = o == null ? 50 : (Integer) o;
+        o = config.get("groupCommitDelay");
+        groupCommitDelay = o == null ? 0 : (Integer) o;
+        o = config.get("autoCompactWriteRate");
+        autoCompactWriteRate = o == null ? 0 : (Integer) o;
 
         char[] encryptionKey = (char[]) config.get("encryptionKey");
         try {
@@ -887,6 +988,11 @@ public class MVStore {
             return;
         }
         synchronized (this) {
+            waitForStore();
+            if (compressExecutor != null) {
+                compressExecutor.shutdown();
+                compressExecutor = null;
+            }
             if (shrinkIfPossible) {
                 shrinkFileIfPossible(0);
             }
@@ -894,6 +1000,10 @@ public class MVStore {
             // because of out of memory
             cache = null;
             cacheChunkRef = null;
+            if (offHeapCache != null) {
+                offHeapCache.clear();
+                offHeapCache = null;
+            }
             for (MVMap<?, ?> m : New.arrayList(maps.values())) {
                 m.close();
             }
@@ -1005,39 +1115,70 @@ public class MVStore {
      * there are no unsaved changes, otherwise it increments the current version
      * and stores the data (for file based stores).
      * <p>
-     * At most one store operation may run at any time.
+     * At most one store operation may run at any time. If another thread is
+     * storing, this method waits until it is done, and then stores the
+     * remaining changes.
      *
      * @return the new version (incremented if there were changes)
      */
-    private synchronized long commitAndSave() {
-        if (closed) {
-            return currentVersion;
-        }
-        if (fileStore == null) {
-            throw DataUtils.newIllegalStateException(
-                    DataUtils.ERROR_WRITING_FAILED,
-                    "This is an in-memory store");
-        }
-        if (currentStoreVersion >= 0) {
-            // store is possibly called within store, if the meta map changed
-            return currentVersion;
-        }
-        if (!hasUnsavedChanges()) {
-            return currentVersion;
-        }
-        if (fileStore.isReadOnly()) {
-            throw DataUtils.newIllegalStateException(
-                    DataUtils.ERROR_WRITING_FAILED, "This store is read-only");
-        }
-        try {
+    private long commitAndSave() {
+        synchronized (this) {
+            if (closed) {
+                return currentVersion;
+            }
+            if (fileStore == null) {
+                throw DataUtils.newIllegalStateException(
+                        DataUtils.ERROR_WRITING_FAILED,
+                        "This is an in-memory store");
+            }
+            if (currentStoreThread == Thread.currentThread()) {
+                // store is possibly called within store,
+                // if the meta map changed
+                return currentVersion;
+            }
+            waitForStore();
+            if (closed || !hasUnsavedChanges()) {
+                return currentVersion;
+            }
+            if (fileStore.isReadOnly()) {
+                throw DataUtils.newIllegalStateException(
+                        DataUtils.ERROR_WRITING_FAILED,
+                        "This store is read-only");
+            }
             currentStoreVersion = currentVersion;
             currentStoreThread = Thread.currentThread();
+        }
+        try {
             return storeNow();
         } finally {
-            // in any case reset the current store version,
-            // to allow closing the store
-            currentStoreVersion = -1;
-            currentStoreThread = null;
+            synchronized (this) {
+                // in any case reset the current store version,
+                // to allow closing the store
+                currentStoreVersion = -1;
+                currentStoreThread = null;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until another thread has stored its chunk. Operations that change
+     * the chunks or the metadata need to call this method, as the store lock
+     * is not held while the pages are serialized and written. The caller must
+     * be synchronized on the store.
+     */
+    private void waitForStore() {
+        boolean interrupted = false;
+        while (currentStoreVersion >= 0 &&
+                currentStoreThread != Thread.currentThread()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -1050,216 +1191,255 @@ public class MVStore {
         }
     }
 
+    /**
+     * Store the changes of the current version in a new chunk. The new version
+     * is started and the changed maps are collected while holding the store
+     * lock; the pages are then serialized and the chunk is written without
+     * the lock (unless the caller holds it), so that other operations only
+     * wait for the short steps in between.
+     *
+     * @return the new version
+     */
     private long storeNowTry() {
-        freeUnusedChunks();
-
-        int currentUnsavedPageCount = unsavedMemory;
-        long storeVersion = currentStoreVersion;
-        long version = ++currentVersion;
-        setWriteVersion(version);
-        long time = getTimeSinceCreation();
-        lastCommitTime = time;
-        retainChunk = null;
-
-        // the metadata of the last chunk was not stored so far, and needs to be
-        // set now (it's better not to update right after storing, because that
-        // would modify the meta map again)
-        int lastChunkId;
-        if (lastChunk == null) {
-            lastChunkId = 0;
-        } else {
-            lastChunkId = lastChunk.id;
-            meta.put(Chunk.getMetaKey(lastChunkId), lastChunk.asString());
-            // never go backward in time
-            time = Math.max(lastChunk.time, time);
-        }
-        int newChunkId = lastChunkId;
-        while (true) {
-            newChunkId = (newChunkId + 1) % Chunk.MAX_ID;
-            Chunk old = chunks.get(newChunkId);
-            if (old == null) {
-                break;
-            }
-            if (old.block == Long.MAX_VALUE) {
-                IllegalStateException e = DataUtils.newIllegalStateException(
-                        DataUtils.ERROR_INTERNAL,
-                        "Last block not stored, possibly due to out-of-memory");
-                panic(e);
-            }
-        }
-        Chunk c = new Chunk(newChunkId);
-
-        c.pageCount = Integer.MAX_VALUE;
-        c.pageCountLive = Integer.MAX_VALUE;
-        c.maxLen = Long.MAX_VALUE;
-        c.maxLenLive = Long.MAX_VALUE;
-        c.metaRootPos = Long.MAX_VALUE;
-        c.block = Long.MAX_VALUE;
-        c.len = Integer.MAX_VALUE;
-        c.time = time;
-        c.version = version;
-        c.mapId = lastMapId;
-        c.next = Long.MAX_VALUE;
-        chunks.put(c.id, c);
-        // force a metadata update
-        meta.put(Chunk.getMetaKey(c.id), c.asString());
-        meta.remove(Chunk.getMetaKey(c.id));
-        ArrayList<MVMap<?, ?>> list = New.arrayList(maps.values());
+        int currentUnsavedPageCount;
+        long storeVersion;
+        long version;
+        Chunk c;
         ArrayList<MVMap<?, ?>> changed = New.arrayList();
-        for (MVMap<?, ?> m : list) {
-            m.setWriteVersion(version);
-            long v = m.getVersion();
-            if (m.getCreateVersion() > storeVersion) {
-                // the map was created after storing started
-                continue;
+        WriteBuffer buff;
+        int headerLength;
+        synchronized (this) {
+            freeUnusedChunks();
+
+            currentUnsavedPageCount = unsavedMemory;
+            storeVersion = currentStoreVersion;
+            version = ++currentVersion;
+            setWriteVersion(version);
+            long time = getTimeSinceCreation();
+            lastCommitTime = time;
+            retainChunk = null;
+
+            // the metadata of the last chunk was not stored so far, and needs
+            // to be set now (it's better not to update right after storing,
+            // because that would modify the meta map again)
+            int lastChunkId;
+            if (lastChunk == null) {
+                lastChunkId = 0;
+            } else {
+                lastChunkId = lastChunk.id;
+                meta.put(Chunk.getMetaKey(lastChunkId), lastChunk.asString());
+                // never go backward in time
+                time = Math.max(lastChunk.time, time);
             }
-            if (m.isVolatile()) {
-                continue;
+            int newChunkId = lastChunkId;
+            while (true) {
+                newChunkId = (newChunkId + 1) % Chunk.MAX_ID;
+                Chunk old = chunks.get(newChunkId);
+                if (old == null) {
+                    break;
+                }
+                if (old.block == Long.MAX_VALUE) {
+                    IllegalStateException e =
+                            DataUtils.newIllegalStateException(
+                            DataUtils.ERROR_INTERNAL,
+                            "Last block not stored, " +
+                            "possibly due to out-of-memory");
+                    panic(e);
+                }
             }
-            if (v >= 0 && v >= lastStoredVersion) {
-                MVMap<?, ?> r = m.openVersion(storeVersion);
-                if (r.getRoot().getPos() == 0) {
-                    changed.add(r);
+            c = new Chunk(newChunkId);
+
+            c.pageCount = Integer.MAX_VALUE;
+            c.pageCountLive = Integer.MAX_VALUE;
+            c.maxLen = Long.MAX_VALUE;
+            c.maxLenLive = Long.MAX_VALUE;
+            c.metaRootPos = Long.MAX_VALUE;
+            c.block = Long.MAX_VALUE;
+            c.len = Integer.MAX_VALUE;
+            c.time = time;
+            c.version = version;
+            c.mapId = lastMapId;
+            c.next = Long.MAX_VALUE;
+            chunks.put(c.id, c);
+            // force a metadata update
+            meta.put(Chunk.getMetaKey(c.id), c.asString());
+            meta.remove(Chunk.getMetaKey(c.id));
+            ArrayList<MVMap<?, ?>> list = New.arrayList(maps.values());
+            for (MVMap<?, ?> m : list) {
+                m.setWriteVersion(version);
+                long v = m.getVersion();
+                if (m.getCreateVersion() > storeVersion) {
+                    // the map was created after storing started
+                    continue;
+                }
+                if (m.isVolatile()) {
+                    continue;
+                }
+                if (v >= 0 && v >= lastStoredVersion) {
+                    MVMap<?, ?> r = m.openVersion(storeVersion);
+                    if (r.getRoot().getPos() == 0) {
+                        changed.add(r);
+                    }
                 }
             }
+            applyFreedSpace(storeVersion);
+            buff = getWriteBuffer();
+        }
+
+        // serialize the pages of the old version, while the maps are
+        // changed in the new version
+        if (compressionLevel > 0 && compressThreads > 1) {
+            prepareWrite(changed);
         }
-        applyFreedSpace(storeVersion);
-        WriteBuffer buff = getWriteBuffer();
         // need to patch the header later
         c.writeChunkHeader(buff, 0);
-        int headerLength = buff.position();
+        headerLength = buff.position();
         c.pageCount = 0;
         c.pageCountLive = 0;
         c.maxLen = 0;
         c.maxLenLive = 0;
         for (MVMap<?, ?> m : changed) {
             Page p = m.getRoot();
-            String key = MVMap.getMapRootKey(m.getId());
-            if (p.getTotalCount() == 0) {
-                meta.put(key, "0");
-            } else {
+            if (p.getTotalCount() > 0) {
                 p.writeUnsavedRecursive(c, buff);
-                long root = p.getPos();
-                meta.put(key, Long.toHexString(root));
             }
         }
-        meta.setWriteVersion(version);
 
-        Page metaRoot = meta.getRoot();
-        metaRoot.writeUnsavedRecursive(c, buff);
+        Page metaRoot;
+        long filePos;
+        boolean storeAtEndOfFile;
+        synchronized (this) {
+            for (MVMap<?, ?> m : changed) {
+                Page p = m.getRoot();
+                String key = MVMap.getMapRootKey(m.getId());
+                if (p.getTotalCount() == 0) {
+                    meta.put(key, "0");
+                } else {
+                    meta.put(key, Long.toHexString(p.getPos()));
+                }
+            }
+            meta.setWriteVersion(version);
 
-        int chunkLength = buff.position();
+            metaRoot = meta.getRoot();
+            metaRoot.writeUnsavedRecursive(c, buff);
+            // later changes of the metadata are stored in the next chunk
+            metaChanged = false;
 
-        // add the store header and round to the next block
-        int length = MathUtils.roundUpInt(chunkLength +
-                Chunk.FOOTER_LENGTH, BLOCK_SIZE);
-        buff.limit(length);
+            int chunkLength = buff.position();
 
-        // the length of the file that is still in use
-        // (not necessarily the end of the file)
-        long end = getFileLengthInUse();
-        long filePos;
-        if (reuseSpace) {
-            filePos = fileStore.allocate(length);
-        } else {
-            filePos = end;
-        }
-        // end is not necessarily the end of the file
-        boolean storeAtEndOfFile = filePos + length >= fileStore.size();
+            // add the store header and round to the next block
+            int length = MathUtils.roundUpInt(chunkLength +
+                    Chunk.FOOTER_LENGTH, BLOCK_SIZE);
+            buff.limit(length);
 
-        if (!reuseSpace) {
-            // we can not mark it earlier, because it
-            // might have been allocated by one of the
-            // removed chunks
-            fileStore.markUsed(end, length);
-        }
+            // the length of the file that is still in use
+            // (not necessarily the end of the file)
+            long end = getFileLengthInUse();
+            if (reuseSpace) {
+                filePos = fileStore.allocate(length);
+            } else {
+                filePos = end;
+            }
+            // end is not necessarily the end of the file
+            storeAtEndOfFile = filePos + length >= fileStore.size();
+
+            if (!reuseSpace) {
+                // we can not mark it earlier, because it
+                // might have been allocated by one of the
+                // removed chunks
+                fileStore.markUsed(end, length);
+            }
+
+            c.block = filePos / BLOCK_SIZE;
+            c.len = length / BLOCK_SIZE;
+            c.metaRootPos = metaRoot.getPos();
+            // calculate and set the likely next position
+            if (reuseSpace) {
+                int predictBlocks = c.len;
+                long predictedNextStart = fileStore.allocate(
+                        predictBlocks * BLOCK_SIZE);
+                fileStore.free(predictedNextStart, predictBlocks * BLOCK_SIZE);
+                c.next = predictedNextStart / BLOCK_SIZE;
+            } else {
+                // just after this chunk
+                c.next = 0;
+            }
+            buff.position(0);
+            c.writeChunkHeader(buff, headerLength);
+            revertTemp(storeVersion);
 
-        c.block = filePos / BLOCK_SIZE;
-        c.len = length / BLOCK_SIZE;
-        c.metaRootPos = metaRoot.getPos();
-        // calculate and set the likely next position
-        if (reuseSpace) {
-            int predictBlocks = c.len;
-            long predictedNextStart = fileStore.allocate(
-                    predictBlocks * BLOCK_SIZE);
-            fileStore.free(predictedNextStart, predictBlocks * BLOCK_SIZE);
-            c.next = predictedNextStart / BLOCK_SIZE;
-        } else {
-            // just after this chunk
-            c.next = 0;
+            buff.position(buff.limit() - Chunk.FOOTER_LENGTH);
+            buff.put(c.getFooterBytes());
         }
-        buff.position(0);
-        c.writeChunkHeader(buff, headerLength);
-        revertTemp(storeVersion);
-
-        buff.position(buff.limit() - Chunk.FOOTER_LENGTH);
-        buff.put(c.getFooterBytes());
 
         buff.position(0);
         write(filePos, buff.getBuffer());
         releaseWriteBuffer(buff);
 
-        // whether we need to write the store header
-        boolean writeStoreHeader = false;
-        if (!storeAtEndOfFile) {
-            if (lastChunk == null) {
-                writeStoreHeader = true;
-            } else if (lastChunk.next != c.block) {
-                // the last prediction did not matched
-                writeStoreHeader = true;
-            } else {
-                long headerVersion = DataUtils.readHexLong(
-                        storeHeader, "version", 0);
-                if (lastChunk.version - headerVersion > 20) {
-                    // we write after at least 20 entries
+        synchronized (this) {
+            // whether we need to write the store header
+            boolean writeStoreHeader = false;
+            if (!storeAtEndOfFile) {
+                if (lastChunk == null) {
+                    writeStoreHeader = true;
+                } else if (lastChunk.next != c.block) {
+                    // the last prediction did not matched
                     writeStoreHeader = true;
                 } else {
-                    int chunkId = DataUtils.readHexInt(storeHeader, "chunk", 0);
-                    while (true) {
-                        Chunk old = chunks.get(chunkId);
-                        if (old == null) {
-                            // one of the chunks in between
-                            // was removed
-                            writeStoreHeader = true;
-                            break;
-                        }
-                        if (chunkId == lastChunk.id) {
-                            break;
+                    long headerVersion = DataUtils.readHexLong(
+                            storeHeader, "version", 0);
+                    if (lastChunk.version - headerVersion > 20) {
+                        // we write after at least 20 entries
+                        writeStoreHeader = true;
+                    } else {
+                        int chunkId = DataUtils.readHexInt(
+                                storeHeader, "chunk", 0);
+                        while (true) {
+                            Chunk old = chunks.get(chunkId);
+                            if (old == null) {
+                                // one of the chunks in between
+                                // was removed
+                                writeStoreHeader = true;
+                                break;
+                            }
+                            if (chunkId == lastChunk.id) {
+                                break;
+                            }
+                            chunkId++;
                         }
-                        chunkId++;
                     }
                 }
             }
-        }
 
-        lastChunk = c;
-        if (writeStoreHeader) {
-            writeStoreHeader();
-        }
-        if (!storeAtEndOfFile) {
-            // may only shrink after the store header was written
-            shrinkFileIfPossible(1);
-        }
-        for (MVMap<?, ?> m : changed) {
-            Page p = m.getRoot();
-            if (p.getTotalCount() > 0) {
-                p.writeEnd();
+            lastChunk = c;
+            if (writeStoreHeader) {
+                writeStoreHeader();
             }
-        }
-        metaRoot.writeEnd();
+            if (!storeAtEndOfFile) {
+                // may only shrink after the store header was written
+                shrinkFileIfPossible(1);
+            }
+            for (MVMap<?, ?> m : changed) {
+                Page p = m.getRoot();
+                if (p.getTotalCount() > 0) {
+                    p.writeEnd();
+                }
+            }
+            metaRoot.writeEnd();
 
-        // some pages might have been changed in the meantime (in the newest
-        // version)
-        unsavedMemory = Math.max(0, unsavedMemory
-                - currentUnsavedPageCount);
+            // some pages might have been changed in the meantime (in the newest
+            // version)
+            unsavedMemory = Math.max(0, unsavedMemory
+                    - currentUnsavedPageCount);
 
-        metaChanged = false;
-        lastStoredVersion = storeVersion;
+            lastStoredVersion = storeVersion;
+        }
 
         return version;
     }
 
     private synchronized void freeUnusedChunks() {
+        waitForStore();
         if (lastChunk == null || !reuseSpace) {
             return;
         }
@@ -1453,6 +1633,95 @@ public class MVStore {
         return now;
     }
 
+    /**
+     * Serialize and compress the unsaved pages of the given maps using
+     * multiple threads. The pages are then written as usual, in the same
+     * order and format, but without compressing them again.
+     *
+     * @param changed the maps to store
+     */
+    private void prepareWrite(ArrayList<MVMap<?, ?>> changed) {
+        ArrayList<Page> pages = New.arrayList();
+        for (MVMap<?, ?> m : changed) {
+            Page p = m.getRoot();
+            if (p.getTotalCount() > 0) {
+                p.collectUnsavedRecursive(pages);
+            }
+        }
+        int threads = Math.min(compressThreads,
+                pages.size() / MIN_PAGES_PER_COMPRESS_THREAD);
+        if (threads <= 1) {
+            return;
+        }
+        ThreadPoolExecutor executor = getCompressExecutor();
+        ArrayList<Future<?>> tasks = New.arrayList();
+        int size = pages.size();
+        for (int i = 1; i < threads; i++) {
+            final List<Page> list = pages.subList(
+                    i * size / threads, (i + 1) * size / threads);
+            tasks.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    prepareWrite(list);
+                }
+            }));
+        }
+        prepareWrite(pages.subList(0, size / threads));
+        // all tasks need to be done before the pages are written
+        boolean interrupted = false;
+        Throwable failed = null;
+        for (Future<?> task : tasks) {
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    failed = e.getCause();
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failed != null) {
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_INTERNAL, "Compressing failed", failed);
+        }
+    }
+
+    private ThreadPoolExecutor getCompressExecutor() {
+        if (compressExecutor == null) {
+            final String name = "MVStore compress " + fileStore.toString();
+            int threads = compressThreads - 1;
+            compressExecutor = new ThreadPoolExecutor(threads, threads,
+                    10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private int id;
+                        @Override
+                        public synchronized Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, name + " " + id++);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            compressExecutor.allowCoreThreadTimeOut(true);
+        }
+        return compressExecutor;
+    }
+
+    private void prepareWrite(List<Page> pages) {
+        // compressors are not thread safe
+        Compressor compressor = compressionLevel == 1 ?
+                new CompressLZF() : new CompressDeflate();
+        WriteBuffer buff = new WriteBuffer();
+        for (Page p : pages) {
+            p.prepareWrite(buff, compressor);
+        }
+    }
+
     /**
      * Apply the freed space to the chunk metadata. The metadata is updated, but
      * completely free chunks are not removed from the set of chunks, and the
@@ -1578,6 +1847,7 @@ public class MVStore {
      */
     public synchronized boolean compactRewriteFully() {
         checkOpen();
+        waitForStore();
         if (lastChunk == null) {
             // nothing to do
             return false;
@@ -1625,6 +1895,7 @@ public class MVStore {
      */
     public synchronized boolean compactMoveChunks(int targetFillRate, long moveSize) {
         checkOpen();
+        waitForStore();
         if (lastChunk == null || !reuseSpace) {
             // nothing to do
             return false;
@@ -1752,6 +2023,85 @@ public class MVStore {
         shrinkFileIfPossible(0);
     }
 
+    /**
+     * Commit and store the changes made so far, together with the changes of
+     * other threads that commit at the same time (group commit). One of the
+     * threads stores the changes of all of them in one chunk, and then wakes
+     * up the others. Threads that arrive while a chunk is written wait and
+     * are stored together in the next chunk.
+     *
+     * @param sync whether the file also needs to be synced before returning
+     */
+    public void commitGroup(boolean sync) {
+        if (fileStore == null) {
+            commit();
+            return;
+        }
+        long request;
+        // the changes are stored even if the thread is interrupted, and the
+        // interrupted flag is set again afterwards (the file channel would
+        // be closed if it was set while writing)
+        boolean interrupted = false;
+        synchronized (groupCommitSync) {
+            request = ++groupCommitRequested;
+            if (sync) {
+                groupCommitSyncRequested = request;
+            }
+            while (groupCommitRunning) {
+                try {
+                    groupCommitSync.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                if (groupCommitDone >= request) {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return;
+                }
+            }
+            groupCommitRunning = true;
+        }
+        boolean success = false;
+        long done = 0;
+        try {
+            if (groupCommitDelay > 0 &&
+                    unsavedMemory < autoCommitMemory) {
+                // give other threads the chance to join
+                synchronized (groupCommitSync) {
+                    try {
+                        groupCommitSync.wait(groupCommitDelay);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            boolean needSync;
+            synchronized (groupCommitSync) {
+                // all changes of these requests were made before the
+                // following store operation starts
+                done = groupCommitRequested;
+                needSync = groupCommitSyncRequested > groupCommitDone;
+            }
+            commit();
+            if (needSync) {
+                sync();
+            }
+            success = true;
+        } finally {
+            synchronized (groupCommitSync) {
+                if (success) {
+                    groupCommitDone = done;
+                }
+                groupCommitRunning = false;
+                groupCommitSync.notifyAll();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     /**
      * Force all stored changes to be written to the storage. The default
      * implementation calls FileChannel.force(true).
@@ -1790,6 +2140,7 @@ public class MVStore {
             checkOpen();
             ArrayList<Chunk> old;
             synchronized (this) {
+                waitForStore();
                 old = compactGetOldChunks(targetFillRate, write);
             }
             if (old == null || old.size() == 0) {
@@ -1800,6 +2151,94 @@ public class MVStore {
         }
     }
 
+    /**
+     * Re-write a limited number of pages of partially full chunks, and store
+     * the changes. The chunks to compact are selected as in
+     * {@link #compact(int, int)}; the following calls continue with the
+     * remaining pages of the same chunks, until all of them are moved.
+     * <p>
+     * Unlike compact, each call only re-writes a few pages, so that other
+     * changes can be stored in between.
+     *
+     * @param targetFillRate the minimum percentage of live entries
+     * @param maxPages the maximum number of pages to re-write
+     * @return whether pages were re-written
+     */
+    public boolean compactStep(int targetFillRate, int maxPages) {
+        if (!reuseSpace) {
+            return false;
+        }
+        synchronized (compactSync) {
+            checkOpen();
+            if (compactChunks == null) {
+                ArrayList<Chunk> old;
+                synchronized (this) {
+                    waitForStore();
+                    old = compactGetOldChunks(targetFillRate, autoCommitMemory);
+                }
+                if (old == null || old.size() == 0) {
+                    return false;
+                }
+                compactChunks = New.hashSet();
+                for (Chunk c : old) {
+                    compactChunks.add(c.id);
+                }
+            }
+            int written = 0;
+            for (MVMap<?, ?> m : maps.values()) {
+                if (written >= maxPages) {
+                    break;
+                }
+                int count = m.rewrite(compactChunks, maxPages - written);
+                if (count < 0) {
+                    compactChunks = null;
+                    return false;
+                }
+                written += count;
+            }
+            if (written < maxPages) {
+                int count = meta.rewrite(compactChunks, maxPages - written);
+                if (count < 0) {
+                    compactChunks = null;
+                    return false;
+                }
+                written += count;
+            }
+            if (written == 0) {
+                // all pages of open maps were moved
+                compactChunks = null;
+                freeUnusedChunks();
+            }
+            commitAndSave();
+            return written > 0;
+        }
+    }
+
+    /**
+     * Compact in steps, writing at most the number of bytes allowed by the
+     * write rate since the last call.
+     *
+     * @param targetFillRate the minimum percentage of live entries
+     */
+    private void compactInBackground(int targetFillRate) {
+        long time = getTimeSinceCreation();
+        long maxBudget = autoCompactWriteRate * 1024L;
+        long budget = autoCompactBudget +
+                (time - autoCompactLastTime) * maxBudget / 1000;
+        budget = Math.min(budget, maxBudget);
+        autoCompactLastTime = time;
+        while (budget > 0 && !closed) {
+            long writeBytes = fileStore.getWriteBytes();
+            if (!compactStep(targetFillRate, COMPACT_PAGES_PER_STEP)) {
+                break;
+            }
+            // may become negative: the next calls then wait until
+            // the budget is available again
+            budget -= fileStore.getWriteBytes() - writeBytes;
+        }
+        autoCompactBudget = budget;
+    }
+
     private ArrayList<Chunk> compactGetOldChunks(int targetFillRate, int write) {
         if (lastChunk == null) {
             // nothing to do
@@ -1938,7 +2377,28 @@ public class MVStore {
                         "Negative position {0}", filePos);
             }
             long maxPos = (c.block + c.len) * BLOCK_SIZE;
-            p = Page.read(fileStore, pos, map, filePos, maxPos);
+            OffHeapPageCache offHeap = offHeapCache;
+            if (offHeap == null) {
+                p = Page.read(fileStore, pos, map, filePos, maxPos);
+            } else {
+                ByteBuffer buff = offHeap.get(pos, c.version);
+                if (buff != null) {
+                    p = Page.read(buff, pos, map);
+                } else {
+                    buff = Page.readData(fileStore, pos, filePos, maxPos);
+                    try {
+                        int pageLength = buff.getInt(buff.position());
+                        if (pageLength >= 4 && pageLength <= buff.remaining()) {
+                            ByteBuffer data = buff.duplicate();
+                            data.limit(data.position() + pageLength);
+                            offHeap.put(pos, c.version, data);
+                        }
+                        p = Page.read(buff, pos, map);
+                    } finally {
+                        fileStore.endRead();
+                    }
+                }
+            }
             cachePage(pos, p, p.getMemory());
         }
         return p;
@@ -2204,7 +2664,18 @@ public class MVStore {
             saveNeeded = false;
             // check again, because it could have been written by now
             if (unsavedMemory > autoCommitMemory && autoCommitMemory > 0) {
-                commitAndSave();
+                BackgroundWriterThread t = backgroundWriterThread;
+                if (t != null && unsavedMemory <= 2 * autoCommitMemory) {
+                    // let the background thread store the changes, so that
+                    // this write doesn't need to wait; new changes already
+                    // go to the next version
+                    synchronized (t.sync) {
+                        t.sync.notifyAll();
+                    }
+                } else {
+                    // no background thread, or it can not keep up
+                    commitAndSave();
+                }
             }
         }
     }
@@ -2229,6 +2700,7 @@ public class MVStore {
      */
     public synchronized void setStoreVersion(int version) {
         checkOpen();
+        waitForStore();
         markMetaChanged();
         meta.put("setting.storeVersion", Integer.toHexString(version));
     }
@@ -2251,6 +2723,7 @@ public class MVStore {
      */
     public synchronized void rollbackTo(long version) {
         checkOpen();
+        waitForStore();
         if (version == 0) {
             // special case: remove all data
             for (MVMap<?, ?> m : maps.values()) {
@@ -2408,6 +2881,7 @@ public class MVStore {
      */
     public synchronized void renameMap(MVMap<?, ?> map, String newName) {
         checkOpen();
+        waitForStore();
         DataUtils.checkArgument(map != meta,
                 "Renaming the meta map is not allowed");
         int id = map.getId();
@@ -2433,6 +2907,7 @@ public class MVStore {
      */
     public synchronized void removeMap(MVMap<?, ?> map) {
         checkOpen();
+        waitForStore();
         DataUtils.checkArgument(map != meta,
                 "Removing the meta map is not allowed");
         map.clear();
@@ -2466,21 +2941,17 @@ public class MVStore {
             return;
         }
 
-        // could also commit when there are many unsaved pages,
-        // but according to a test it doesn't really help
-
         long time = getTimeSinceCreation();
         if (time <= lastCommitTime + autoCommitDelay) {
+            if (unsavedMemory > autoCommitMemory && autoCommitMemory > 0) {
+                // woken up by a writer (see beforeWrite)
+                commitInBackground();
+            }
             return;
         }
         if (hasUnsavedChanges()) {
-            try {
-                commitAndSave();
-            } catch (Exception e) {
-                if (backgroundExceptionHandler != null) {
-                    backgroundExceptionHandler.uncaughtException(null, e);
-                    return;
-                }
+            if (!commitInBackground()) {
+                return;
             }
         }
         if (autoCompactFillRate > 0) {
@@ -2498,7 +2969,11 @@ public class MVStore {
                 int fillRate = fileOps ? autoCompactFillRate / 3 : autoCompactFillRate;
                 // TODO how to avoid endless compaction if there is a bug
                 // in the bookkeeping?
-                compact(fillRate, autoCommitMemory);
+                if (autoCompactWriteRate > 0) {
+                    compactInBackground(fillRate);
+                } else {
+                    compact(fillRate, autoCommitMemory);
+                }
                 autoCompactLastFileOpCount = fileStore.getWriteCount() + fileStore.getReadCount();
             } catch (Exception e) {
                 if (backgroundExceptionHandler != null) {
@@ -2508,6 +2983,18 @@ public class MVStore {
         }
     }
 
+    private boolean commitInBackground() {
+        try {
+            commitAndSave();
+        } catch (Exception e) {
+            if (backgroundExceptionHandler != null) {
+                backgroundExceptionHandler.uncaughtException(null, e);
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Set the read cache size in MB.
      *
@@ -2657,6 +3144,15 @@ public class MVStore {
         return cache;
     }
 
+    /**
+     * Get the off-heap cache of serialized pages.
+     *
+     * @return the cache, or null if disabled
+     */
+    public OffHeapPageCache getOffHeapCache() {
+        return offHeapCache;
+    }
+
     /**
      * A background writer thread to automatically store changes from time to
      * time.
@@ -2756,6 +3252,37 @@ public class MVStore {
             return set("autoCompactFillRate", percent);
         }
 
+        /**
+         * Set the maximum rate, in KB per second, at which the background
+         * thread re-writes data when compacting. If set, chunks are compacted
+         * incrementally: only a few pages are re-written at a time, and other
+         * changes can be stored in between, so that writers are not blocked
+         * for the duration of the compaction.
+         * <p>
+         * The default value is 0, which means chunks are compacted in one
+         * operation.
+         *
+         * @param kb the maximum write rate, in KB per second
+         * @return this
+         */
+        public Builder autoCompactWriteRate(int kb) {
+            return set("autoCompactWriteRate", kb);
+        }
+
+        /**
+         * Set the time in milliseconds a group commit (see
+         * {@link MVStore#commitGroup(boolean)}) waits for other threads to
+         * join before the changes are stored. The default is 0: changes are
+         * stored immediately, and only threads that arrive while a store
+         * operation is running are grouped.
+         *
+         * @param millis the delay in milliseconds
+         * @return this
+         */
+        public Builder groupCommitDelay(int millis) {
+            return set("groupCommitDelay", millis);
+        }
+
         /**
          * Use the following file name. If the file does not exist, it is
          * automatically created. The parent directory already must exist.
@@ -2808,6 +3335,31 @@ public class MVStore {
             return set("cacheSize", mb);
         }
 
+        /**
+         * Set the read cache concurrency, that is the number of segments of
+         * the cache. Each segment is synchronized separately. The default
+         * depends on the number of processors.
+         *
+         * @param concurrency the number of segments (a power of 2)
+         * @return this
+         */
+        public Builder cacheConcurrency(int concurrency) {
+            return set("cacheConcurrency", concurrency);
+        }
+
+        /**
+         * Set the size of the off-heap cache in MB. This cache keeps the
+         * serialized pages that were read from the file outside of the Java
+         * heap, so that pages evicted from the read cache don't need to be
+         * read from the file again. The default is 0 (disabled).
+         *
+         * @param mb the cache size in megabytes
+         * @return this
+         */
+        public Builder offHeapCacheSize(int mb) {
+            return set("offHeapCacheSize", mb);
+        }
+
         /**
          * Compress data before writing using the LZF algorithm. This will save
          * about 50% of the disk space, but will slow down read and write
@@ -2838,6 +3390,18 @@ public class MVStore {
             return set("compress", 2);
         }
 
+        /**
+         * Set the number of threads used to compress the pages of a chunk,
+         * if compression is enabled. The default is the number of
+         * processors. If set to 1, the pages are compressed while writing.
+         *
+         * @param threads the number of threads
+         * @return this
+         */
+        public Builder compressThreads(int threads) {
+            return set("compressThreads", threads);
+        }
+
         /**
          * Set the amount of memory a page should contain at most, in bytes,
          * before it is split. The default is 16 KB for persistent stores and 4
@@ -2881,6 +3445,18 @@ public class MVStore {
             return set("fileStore", store);
         }
 
+        /**
+         * Read from the file using memory mapped segments (see
+         * MappedFileStore). This avoids a system call and a copy for each
+         * page that is read from the file. By default, the file channel is
+         * used. This setting has no effect if a file store is provided.
+         *
+         * @return this
+         */
+        public Builder memoryMapped() {
+            return set("memoryMapped", 1);
+        }
+
         /**
          * Open the store.
          *
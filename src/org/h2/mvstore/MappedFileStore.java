@@ -0,0 +1,287 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.h2.store.fs.FilePath;
+import org.h2.store.fs.FilePathDisk;
+import org.h2.store.fs.FilePathWrapper;
+import org.h2.util.New;
+
+/**
+ * A file store that reads pages from memory mapped segments of the file.
+ * Writes use the file channel as usual; page reads of data that is already
+ * written return a slice of the mapped segment, without a system call and
+ * without copying.
+ * <p>
+ * The file is mapped read-only, in segments of 64 MB. A segment is re-mapped
+ * when the file grew and a read needs the new part. The slices are only used
+ * between beginRead and endRead, so that mappings can be unmapped explicitly
+ * once no read is in progress: a replaced mapping as soon as possible, and
+ * the segments beyond the new end before the file is truncated (for example
+ * after compacting). If mappings can not be unmapped explicitly on this
+ * platform, and for encrypted files and file systems other than the disk,
+ * the file is read using the file channel.
+ */
+public class MappedFileStore extends FileStore {
+
+    private static final int SEGMENT_SHIFT = 26;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+    /**
+     * The object and method used to unmap a buffer (sun.misc.Unsafe and
+     * invokeCleaner on Java 9 and newer, or null and the method
+     * DirectBuffer.cleaner before), or null if this is not possible.
+     */
+    private static final Object UNMAP_TARGET;
+    private static final Method UNMAP;
+
+    static {
+        Object target = null;
+        Method unmap = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            target = f.get(null);
+            unmap = c.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Throwable e) {
+            try {
+                target = null;
+                unmap = Class.forName("sun.nio.ch.DirectBuffer").
+                        getMethod("cleaner");
+                Class.forName("sun.misc.Cleaner").getMethod("clean");
+            } catch (Throwable e2) {
+                unmap = null;
+            }
+        }
+        UNMAP_TARGET = target;
+        UNMAP = unmap;
+    }
+
+    /**
+     * The channel used for mapping, or null if mapping is not supported.
+     */
+    private FileChannel mapFile;
+
+    /**
+     * The read lock is held while a slice of a mapping is in use, the write
+     * lock while mappings are unmapped.
+     */
+    private final ReentrantReadWriteLock mapLock = new ReentrantReadWriteLock();
+
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /**
+     * The mappings that were replaced, but may still be in use.
+     */
+    private final ArrayList<MappedByteBuffer> replaced = New.arrayList();
+
+    @Override
+    public void open(String fileName, boolean readOnly, char[] encryptionKey) {
+        if (file != null) {
+            return;
+        }
+        super.open(fileName, readOnly, encryptionKey);
+        if (encryptedFile != null || UNMAP == null) {
+            return;
+        }
+        FilePath p = FilePath.get(this.fileName);
+        if (p instanceof FilePathWrapper) {
+            p = ((FilePathWrapper) p).unwrap();
+        }
+        if (!(p instanceof FilePathDisk)) {
+            return;
+        }
+        try {
+            mapFile = new RandomAccessFile(p.toString(), "r").getChannel();
+        } catch (IOException e) {
+            super.close();
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_READING_FAILED,
+                    "Could not open file {0}", fileName, e);
+        }
+    }
+
+    @Override
+    public ByteBuffer beginRead(long pos, int len) {
+        if (hasReplaced() && mapLock.writeLock().tryLock()) {
+            try {
+                unmapReplaced();
+            } finally {
+                mapLock.writeLock().unlock();
+            }
+        }
+        mapLock.readLock().lock();
+        boolean success = false;
+        try {
+            ByteBuffer buff = null;
+            int offset = (int) (pos & (SEGMENT_SIZE - 1));
+            // reads that cross a segment boundary use the file channel
+            if (mapFile != null && offset + len <= SEGMENT_SIZE) {
+                ByteBuffer segment = getSegment(
+                        (int) (pos >>> SEGMENT_SHIFT), offset + len);
+                if (segment != null) {
+                    readCount++;
+                    readBytes += len;
+                    ByteBuffer read = segment.duplicate();
+                    read.position(offset);
+                    read.limit(offset + len);
+                    buff = read.slice();
+                }
+            }
+            if (buff == null) {
+                buff = readFully(pos, len);
+            }
+            success = true;
+            return buff;
+        } finally {
+            if (!success) {
+                mapLock.readLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void endRead() {
+        mapLock.readLock().unlock();
+    }
+
+    /**
+     * Get the mapped segment, and map (or re-map) it if needed.
+     *
+     * @param index the segment index
+     * @param length the number of bytes of the segment that are needed
+     * @return the segment, or null if the file is not that large
+     */
+    private synchronized ByteBuffer getSegment(int index, int length) {
+        if (index >= segments.length) {
+            MappedByteBuffer[] s = new MappedByteBuffer[index + 1];
+            System.arraycopy(segments, 0, s, 0, segments.length);
+            segments = s;
+        }
+        MappedByteBuffer m = segments[index];
+        if (m != null && m.capacity() >= length) {
+            return m;
+        }
+        long start = (long) index << SEGMENT_SHIFT;
+        try {
+            // the cached file size may already include a write
+            // that is still in progress
+            long size = Math.min(SEGMENT_SIZE, mapFile.size() - start);
+            if (size < length) {
+                return null;
+            }
+            if (segments[index] != null) {
+                // other threads may still read from it
+                replaced.add(segments[index]);
+            }
+            m = mapFile.map(MapMode.READ_ONLY, start, size);
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_READING_FAILED,
+                    "Could not map file {0} at {1}", fileName, start, e);
+        }
+        segments[index] = m;
+        return m;
+    }
+
+    private synchronized boolean hasReplaced() {
+        return !replaced.isEmpty();
+    }
+
+    /**
+     * Unmap the replaced mappings. The caller must hold the write lock.
+     */
+    private synchronized void unmapReplaced() {
+        for (MappedByteBuffer m : replaced) {
+            unmap(m);
+        }
+        replaced.clear();
+    }
+
+    @Override
+    public void truncate(long size) {
+        // wait until no slice of a mapping is in use; a file with mapped
+        // regions beyond the new end can not be truncated on some systems,
+        // and reading such a region fails on others
+        mapLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                unmapReplaced();
+                for (int i = 0; i < segments.length; i++) {
+                    MappedByteBuffer m = segments[i];
+                    if (m != null && ((long) i << SEGMENT_SHIFT) +
+                            m.capacity() > size) {
+                        segments[i] = null;
+                        unmap(m);
+                    }
+                }
+            }
+            super.truncate(size);
+        } finally {
+            mapLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Unmap the buffer. It must no longer be used.
+     *
+     * @param m the buffer
+     */
+    private void unmap(MappedByteBuffer m) {
+        try {
+            if (UNMAP_TARGET != null) {
+                UNMAP.invoke(UNMAP_TARGET, m);
+            } else {
+                Object cleaner = UNMAP.invoke(m);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_WRITING_FAILED,
+                    "Could not unmap file {0}", fileName, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        mapLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                unmapReplaced();
+                for (MappedByteBuffer m : segments) {
+                    if (m != null) {
+                        unmap(m);
+                    }
+                }
+                segments = new MappedByteBuffer[0];
+            }
+            if (mapFile != null) {
+                mapFile.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        } finally {
+            mapFile = null;
+            mapLock.writeLock().unlock();
+        }
+        super.close();
+    }
+
+}
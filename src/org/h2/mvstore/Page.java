@@ -6,11 +6,13 @@
 package org.h2.mvstore;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 
 import org.h2.compress.Compressor;
 import org.h2.mvstore.type.DataType;
+import org.h2.mvstore.type.LongDataType;
 import org.h2.util.New;
 
 /**
@@ -57,12 +59,17 @@ public class Page {
     private int memory;
 
     /**
-     * The keys.
+     * The keys, or null if the key type is a LongDataType.
      * <p>
      * The array might be larger than needed, to avoid frequent re-sizing.
      */
     private Object[] keys;
 
+    /**
+     * The keys if the key type is a LongDataType, or null.
+     */
+    private long[] longKeys;
+
     /**
      * The values.
      * <p>
@@ -85,6 +92,17 @@ public class Page {
      */
     private volatile boolean removedInMemory;
 
+    /**
+     * The serialized (and possibly compressed) keys and values, if they were
+     * prepared before writing, or null.
+     */
+    private byte[] preparedData;
+
+    /**
+     * The compression type of the prepared data.
+     */
+    private int preparedCompressType;
+
     Page(MVMap<?, ?> map, long version) {
         this.map = map;
         this.version = version;
@@ -119,9 +137,38 @@ public class Page {
     public static Page create(MVMap<?, ?> map, long version,
             Object[] keys, Object[] values, PageReference[] children,
             long totalCount, int memory) {
+        Object keyArray = keys;
+        DataType keyType = map.getKeyType();
+        if (keyType instanceof LongDataType) {
+            LongDataType longType = (LongDataType) keyType;
+            long[] k = new long[keys.length];
+            for (int i = 0; i < k.length; i++) {
+                k[i] = longType.toLong(keys[i]);
+            }
+            keyArray = k;
+        }
+        return createPage(map, version, keyArray, values, children,
+                totalCount, memory);
+    }
+
+    /**
+     * Create a new page. The arrays are not cloned.
+     *
+     * @param map the map
+     * @param version the version
+     * @param keyArray the keys (an Object[] or a long[])
+     * @param values the values
+     * @param children the child page positions
+     * @param totalCount the total number of keys
+     * @param memory the memory used in bytes
+     * @return the page
+     */
+    private static Page createPage(MVMap<?, ?> map, long version,
+            Object keyArray, Object[] values, PageReference[] children,
+            long totalCount, int memory) {
         Page p = new Page(map, version);
         // the position is 0
-        p.keys = keys;
+        p.setKeyArray(keyArray);
         p.values = values;
         p.children = children;
         p.totalCount = totalCount;
@@ -149,6 +196,7 @@ public class Page {
         Page p = new Page(map, version);
         // the position is 0
         p.keys = source.keys;
+        p.longKeys = source.longKeys;
         p.values = source.values;
         p.children = source.children;
         p.totalCount = source.totalCount;
@@ -172,6 +220,27 @@ public class Page {
      */
     static Page read(FileStore fileStore, long pos, MVMap<?, ?> map,
             long filePos, long maxPos) {
+        ByteBuffer buff = readData(fileStore, pos, filePos, maxPos);
+        try {
+            return read(buff, pos, map);
+        } finally {
+            fileStore.endRead();
+        }
+    }
+
+    /**
+     * Read the serialized page from the file. The returned buffer may contain
+     * more bytes than the page. FileStore.endRead must be called when the
+     * buffer is no longer used.
+     *
+     * @param fileStore the file store
+     * @param pos the position
+     * @param filePos the position in the file
+     * @param maxPos the maximum position (the end of the chunk)
+     * @return the buffer
+     */
+    static ByteBuffer readData(FileStore fileStore, long pos, long filePos,
+            long maxPos) {
         ByteBuffer buff;
         int maxLength = DataUtils.getPageMaxLength(pos);
         if (maxLength == DataUtils.PAGE_LARGE) {
@@ -187,12 +256,23 @@ public class Page {
                     "Illegal page length {0} reading at {1}; max pos {2} ",
                     length, filePos, maxPos);
         }
-        buff = fileStore.readFully(filePos, length);
+        return fileStore.beginRead(filePos, length);
+    }
+
+    /**
+     * Read a page from the serialized data.
+     *
+     * @param buff the buffer (starting with the page)
+     * @param pos the position
+     * @param map the map
+     * @return the page
+     */
+    static Page read(ByteBuffer buff, long pos, MVMap<?, ?> map) {
         Page p = new Page(map, 0);
         p.pos = pos;
         int chunkId = DataUtils.getPageChunkId(pos);
         int offset = DataUtils.getPageOffset(pos);
-        p.read(buff, chunkId, offset, maxLength);
+        p.read(buff, chunkId, offset, buff.remaining());
         return p;
     }
 
@@ -203,9 +283,37 @@ public class Page {
      * @return the key
      */
     public Object getKey(int index) {
+        if (longKeys != null) {
+            return getLongKeyType().fromLong(longKeys[index]);
+        }
         return keys[index];
     }
 
+    private LongDataType getLongKeyType() {
+        return (LongDataType) map.getKeyType();
+    }
+
+    /**
+     * Get the key array.
+     *
+     * @return the keys (an Object[] or a long[])
+     */
+    private Object getKeyArray() {
+        return longKeys != null ? longKeys : keys;
+    }
+
+    private void setKeyArray(Object keyArray) {
+        if (keyArray instanceof long[]) {
+            longKeys = (long[]) keyArray;
+        } else {
+            keys = (Object[]) keyArray;
+        }
+    }
+
+    private Object newKeyArray(int len) {
+        return longKeys != null ? new long[len] : new Object[len];
+    }
+
     /**
      * Get the child page at the given index.
      *
@@ -243,7 +351,7 @@ public class Page {
      * @return the number of keys
      */
     public int getKeyCount() {
-        return keys.length;
+        return longKeys != null ? longKeys.length : keys.length;
     }
 
     /**
@@ -274,15 +382,16 @@ public class Page {
             int chunkId = DataUtils.getPageChunkId(pos);
             buff.append("chunk: ").append(Long.toHexString(chunkId)).append("\n");
         }
-        for (int i = 0; i <= keys.length; i++) {
+        int len = getKeyCount();
+        for (int i = 0; i <= len; i++) {
             if (i > 0) {
                 buff.append(" ");
             }
             if (children != null) {
                 buff.append("[" + Long.toHexString(children[i].pos) + "] ");
             }
-            if (i < keys.length) {
-                buff.append(keys[i]);
+            if (i < len) {
+                buff.append(getKey(i));
                 if (values != null) {
                     buff.append(':');
                     buff.append(values[i]);
@@ -299,8 +408,8 @@ public class Page {
      * @return a page with the given version
      */
     public Page copy(long version) {
-        Page newPage = create(map, version,
-                keys, values,
+        Page newPage = createPage(map, version,
+                getKeyArray(), values,
                 children, totalCount,
                 getMemory());
         // mark the old as deleted
@@ -321,6 +430,9 @@ public class Page {
      * @return the value or null
      */
     public int binarySearch(Object key) {
+        if (longKeys != null) {
+            return binarySearch(getLongKeyType().toLong(key));
+        }
         int low = 0, high = keys.length - 1;
         // the cached index minus one, so that
         // for the first time (when cachedCompare is 0),
@@ -361,6 +473,29 @@ public class Page {
         // return -(low + 1);
     }
 
+    private int binarySearch(long key) {
+        int low = 0, high = longKeys.length - 1;
+        int x = cachedCompare - 1;
+        if (x < 0 || x > high) {
+            x = high >>> 1;
+        }
+        long[] k = longKeys;
+        while (low <= high) {
+            long y = k[x];
+            if (key > y) {
+                low = x + 1;
+            } else if (key < y) {
+                high = x - 1;
+            } else {
+                cachedCompare = x + 1;
+                return x;
+            }
+            x = (low + high) >>> 1;
+        }
+        cachedCompare = low;
+        return -(low + 1);
+    }
+
     /**
      * Split the page. This modifies the current page.
      *
@@ -372,12 +507,12 @@ public class Page {
     }
 
     private Page splitLeaf(int at) { //小于split key的放在左边，大于等于split key放在右边
-        int a = at, b = keys.length - a;
-        Object[] aKeys = new Object[a];
-        Object[] bKeys = new Object[b];
-        System.arraycopy(keys, 0, aKeys, 0, a);
-        System.arraycopy(keys, a, bKeys, 0, b);
-        keys = aKeys;
+        int a = at, b = getKeyCount() - a;
+        Object aKeys = newKeyArray(a);
+        Object bKeys = newKeyArray(b);
+        System.arraycopy(getKeyArray(), 0, aKeys, 0, a);
+        System.arraycopy(getKeyArray(), a, bKeys, 0, b);
+        setKeyArray(aKeys);
         Object[] aValues = new Object[a];
         Object[] bValues = new Object[b];
         bValues = new Object[b];
@@ -385,23 +520,23 @@ public class Page {
         System.arraycopy(values, a, bValues, 0, b);
         values = aValues;
         totalCount = a;
-        Page newPage = create(map, version,
+        Page newPage = createPage(map, version,
                 bKeys, bValues,
                 null,
-                bKeys.length, 0);
+                b, 0);
         recalculateMemory();
         //newPage.recalculateMemory(); //create中已经计算过一次了，这里是多于的
         return newPage;
     }
 
     private Page splitNode(int at) {
-        int a = at, b = keys.length - a;
+        int a = at, b = getKeyCount() - a;
 
-        Object[] aKeys = new Object[a];
-        Object[] bKeys = new Object[b - 1];
-        System.arraycopy(keys, 0, aKeys, 0, a);
-        System.arraycopy(keys, a + 1, bKeys, 0, b - 1);
-        keys = aKeys;
+        Object aKeys = newKeyArray(a);
+        Object bKeys = newKeyArray(b - 1);
+        System.arraycopy(getKeyArray(), 0, aKeys, 0, a);
+        System.arraycopy(getKeyArray(), a + 1, bKeys, 0, b - 1);
+        setKeyArray(aKeys);
 
         PageReference[] aChildren = new PageReference[a + 1];
         PageReference[] bChildren = new PageReference[b];
@@ -418,7 +553,7 @@ public class Page {
         for (PageReference x : bChildren) {
             t += x.count;
         }
-        Page newPage = create(map, version,
+        Page newPage = createPage(map, version,
                 bKeys, null,
                 bChildren,
                 t, 0);
@@ -436,7 +571,7 @@ public class Page {
         if (MVStore.ASSERT) {
             long check = 0;
             if (isLeaf()) {
-                check = keys.length;
+                check = getKeyCount();
             } else {
                 for (PageReference x : children) {
                     check += x.count;
@@ -495,6 +630,11 @@ public class Page {
      * @param key the new key
      */
     public void setKey(int index, Object key) {
+        if (longKeys != null) {
+            longKeys = longKeys.clone();
+            longKeys[index] = getLongKeyType().toLong(key);
+            return;
+        }
         // this is slightly slower:
         // keys = Arrays.copyOf(keys, keys.length);
         keys = keys.clone();
@@ -560,14 +700,14 @@ public class Page {
      * @param value the value
      */
     public void insertLeaf(int index, Object key, Object value) {
-        int len = keys.length + 1;
-        Object[] newKeys = new Object[len];
-        DataUtils.copyWithGap(keys, newKeys, len - 1, index);
-        keys = newKeys;
+        int len = getKeyCount() + 1;
+        Object newKeys = newKeyArray(len);
+        DataUtils.copyWithGap(getKeyArray(), newKeys, len - 1, index);
+        setKeyArray(newKeys);
         Object[] newValues = new Object[len];
         DataUtils.copyWithGap(values, newValues, len - 1, index);
         values = newValues;
-        keys[index] = key;
+        setNewKey(index, key);
         values[index] = value;
         totalCount++;
         addMemory(map.getKeyType().getMemory(key) +
@@ -583,10 +723,11 @@ public class Page {
      */
     public void insertNode(int index, Object key, Page childPage) {
 
-        Object[] newKeys = new Object[keys.length + 1];
-        DataUtils.copyWithGap(keys, newKeys, keys.length, index);
-        newKeys[index] = key;
-        keys = newKeys;
+        int keyCount = getKeyCount();
+        Object newKeys = newKeyArray(keyCount + 1);
+        DataUtils.copyWithGap(getKeyArray(), newKeys, keyCount, index);
+        setKeyArray(newKeys);
+        setNewKey(index, key);
 
         int childCount = children.length;
         PageReference[] newChildren = new PageReference[childCount + 1];
@@ -600,19 +741,38 @@ public class Page {
                 DataUtils.PAGE_MEMORY_CHILD);
     }
 
+    /**
+     * Set the key in a new key array (without adjusting the memory).
+     *
+     * @param index the index
+     * @param key the key
+     */
+    private void setNewKey(int index, Object key) {
+        if (longKeys != null) {
+            longKeys[index] = getLongKeyType().toLong(key);
+        } else {
+            keys[index] = key;
+        }
+    }
+
     /**
      * Remove the key and value (or child) at the given index.
      *
      * @param index the index
      */
     public void remove(int index) {
-        int keyLength = keys.length;
+        int keyLength = getKeyCount();
         int keyIndex = index >= keyLength ? index - 1 : index;
-        Object old = keys[keyIndex];
-        addMemory(-map.getKeyType().getMemory(old));
-        Object[] newKeys = new Object[keyLength - 1];
-        DataUtils.copyExcept(keys, newKeys, keyLength, keyIndex);
-        keys = newKeys;
+        Object old;
+        if (longKeys != null) {
+            addMemory(-LongDataType.KEY_MEMORY);
+        } else {
+            old = keys[keyIndex];
+            addMemory(-map.getKeyType().getMemory(old));
+        }
+        Object newKeys = newKeyArray(keyLength - 1);
+        DataUtils.copyExcept(getKeyArray(), newKeys, keyLength, keyIndex);
+        setKeyArray(newKeys);
 
         if (values != null) {
             old = values[index];
@@ -671,7 +831,12 @@ public class Page {
                     chunkId, checkTest, check);
         }
         int len = DataUtils.readVarInt(buff);
-        keys = new Object[len];
+        DataType keyType = map.getKeyType();
+        if (keyType instanceof LongDataType) {
+            longKeys = new long[len];
+        } else {
+            keys = new Object[len];
+        }
         int type = buff.get();
         boolean node = (type & 1) == DataUtils.PAGE_TYPE_NODE;
         if (node) {
@@ -706,7 +871,11 @@ public class Page {
             compressor.expand(comp, 0, compLen, buff.array(),
                     buff.arrayOffset(), l);
         }
-        map.getKeyType().read(buff, keys, len, true);
+        if (longKeys != null) {
+            ((LongDataType) keyType).read(buff, longKeys, len);
+        } else {
+            keyType.read(buff, keys, len, true);
+        }
         if (!node) {
             values = new Object[len];
             map.getValueType().read(buff, values, len, false);
@@ -724,7 +893,7 @@ public class Page {
      */
     private int write(Chunk chunk, WriteBuffer buff) {
         int start = buff.position();
-        int len = keys.length;
+        int len = getKeyCount();
         int type = children != null ? DataUtils.PAGE_TYPE_NODE
                 : DataUtils.PAGE_TYPE_LEAF;
         buff.putInt(0).
@@ -739,39 +908,27 @@ public class Page {
                 buff.putVarLong(children[i].count);
             }
         }
-        int compressStart = buff.position();
-        map.getKeyType().write(buff, keys, len, true);
-        if (type == DataUtils.PAGE_TYPE_LEAF) {
-            map.getValueType().write(buff, values, len, false);
-        }
         MVStore store = map.getStore();
-        int expLen = buff.position() - compressStart;
-        if (expLen > 16) {
+        int compressType;
+        if (preparedData != null) {
+            buff.put(preparedData);
+            compressType = preparedCompressType;
+            preparedData = null;
+        } else {
             int compressionLevel = store.getCompressionLevel();
-            if (compressionLevel > 0) {
-                Compressor compressor;
-                int compressType;
-                if (compressionLevel == 1) {
-                    compressor = map.getStore().getCompressorFast();
-                    compressType = DataUtils.PAGE_COMPRESSED;
-                } else {
-                    compressor = map.getStore().getCompressorHigh();
-                    compressType = DataUtils.PAGE_COMPRESSED_HIGH;
-                }
-                byte[] exp = new byte[expLen];
-                buff.position(compressStart).get(exp);
-                //如果是node，只压缩keys，有可能未压缩时的长度就很小，压缩后反而变长，此时就先申请更大的空间先
-                byte[] comp = new byte[expLen * 2];
-                int compLen = compressor.compress(exp, expLen, comp, 0);
-                int plus = DataUtils.getVarIntLen(compLen - expLen);
-                if (compLen + plus < expLen) {
-                    buff.position(typePos).
-                        put((byte) (type + compressType));
-                    buff.position(compressStart).
-                        putVarInt(expLen - compLen).
-                        put(comp, 0, compLen);
-                }
+            Compressor compressor = null;
+            if (compressionLevel == 1) {
+                compressor = store.getCompressorFast();
+            } else if (compressionLevel > 1) {
+                compressor = store.getCompressorHigh();
             }
+            compressType = writeData(buff, compressor);
+        }
+        if (compressType != 0) {
+            int end = buff.position();
+            buff.position(typePos).
+                put((byte) (type + compressType));
+            buff.position(end);
         }
         int pageLength = buff.position() - start;
         int chunkId = chunk.id;
@@ -805,8 +962,84 @@ public class Page {
         return typePos + 1;
     }
 
+    /**
+     * Write the keys (and values, for leaves), and compress them if possible.
+     *
+     * @param buff the target buffer
+     * @param compressor the compressor, or null
+     * @return the compression type, or 0 if not compressed
+     */
+    private int writeData(WriteBuffer buff, Compressor compressor) {
+        int compressStart = buff.position();
+        int len = getKeyCount();
+        if (longKeys != null) {
+            getLongKeyType().write(buff, longKeys, len);
+        } else {
+            map.getKeyType().write(buff, keys, len, true);
+        }
+        if (children == null) {
+            map.getValueType().write(buff, values, len, false);
+        }
+        int expLen = buff.position() - compressStart;
+        if (expLen > 16 && compressor != null) {
+            byte[] exp = new byte[expLen];
+            buff.position(compressStart).get(exp);
+            //如果是node，只压缩keys，有可能未压缩时的长度就很小，压缩后反而变长，此时就先申请更大的空间先
+            byte[] comp = new byte[expLen * 2];
+            int compLen = compressor.compress(exp, expLen, comp, 0);
+            int plus = DataUtils.getVarIntLen(compLen - expLen);
+            if (compLen + plus < expLen) {
+                buff.position(compressStart).
+                    putVarInt(expLen - compLen).
+                    put(comp, 0, compLen);
+                return compressor.getAlgorithm() == Compressor.LZF ?
+                        DataUtils.PAGE_COMPRESSED :
+                        DataUtils.PAGE_COMPRESSED_HIGH;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Serialize and compress the keys and values, so that this doesn't need
+     * to be done when the page is written. This method may be called
+     * concurrently for different pages.
+     *
+     * @param buff the buffer to use
+     * @param compressor the compressor
+     */
+    void prepareWrite(WriteBuffer buff, Compressor compressor) {
+        buff.clear();
+        int compressType = writeData(buff, compressor);
+        byte[] data = new byte[buff.position()];
+        buff.position(0).get(data);
+        preparedCompressType = compressType;
+        preparedData = data;
+    }
+
+    /**
+     * Collect this page and all child pages that were not stored yet, in the
+     * order they are written.
+     *
+     * @param list the target list
+     */
+    void collectUnsavedRecursive(ArrayList<Page> list) {
+        if (pos != 0) {
+            return;
+        }
+        list.add(this);
+        if (children != null) {
+            for (PageReference ref : children) {
+                Page p = ref.page;
+                if (p != null) {
+                    p.collectUnsavedRecursive(list);
+                }
+            }
+        }
+    }
+
     private void writeChildren(WriteBuffer buff) {
-        int len = keys.length;
+        int len = getKeyCount();
         for (int i = 0; i <= len; i++) {
             buff.putLong(children[i].pos);
         }
@@ -907,13 +1140,18 @@ public class Page {
 
     private void recalculateMemory() {
         int mem = DataUtils.PAGE_MEMORY;
-        DataType keyType = map.getKeyType();
-        for (int i = 0; i < keys.length; i++) {
-            mem += keyType.getMemory(keys[i]);
+        int len = getKeyCount();
+        if (longKeys != null) {
+            mem += len * LongDataType.KEY_MEMORY;
+        } else {
+            DataType keyType = map.getKeyType();
+            for (int i = 0; i < len; i++) {
+                mem += keyType.getMemory(keys[i]);
+            }
         }
         if (this.isLeaf()) {
             DataType valueType = map.getValueType();
-            for (int i = 0; i < keys.length; i++) {
+            for (int i = 0; i < len; i++) {
                 mem += valueType.getMemory(values[i]);
             }
         } else {
@@ -930,6 +1168,9 @@ public class Page {
      * Remove the page.
      */
     public void removePage() {
+        if (map.deferPageRemoval(this)) {
+            return;
+        }
         long p = pos;
         if (p == 0) {
             removedInMemory = true;
@@ -1042,7 +1283,16 @@ public class Page {
                         "Illegal page length {0} reading at {1}; max pos {2} ",
                         length, filePos, maxPos);
             }
-            buff = fileStore.readFully(filePos, length);
+            buff = fileStore.beginRead(filePos, length);
+            try {
+                return read(buff, pos, mapId, maxLength);
+            } finally {
+                fileStore.endRead();
+            }
+        }
+
+        private static PageChildren read(ByteBuffer buff, long pos, int mapId,
+                int maxLength) {
             int chunkId = DataUtils.getPageChunkId(pos);
             int offset = DataUtils.getPageOffset(pos);
             int start = buff.position();
@@ -38,12 +38,27 @@ import org.h2.mvstore.DataUtils;
  * of other entries have been moved to the front (8 per segment by default).
  * Write access and moving entries to the top of the stack is synchronized per
  * segment.
+ * <p>
+ * Reads don't synchronize: if an entry needs to be moved, the key is recorded
+ * in a small buffer of the segment, and the buffer is drained (the entries are
+ * moved) in one batch when it is full, or before the next write. Recording
+ * is lossy: if two threads record at the same time, one access may be lost,
+ * which only affects the replacement decision. By default, the number of
+ * segments depends on the number of processors.
  *
  * @author Thomas Mueller
  * @param <V> the value type
  */
 public class CacheLongKeyLIRS<V> {
 
+    /**
+     * The default number of segments: four per processor, at least 16 and at
+     * most 256.
+     */
+    static final int DEFAULT_SEGMENT_COUNT = Math.min(256, Math.max(16,
+            Integer.highestOneBit(
+            Runtime.getRuntime().availableProcessors() * 4 - 1) << 1));
+
     /**
      * The maximum memory this cache should use.
      */
@@ -56,6 +71,7 @@ public class CacheLongKeyLIRS<V> {
     private final int segmentMask;
     private final int stackMoveDistance;
     private final int nonResidentQueueSize;
+    private final int readBufferSize;
 
     /**
      * Create a new cache with the given memory size.
@@ -72,6 +88,7 @@ public class CacheLongKeyLIRS<V> {
         this.segmentCount = config.segmentCount;
         this.segmentMask = segmentCount - 1;
         this.stackMoveDistance = config.stackMoveDistance;
+        this.readBufferSize = config.readBufferSize;
         segments = new Segment[segmentCount];
         clear();
         // use the high bits for the segment
@@ -85,7 +102,8 @@ public class CacheLongKeyLIRS<V> {
         long max = Math.max(1, maxMemory / segmentCount);
         for (int i = 0; i < segmentCount; i++) {
             segments[i] = new Segment<V>(
-                    max, stackMoveDistance, 8, nonResidentQueueSize);
+                    max, stackMoveDistance, 8, nonResidentQueueSize,
+                    readBufferSize);
         }
     }
 
@@ -373,13 +391,66 @@ public class CacheLongKeyLIRS<V> {
      * @return the cache misses
      */
     public long getMisses() {
-        int x = 0;
+        long x = 0;
         for (Segment<V> s : segments) {
             x += s.misses;
         }
         return x;
     }
 
+    /**
+     * Get the number of entries that were evicted (that became
+     * non-resident) because the cache was full.
+     *
+     * @return the number of evicted entries
+     */
+    public long getEvictions() {
+        long x = 0;
+        for (Segment<V> s : segments) {
+            x += s.evictions;
+        }
+        return x;
+    }
+
+    /**
+     * Get the number of segments.
+     *
+     * @return the number of segments
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Get the number of cache hits of one segment.
+     *
+     * @param segment the segment index (0 to segment count - 1)
+     * @return the cache hits
+     */
+    public long getHits(int segment) {
+        return segments[segment].hits;
+    }
+
+    /**
+     * Get the number of cache misses of one segment.
+     *
+     * @param segment the segment index (0 to segment count - 1)
+     * @return the cache misses
+     */
+    public long getMisses(int segment) {
+        return segments[segment].misses;
+    }
+
+    /**
+     * Get the number of evicted entries of one segment.
+     *
+     * @param segment the segment index (0 to segment count - 1)
+     * @return the number of evicted entries
+     */
+    public long getEvictions(int segment) {
+        return segments[segment].evictions;
+    }
+
     /**
      * Get the number of resident entries.
      *
@@ -504,6 +575,12 @@ public class CacheLongKeyLIRS<V> {
          */
         long misses;
 
+        /**
+         * The number of entries that became non-resident because the segment
+         * was full.
+         */
+        long evictions;
+
         /**
          * The map array. The size is always a power of 2.
          */
@@ -571,6 +648,18 @@ public class CacheLongKeyLIRS<V> {
          */
         private int stackMoveCounter;
 
+        /**
+         * The keys of entries that were read and need to be moved, or null if
+         * entries are moved immediately when reading.
+         */
+        private final long[] readBuffer;
+
+        /**
+         * The number of keys in the read buffer. Updated without
+         * synchronization, so that concurrent updates may get lost.
+         */
+        private int readBufferCount;
+
         /**
          * Create a new cache segment.
          *
@@ -579,12 +668,14 @@ public class CacheLongKeyLIRS<V> {
          *        the top of the stack before moving an entry to the top
          * @param len the number of hash table buckets (must be a power of 2)
          * @param nonResidentQueueSize the non-resident queue size factor
+         * @param readBufferSize the number of reads that are buffered
          */
         Segment(long maxMemory, int stackMoveDistance, int len,
-                int nonResidentQueueSize) {
+                int nonResidentQueueSize, int readBufferSize) {
             setMaxMemory(maxMemory);
             this.stackMoveDistance = stackMoveDistance;
             this.nonResidentQueueSize = nonResidentQueueSize;
+            readBuffer = readBufferSize <= 0 ? null : new long[readBufferSize];
 
             // the bit mask has all bits set
             mask = len - 1;
@@ -611,9 +702,13 @@ public class CacheLongKeyLIRS<V> {
          * @param len the number of hash table buckets (must be a power of 2)
          */
         Segment(Segment<V> old, int len) {
-            this(old.maxMemory, old.stackMoveDistance, len, old.nonResidentQueueSize);
+            this(old.maxMemory, old.stackMoveDistance, len,
+                    old.nonResidentQueueSize,
+                    old.readBuffer == null ? 0 : old.readBuffer.length);
+            old.drainReadBuffer();
             hits = old.hits;
             misses = old.misses;
+            evictions = old.evictions;
             Entry<V> s = old.stack.stackPrev;
             while (s != old.stack) {
                 Entry<V> e = copy(s);
@@ -716,16 +811,57 @@ public class CacheLongKeyLIRS<V> {
                 if (e != stack.stackNext) {
                     if (stackMoveDistance == 0 ||
                             stackMoveCounter - e.topMove > stackMoveDistance) {
-                        access(key, hash);
+                        recordAccess(key, hash);
                     }
                 }
             } else {
-                access(key, hash);
+                recordAccess(key, hash);
             }
             hits++;
             return value;
         }
 
+        /**
+         * Record that an entry needs to be moved. The entry is moved right
+         * away if there is no read buffer, and otherwise when the buffer is
+         * full.
+         *
+         * @param key the key
+         * @param hash the hash
+         */
+        private void recordAccess(long key, int hash) {
+            long[] buff = readBuffer;
+            if (buff == null) {
+                access(key, hash);
+                return;
+            }
+            int i = readBufferCount;
+            if (i < buff.length) {
+                buff[i++] = key;
+                readBufferCount = i;
+                if (i < buff.length) {
+                    return;
+                }
+            }
+            drainReadBuffer();
+        }
+
+        /**
+         * Move the entries that are recorded in the read buffer.
+         */
+        synchronized void drainReadBuffer() {
+            long[] buff = readBuffer;
+            if (buff == null) {
+                return;
+            }
+            int count = Math.min(readBufferCount, buff.length);
+            readBufferCount = 0;
+            for (int i = 0; i < count; i++) {
+                long key = buff[i];
+                access(key, getHash(key));
+            }
+        }
+
         /**
          * Access an item, moving the entry to the top of the stack or front of
          * the queue if found.
@@ -789,6 +925,9 @@ public class CacheLongKeyLIRS<V> {
                 throw DataUtils.newIllegalArgumentException(
                         "The value may not be null");
             }
+            // move the entries that were read before, so that they are
+            // not evicted
+            drainReadBuffer();
             V old;
             Entry<V> e = find(key, hash);
             if (e == null) {
@@ -903,6 +1042,7 @@ public class CacheLongKeyLIRS<V> {
                 e.value = null;
                 e.memory = 0;
                 addToQueue(queue2, e);
+                evictions++;
                 // the size of the non-resident-cold entries needs to be limited
                 int maxQueue2Size = nonResidentQueueSize * (mapSize - queue2Size);
                 if (maxQueue2Size >= 0) {
@@ -1025,6 +1165,7 @@ public class CacheLongKeyLIRS<V> {
          * @return the key list
          */
         synchronized List<Long> keys(boolean cold, boolean nonResident) {
+            drainReadBuffer();
             ArrayList<Long> keys = new ArrayList<Long>();
             if (cold) {
                 Entry<V> start = nonResident ? queue2 : queue;
@@ -1060,6 +1201,7 @@ public class CacheLongKeyLIRS<V> {
          * @return the set of keys
          */
         synchronized Set<Long> keySet() {
+            drainReadBuffer();
             HashSet<Long> set = new HashSet<Long>();
             for (Entry<V> e = stack.stackNext; e != stack; e = e.stackNext) {
                 set.add(e.key);
@@ -1162,9 +1304,10 @@ public class CacheLongKeyLIRS<V> {
         public long maxMemory = 1;
 
         /**
-         * The number of cache segments (must be a power of 2).
+         * The number of cache segments (must be a power of 2). By default,
+         * this depends on the number of processors.
          */
-        public int segmentCount = 16;
+        public int segmentCount = DEFAULT_SEGMENT_COUNT;
 
         /**
          * How many other item are to be moved to the top of the stack before
@@ -1178,6 +1321,12 @@ public class CacheLongKeyLIRS<V> {
          */
         public int nonResidentQueueSize = 3;
 
+        /**
+         * The number of reads per segment that are buffered before the read
+         * entries are moved (0 to move them immediately).
+         */
+        public int readBufferSize = 16;
+
     }
 
 }
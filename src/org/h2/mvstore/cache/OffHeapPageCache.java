@@ -0,0 +1,235 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.cache;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import org.h2.util.New;
+
+/**
+ * A cache for the serialized content of pages, kept outside of the Java heap
+ * (in direct byte buffers). It is used as a second level cache below the page
+ * cache: pages that were evicted from the page cache can be read from here
+ * instead of from the file.
+ * <p>
+ * The memory is split into segments that are filled one after the other. When
+ * all segments are full, the oldest segment is cleared and re-used (first in,
+ * first out). Each entry is tagged with a version, so that stale content (for
+ * example of a chunk id that was re-used) is never returned.
+ * <p>
+ * This class is multi-threading safe.
+ */
+//page cache(CacheLongKeyLIRS)放的是反序列化后的Page对象，放在Java堆中；
+//这里放的是page在文件中的原始字节，放在堆外(direct buffer)，不受-Xmx限制，也不会增加GC的负担
+public class OffHeapPageCache {
+
+    /**
+     * The maximum size of a segment.
+     */
+    private static final int MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private final int segmentSize;
+    private final ByteBuffer[] segments;
+    private final long[][] segmentKeys;
+    private final int[] segmentKeyCount;
+    private final HashMap<Long, Entry> map = New.hashMap();
+    private int current;
+    private int currentPos;
+    private long hits, misses;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxMemory the maximum memory to use, in bytes
+     */
+    public OffHeapPageCache(long maxMemory) {
+        segmentSize = (int) Math.max(1024, Math.min(maxMemory, MAX_SEGMENT_SIZE));
+        int count = (int) Math.max(1, maxMemory / segmentSize);
+        segments = new ByteBuffer[count];
+        segmentKeys = new long[count][];
+        segmentKeyCount = new int[count];
+        for (int i = 0; i < count; i++) {
+            segmentKeys[i] = new long[16];
+        }
+    }
+
+    /**
+     * Get the content of a page. The returned buffer is a copy on the heap.
+     *
+     * @param pos the page position
+     * @param version the version the content must have
+     * @return the content, or null if not found
+     */
+    public synchronized ByteBuffer get(long pos, long version) {
+        Entry e = map.get(pos);
+        if (e == null || e.version != version) {
+            misses++;
+            return null;
+        }
+        hits++;
+        ByteBuffer read = segments[e.segment].duplicate();
+        read.limit(e.offset + e.length);
+        read.position(e.offset);
+        ByteBuffer buff = ByteBuffer.allocate(e.length);
+        buff.put(read);
+        buff.flip();
+        return buff;
+    }
+
+    /**
+     * Add the content of a page. The remaining bytes of the buffer are
+     * copied; the position of the buffer is not changed. Content that is
+     * larger than a segment is not cached.
+     *
+     * @param pos the page position
+     * @param version the version of the content
+     * @param buff the content
+     */
+    public synchronized void put(long pos, long version, ByteBuffer buff) {
+        int len = buff.remaining();
+        if (len > segmentSize) {
+            return;
+        }
+        if (currentPos + len > segmentSize || segments[current] == null) {
+            if (segments[current] != null) {
+                current = (current + 1) % segments.length;
+            }
+            clearSegment(current);
+            if (segments[current] == null) {
+                segments[current] = ByteBuffer.allocateDirect(segmentSize);
+            }
+            currentPos = 0;
+        }
+        ByteBuffer write = segments[current].duplicate();
+        write.position(currentPos);
+        write.put(buff.duplicate());
+        Entry e = new Entry();
+        e.segment = current;
+        e.offset = currentPos;
+        e.length = len;
+        e.version = version;
+        Entry old = map.put(pos, e);
+        if (old == null || old.segment != current) {
+            // when a segment is cleared, its keys are only removed
+            // if they still point to that segment
+            addKey(current, pos);
+        }
+        currentPos += len;
+    }
+
+    private void addKey(int segment, long pos) {
+        long[] keys = segmentKeys[segment];
+        int count = segmentKeyCount[segment];
+        if (count == keys.length) {
+            long[] k = new long[count * 2];
+            System.arraycopy(keys, 0, k, 0, count);
+            keys = segmentKeys[segment] = k;
+        }
+        keys[count] = pos;
+        segmentKeyCount[segment] = count + 1;
+    }
+
+    private void clearSegment(int segment) {
+        long[] keys = segmentKeys[segment];
+        for (int i = 0, count = segmentKeyCount[segment]; i < count; i++) {
+            Long key = keys[i];
+            Entry e = map.get(key);
+            if (e != null && e.segment == segment) {
+                map.remove(key);
+            }
+        }
+        segmentKeyCount[segment] = 0;
+        if (keys.length > 1024) {
+            segmentKeys[segment] = new long[16];
+        }
+    }
+
+    /**
+     * Remove the content of a page.
+     *
+     * @param pos the page position
+     */
+    public synchronized void remove(long pos) {
+        map.remove(pos);
+    }
+
+    /**
+     * Remove all entries and release the memory.
+     */
+    public synchronized void clear() {
+        map.clear();
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = null;
+            segmentKeys[i] = new long[16];
+            segmentKeyCount[i] = 0;
+        }
+        current = 0;
+        currentPos = 0;
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * Get the number of cache hits.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of cache misses.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the maximum memory, in bytes.
+     *
+     * @return the maximum memory
+     */
+    public long getMaxMemory() {
+        return (long) segmentSize * segments.length;
+    }
+
+    /**
+     * The location of the content of a page.
+     */
+    private static class Entry {
+
+        /**
+         * The segment index.
+         */
+        int segment;
+
+        /**
+         * The offset within the segment.
+         */
+        int offset;
+
+        /**
+         * The length in bytes.
+         */
+        int length;
+
+        /**
+         * The version of the content.
+         */
+        long version;
+    }
+
+}
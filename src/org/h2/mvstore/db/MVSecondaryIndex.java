@@ -107,7 +107,7 @@ public class MVSecondaryIndex extends BaseIndex implements MVIndex {
                 return comp;
             }
         }
-        TreeSet<Source> sources = new TreeSet<Source>();
+        final TreeSet<Source> sources = new TreeSet<Source>();
         for (int i = 0; i < bufferNames.size(); i++) {
             MVMap<Value, Value> map = openMap(bufferNames.get(i));
             Iterator<Value> it = map.keyIterator(null);
@@ -119,35 +119,53 @@ public class MVSecondaryIndex extends BaseIndex implements MVIndex {
                 sources.add(s);
             }
         }
-        try {
-            while (true) {
-                Source s = sources.first();
-                Value v = s.value;
+        Iterator<Value> merged = new Iterator<Value>() {
 
-                if (indexType.isUnique()) {
-                    Value[] array = ((ValueArray) v).getList();
-                    // don't change the original value
-                    array = array.clone();
-                    array[keyColumns - 1] = ValueLong.get(Long.MIN_VALUE);
-                    ValueArray unique = ValueArray.get(array);
-                    SearchRow row = convertToSearchRow((ValueArray) v);
-                    checkUnique(row, dataMap, unique);
+            @Override
+            public boolean hasNext() {
+                return !sources.isEmpty();
+            }
+
+            @Override
+            public Value next() {
+                Source s = sources.pollFirst();
+                Value v = s.value;
+                if (s.next.hasNext()) {
+                    s.value = s.next.next();
+                    sources.add(s);
                 }
+                return v;
+            }
 
-                dataMap.putCommitted(v, ValueNull.INSTANCE);
+            @Override
+            public void remove() {
+                throw DbException.getUnsupportedException("remove");
+            }
 
-                Iterator<Value> it = s.next;
-                if (!it.hasNext()) {
-                    sources.remove(s);
-                    if (sources.size() == 0) {
-                        break;
+        };
+        try {
+            if (dataMap.sizeAsLongMax() == 0) {
+                // a new index: build the pages bottom-up; the keys are
+                // sorted, so duplicates are next to each other
+                dataMap.putAllCommittedSorted(
+                        indexType.isUnique() ? new UniqueIterator(merged) : merged,
+                        ValueNull.INSTANCE);
+            } else {
+                while (merged.hasNext()) {
+                    Value v = merged.next();
+                    if (indexType.isUnique()) {
+                        Value[] array = ((ValueArray) v).getList();
+                        // don't change the original value
+                        array = array.clone();
+                        array[keyColumns - 1] = ValueLong.get(Long.MIN_VALUE);
+                        ValueArray unique = ValueArray.get(array);
+                        SearchRow row = convertToSearchRow((ValueArray) v);
+                        checkUnique(row, dataMap, unique);
                     }
-                } else {
-                    Value nextValue = it.next();
-                    sources.remove(s);
-                    s.value = nextValue;
-                    sources.add(s);
+                    dataMap.putCommitted(v, ValueNull.INSTANCE);
                 }
+                // the rows are not in the redo log
+                dataMap.getTransaction().store.storeUnlogged();
             }
         } finally {
             for (String tempMapName : mapNames) {
@@ -157,6 +175,43 @@ public class MVSecondaryIndex extends BaseIndex implements MVIndex {
         }
     }
 
+    /**
+     * Checks that there are no duplicates in a sorted list of keys of a
+     * unique index.
+     */
+    private class UniqueIterator implements Iterator<Value> {
+
+        private final Iterator<Value> source;
+        private SearchRow last;
+
+        UniqueIterator(Iterator<Value> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return source.hasNext();
+        }
+
+        @Override
+        public Value next() {
+            ValueArray v = (ValueArray) source.next();
+            SearchRow row = convertToSearchRow(v);
+            if (last != null && compareRows(row, last) == 0 &&
+                    !containsNullAndAllowMultipleNull(last)) {
+                throw getDuplicateKeyException(v.toString());
+            }
+            last = row;
+            return v;
+        }
+
+        @Override
+        public void remove() {
+            throw DbException.getUnsupportedException("remove");
+        }
+
+    }
+
     private MVMap<Value, Value> openMap(String mapName) {
         int[] sortTypes = new int[keyColumns];
         for (int i = 0; i < indexColumns.length; i++) {
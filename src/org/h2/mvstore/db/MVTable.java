@@ -41,6 +41,8 @@ import org.h2.table.TableBase;
 import org.h2.util.DebuggingThreadLocal;
 import org.h2.util.MathUtils;
 import org.h2.util.New;
+import org.h2.util.Task;
+import org.h2.value.CompareMode;
 import org.h2.value.DataType;
 import org.h2.value.Value;
 
@@ -49,6 +51,12 @@ import org.h2.value.Value;
  */
 public class MVTable extends TableBase {
 
+    /**
+     * The minimum number of rows of a run that is sorted in a separate thread
+     * when creating an index.
+     */
+    private static final int MIN_ROWS_PER_RUN = 4096;
+
     /**
      * The table name this thread is waiting to lock.
      */
@@ -548,6 +556,7 @@ public class MVTable extends TableBase {
         if (index instanceof MVSpatialIndex) {
             // the spatial index doesn't support multi-way merge sort
             rebuildIndexBuffered(session, index);
+            return;
         }
         // Read entries in memory, sort them, write to a new map (in sorted
         // order); repeat (using a new map for every block of 1 MB) until all
@@ -574,20 +583,12 @@ public class MVTable extends TableBase {
             database.setProgress(DatabaseEventListener.STATE_CREATE_INDEX, n,
                     MathUtils.convertLongToInt(i++), t);
             if (buffer.size() >= bufferSize) {
-                sortRows(buffer, index);
-                String mapName = store.nextTemporaryMapName();
-                index.addRowsToBuffer(buffer, mapName);
-                bufferNames.add(mapName);
-                buffer.clear();
+                addSortedRuns(buffer, index, store, bufferNames);
             }
             remaining--;
         }
-        sortRows(buffer, index);
         if (bufferNames.size() > 0) {
-            String mapName = store.nextTemporaryMapName();
-            index.addRowsToBuffer(buffer, mapName);
-            bufferNames.add(mapName);
-            buffer.clear();
+            addSortedRuns(buffer, index, store, bufferNames);
             index.addBufferedRows(bufferNames);
         } else {
             addRowsToIndex(session, buffer, index);
@@ -598,6 +599,52 @@ public class MVTable extends TableBase {
         }
     }
 
+    /**
+     * Sort the rows and write them to temporary maps. If the values can be
+     * compared concurrently, the rows are split into one run per processor,
+     * and the runs are sorted in parallel. The buffer is cleared afterwards.
+     */
+    //每个run写到一个单独的临时map，在addBufferedRows中多路归并，所以run之间不需要再合并
+    private void addSortedRuns(ArrayList<Row> buffer, final MVIndex index,
+            Store store, ArrayList<String> bufferNames) {
+        int runs = 1;
+        if (CompareMode.OFF.equals(database.getCompareMode().getName())) {
+            // a collator can not be used by multiple threads
+            runs = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                    buffer.size() / MIN_ROWS_PER_RUN));
+        }
+        ArrayList<ArrayList<Row>> lists = New.arrayList();
+        for (int i = 0; i < runs; i++) {
+            int from = (int) ((long) buffer.size() * i / runs);
+            int to = (int) ((long) buffer.size() * (i + 1) / runs);
+            lists.add(New.arrayList(buffer.subList(from, to)));
+        }
+        buffer.clear();
+        ArrayList<Task> tasks = New.arrayList();
+        for (int i = 1; i < runs; i++) {
+            final ArrayList<Row> list = lists.get(i);
+            Task task = new Task() {
+                @Override
+                public void call() {
+                    sortRows(list, index);
+                }
+            };
+            tasks.add(task.execute());
+        }
+        sortRows(lists.get(0), index);
+        for (Task task : tasks) {
+            Exception e = task.getException();
+            if (e != null) {
+                throw DbException.convert(e);
+            }
+        }
+        for (ArrayList<Row> list : lists) {
+            String mapName = store.nextTemporaryMapName();
+            index.addRowsToBuffer(list, mapName);
+            bufferNames.add(mapName);
+        }
+    }
+
     private void rebuildIndexBuffered(Session session, Index index) {
         Index scan = getScanIndex(session);
         long remaining = scan.getRowCount(session);
@@ -705,28 +752,101 @@ public class MVTable extends TableBase {
             }
         } catch (Throwable e) {
             t.rollbackToSavepoint(savepoint);
-            DbException de = DbException.convert(e);
-            if (de.getErrorCode() == ErrorCode.DUPLICATE_KEY_1) {
-                for (int j = 0; j < indexes.size(); j++) {
-                    Index index = indexes.get(j);
-                    if (index.getIndexType().isUnique() &&
-                            index instanceof MultiVersionIndex) {
-                        MultiVersionIndex mv = (MultiVersionIndex) index;
-                        if (mv.isUncommittedFromOtherSession(session, row)) {
-                            throw DbException.get(
-                                    ErrorCode.CONCURRENT_UPDATE_1,
-                                    index.getName());
-                        }
+            throw convertAddException(session, row, e);
+        }
+        analyzeIfRequired(session);
+    }
+
+    /**
+     * Add the rows to one index after the other. For each index, the rows are
+     * sorted in the order of the index first, so that the changed pages are
+     * close to each other.
+     *
+     * @param session the session
+     * @param rows the rows
+     */
+    @Override
+    public void addRows(Session session, ArrayList<Row> rows) {
+        lastModificationId = database.getNextModificationDataId();
+        Transaction t = getTransaction(session);
+        long savepoint = t.setSavepoint();
+        Row row = null;
+        try {
+            for (int i = 0, size = indexes.size(); i < size; i++) {
+                Index index = indexes.get(i);
+                ArrayList<Row> list = getRowsInIndexOrder(index, rows);
+                for (int j = 0, len = list.size(); j < len; j++) {
+                    row = list.get(j);
+                    index.add(session, row);
+                }
+            }
+        } catch (Throwable e) {
+            t.rollbackToSavepoint(savepoint);
+            throw convertAddException(session, row, e);
+        }
+        analyzeIfRequired(session, rows.size());
+    }
+
+    private ArrayList<Row> getRowsInIndexOrder(Index index, ArrayList<Row> rows) {
+        if (index == primaryIndex) {
+            final int column = primaryIndex.getMainIndexColumn();
+            if (column == -1) {
+                // the keys are generated in this order
+                return rows;
+            }
+            ArrayList<Row> list = New.arrayList(rows);
+            Collections.sort(list, new Comparator<Row>() {
+                @Override
+                public int compare(Row r1, Row r2) {
+                    return MathUtils.compareLong(r1.getValue(column).getLong(),
+                            r2.getValue(column).getLong());
+                }
+            });
+            return list;
+        } else if (index instanceof MVSecondaryIndex) {
+            ArrayList<Row> list = New.arrayList(rows);
+            sortRows(list, index);
+            return list;
+        }
+        return rows;
+    }
+
+    private DbException convertAddException(Session session, Row row,
+            Throwable e) {
+        DbException de = DbException.convert(e);
+        if (de.getErrorCode() == ErrorCode.DUPLICATE_KEY_1 && row != null) {
+            for (int j = 0; j < indexes.size(); j++) {
+                Index index = indexes.get(j);
+                if (index.getIndexType().isUnique() &&
+                        index instanceof MultiVersionIndex) {
+                    MultiVersionIndex mv = (MultiVersionIndex) index;
+                    if (mv.isUncommittedFromOtherSession(session, row)) {
+                        return DbException.get(
+                                ErrorCode.CONCURRENT_UPDATE_1,
+                                index.getName());
                     }
                 }
             }
-            throw de;
         }
-        analyzeIfRequired(session);
+        return de;
     }
 
     private void analyzeIfRequired(Session session) {
-        if (nextAnalyze == 0 || nextAnalyze > changesSinceAnalyze++) {
+        analyzeIfRequired(session, 1);
+    }
+
+    /**
+     * Analyze the table if enough rows were changed since the last time.
+     *
+     * @param session the session
+     * @param changes the number of rows that were changed
+     */
+    private void analyzeIfRequired(Session session, int changes) {
+        if (nextAnalyze == 0) {
+            return;
+        }
+        changesSinceAnalyze += changes;
+        if (changesSinceAnalyze <= nextAnalyze) {
             return;
         }
         changesSinceAnalyze = 0;
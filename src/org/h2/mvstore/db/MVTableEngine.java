@@ -162,7 +162,31 @@ public class MVTableEngine implements TableEngine {
                 this.transactionStore = new TransactionStore(
                         store,
                         new ValueDataType(null, db, null));
+                if (db.getSettings().syncOnCommit) {
+                    transactionStore.setSyncOnCommit(true);
+                }
+                String redoFileName = null;
+                boolean redoLog = false;
+                if (fs != null && !fs.isReadOnly() &&
+                        fileName.endsWith(Constants.SUFFIX_MV_FILE)) {
+                    redoFileName = fileName.substring(0,
+                            fileName.length() -
+                            Constants.SUFFIX_MV_FILE.length()) +
+                            Constants.SUFFIX_REDO_FILE;
+                    redoLog = db.getSettings().redoLog;
+                    // the log of a database that was used with the redo log
+                    // is replayed even if the setting is no longer used
+                    if (redoLog || FileUtils.size(redoFileName) > 0) {
+                        transactionStore.setRedoLog(new RedoLog(redoFileName));
+                    }
+                }
                 transactionStore.init();
+                if (!redoLog && transactionStore.getRedoLog() != null) {
+                    // replayed, and stored
+                    transactionStore.getRedoLog().close();
+                    transactionStore.setRedoLog(null);
+                    FileUtils.delete(redoFileName);
+                }
             } catch (IllegalStateException e) {
                 throw convertIllegalStateException(e);
             }
@@ -240,6 +264,11 @@ public class MVTableEngine implements TableEngine {
                 return;
             }
             store.closeImmediately();
+            if (transactionStore != null &&
+                    transactionStore.getRedoLog() != null) {
+                // keep the log, it is needed when opening the store again
+                transactionStore.getRedoLog().close();
+            }
         }
 
         /**
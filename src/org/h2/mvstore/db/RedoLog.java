@@ -0,0 +1,194 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.store.fs.FileUtils;
+import org.h2.util.New;
+
+/**
+ * An append-only log of committed transactions. Each record contains the
+ * changes of one transaction, and is synced to disk before the commit returns,
+ * so that the store itself only needs to be written from time to time. After
+ * a crash, the records are replayed on top of the last stored version.
+ * <p>
+ * The file consists of records: the length of the data (int), the checksum of
+ * the data (int), and the data. A record with a wrong length or checksum marks
+ * the end of the log (a write that was interrupted).
+ */
+public class RedoLog {
+
+    /**
+     * The size in bytes after which the store is written and the log is
+     * truncated.
+     */
+    static final long MAX_SIZE = 16 * 1024 * 1024;
+
+    private final String fileName;
+    private FileChannel file;
+
+    /**
+     * The end of the log.
+     */
+    private long pos;
+
+    /**
+     * The number of bytes appended since the log was opened (not reset when
+     * truncating).
+     */
+    private long written;
+
+    /**
+     * The lock for syncing; the number of appended bytes that are synced.
+     */
+    private final Object syncSync = new Object();
+    private long synced;
+
+    /**
+     * Open the log. The file is created if it does not exist.
+     *
+     * @param fileName the file name
+     */
+    public RedoLog(String fileName) {
+        this.fileName = fileName;
+        try {
+            file = FileUtils.open(fileName, "rw");
+            pos = file.size();
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_READING_FAILED,
+                    "Could not open file {0}", fileName, e);
+        }
+    }
+
+    /**
+     * Read all complete records.
+     *
+     * @return the list of records (the data of each record)
+     */
+    synchronized ArrayList<ByteBuffer> readAll() {
+        ArrayList<ByteBuffer> list = New.arrayList();
+        long p = 0;
+        ByteBuffer header = ByteBuffer.allocate(8);
+        while (p + 8 <= pos) {
+            header.clear();
+            DataUtils.readFully(file, p, header);
+            int len = header.getInt(0);
+            int check = header.getInt(4);
+            if (len <= 0 || p + 8 + len > pos) {
+                break;
+            }
+            ByteBuffer data = ByteBuffer.allocate(len);
+            DataUtils.readFully(file, p + 8, data);
+            if (DataUtils.getFletcher32(data.array(), len) != check) {
+                break;
+            }
+            list.add(data);
+            p += 8 + len;
+        }
+        return list;
+    }
+
+    /**
+     * Append a record, without syncing the file.
+     *
+     * @param buff the data (from position 0 to the current position)
+     * @return the number of bytes appended so far, including this record
+     *         (to be passed to sync)
+     */
+    long append(WriteBuffer buff) {
+        ByteBuffer data = buff.getBuffer();
+        int len = data.position();
+        byte[] bytes = new byte[len];
+        data.flip();
+        data.get(bytes);
+        ByteBuffer record = ByteBuffer.allocate(8 + len);
+        record.putInt(len);
+        record.putInt(DataUtils.getFletcher32(bytes, len));
+        record.put(bytes);
+        record.flip();
+        synchronized (this) {
+            DataUtils.writeFully(file, pos, record);
+            pos += 8 + len;
+            written += 8 + len;
+            return written;
+        }
+    }
+
+    /**
+     * Sync the file, if the given record is not synced yet. If other threads
+     * append at the same time, one sync may cover several records.
+     *
+     * @param end the value returned by append
+     */
+    void sync(long end) {
+        synchronized (syncSync) {
+            if (synced >= end) {
+                // synced by another thread
+                return;
+            }
+            long w;
+            synchronized (this) {
+                w = written;
+            }
+            try {
+                file.force(false);
+            } catch (IOException e) {
+                throw DataUtils.newIllegalStateException(
+                        DataUtils.ERROR_WRITING_FAILED,
+                        "Could not sync file {0}", fileName, e);
+            }
+            synced = w;
+        }
+    }
+
+    /**
+     * Get the size of the log.
+     *
+     * @return the size in bytes
+     */
+    synchronized long size() {
+        return pos;
+    }
+
+    /**
+     * Remove all records. This is only allowed after the changes were stored
+     * and synced.
+     */
+    synchronized void truncate() {
+        try {
+            file.truncate(0);
+            file.force(false);
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_WRITING_FAILED,
+                    "Could not truncate file {0}", fileName, e);
+        }
+        pos = 0;
+    }
+
+    /**
+     * Close the file.
+     */
+    public synchronized void close() {
+        try {
+            if (file != null) {
+                file.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        } finally {
+            file = null;
+        }
+    }
+
+}
@@ -8,17 +8,22 @@ package org.h2.mvstore.db;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.h2.mvstore.Cursor;
 import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVMapConcurrent;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.WriteBuffer;
 import org.h2.mvstore.type.DataType;
+import org.h2.mvstore.type.LongDataType;
 import org.h2.mvstore.type.ObjectDataType;
 import org.h2.util.New;
 
@@ -39,7 +44,14 @@ public class TransactionStore {
     final MVMap<Integer, Object[]> preparedTransactions;
 
     /**
-     * The undo log.
+     * The number of undo log maps. The log entries of a transaction are
+     * always in the same map (the transaction id modulo the number of maps).
+     */
+    private static final int UNDO_LOG_COUNT = 16;
+
+    /**
+     * The undo logs. Each map is synchronized on its own, so that
+     * transactions that use different maps don't block each other.
      * <p>
      * If the first entry for a transaction doesn't have a logId
      * of 0, then the transaction is partially committed (which means rollback
@@ -48,7 +60,7 @@ public class TransactionStore {
      * <p>
      * Key: opId, value: [ mapId, key, oldValue ].
      */
-    final MVMap<Long, Object[]> undoLog;
+    private final MVMap<Long, Object[]>[] undoLogs;
 
     /**
      * The map of maps.
@@ -56,6 +68,14 @@ public class TransactionStore {
     private HashMap<Integer, MVMap<Object, VersionedValue>> maps =
             New.hashMap();
 
+    /**
+     * The number of entries per map that were added by open transactions and
+     * don't have a committed value (key: map id). The number of committed
+     * entries of a map is its size minus this number.
+     */
+    private final HashMap<Integer, AtomicLong> uncommittedCounts =
+            New.hashMap();
+
     private final DataType dataType;
 
     private final BitSet openTransactions = new BitSet();
@@ -64,6 +84,31 @@ public class TransactionStore {
 
     private int maxTransactionId = 0xffff;
 
+    /**
+     * Whether the file is synced when a transaction is committed (if changes
+     * are stored on each commit).
+     */
+    private volatile boolean syncOnCommit;
+
+    /**
+     * The log of committed transactions, or null if changes are only
+     * persisted by storing the store.
+     */
+    private RedoLog redoLog;
+
+    /**
+     * The order of the commits in the redo log.
+     */
+    private final AtomicLong redoLogSequence = new AtomicLong();
+
+    /**
+     * The lock for appending to the redo log, and the sequence of the last
+     * commit that was appended (or that did not need a record). The records
+     * are appended in the order of the sequence.
+     */
+    private final Object redoLogOrder = new Object();
+    private long redoLogAppended;
+
     /**
      * The next id of a temporary map.
      */
@@ -95,13 +140,45 @@ public class TransactionStore {
         });
         MVMap.Builder<Long, Object[]> builder =
                 new MVMap.Builder<Long, Object[]>().
+                keyType(new LongDataType()).
                 valueType(undoLogValueType);
-        undoLog = store.openMap("undoLog", builder);
-        if (undoLog.getValueType() != undoLogValueType) {
-            throw DataUtils.newIllegalStateException(
-                    DataUtils.ERROR_TRANSACTION_CORRUPT,
-                    "Undo map open with a different value type");
+        @SuppressWarnings("unchecked")
+        MVMap<Long, Object[]>[] logs =
+                (MVMap<Long, Object[]>[]) new MVMap<?, ?>[UNDO_LOG_COUNT];
+        for (int i = 0; i < logs.length; i++) {
+            // the first map has the name of the former single undo log
+            String name = i == 0 ? "undoLog" : "undoLog." + i;
+            logs[i] = store.openMap(name, builder);
+            if (logs[i].getValueType() != undoLogValueType) {
+                throw DataUtils.newIllegalStateException(
+                        DataUtils.ERROR_TRANSACTION_CORRUPT,
+                        "Undo map open with a different value type");
+            }
+        }
+        undoLogs = logs;
+    }
+
+    /**
+     * Get the undo log map of the given transaction.
+     *
+     * @param transactionId the transaction id
+     * @return the undo log
+     */
+    MVMap<Long, Object[]> getUndoLog(int transactionId) {
+        return undoLogs[transactionId % UNDO_LOG_COUNT];
+    }
+
+    /**
+     * Get the number of entries in all undo logs.
+     *
+     * @return the number of entries
+     */
+    long getUndoLogSize() {
+        long size = 0;
+        for (MVMap<Long, Object[]> undoLog : undoLogs) {
+            size += undoLog.sizeAsLong();
         }
+        return size;
     }
 
     /**
@@ -118,12 +195,42 @@ public class TransactionStore {
                 store.removeMap(temp);
             }
         }
-        synchronized (undoLog) {
-            if (undoLog.size() > 0) {
-                for (Long key : undoLog.keySet()) {
-                    int transactionId = getTransactionId(key);
-                    openTransactions.set(transactionId);
+        moveUndoLogEntries();
+        if (redoLog != null) {
+            replayRedoLog();
+        }
+        for (MVMap<Long, Object[]> undoLog : undoLogs) {
+            synchronized (undoLog) {
+                if (undoLog.size() > 0) {
+                    for (Entry<Long, Object[]> e : undoLog.entrySet()) {
+                        int transactionId = getTransactionId(e.getKey());
+                        openTransactions.set(transactionId);
+                        Object[] op = e.getValue();
+                        if (op[2] == null) {
+                            getUncommittedCount((Integer) op[0]).
+                                    incrementAndGet();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the log entries of transactions that belong to another undo log
+     * map out of the first one. Stores written before the undo log was split
+     * keep the entries of all transactions in the first map.
+     */
+    private void moveUndoLogEntries() {
+        MVMap<Long, Object[]> first = undoLogs[0];
+        synchronized (first) {
+            Long key = first.firstKey();
+            while (key != null) {
+                int transactionId = getTransactionId(key);
+                if (transactionId % UNDO_LOG_COUNT != 0) {
+                    getUndoLog(transactionId).put(key, first.remove(key));
                 }
+                key = first.higherKey(key);
             }
         }
     }
@@ -139,6 +246,214 @@ public class TransactionStore {
         this.maxTransactionId = max;
     }
 
+    /**
+     * Set whether the file is synced when a transaction is committed. This
+     * only has an effect if the auto-commit delay of the store is 0, that
+     * is, if changes are stored on each commit.
+     *
+     * @param syncOnCommit the new value
+     */
+    public void setSyncOnCommit(boolean syncOnCommit) {
+        this.syncOnCommit = syncOnCommit;
+    }
+
+    /**
+     * Use a redo log. Committed transactions are then appended to the log,
+     * which is synced, and the store is written later on. This needs to be
+     * called before init.
+     *
+     * @param redoLog the redo log, or null to stop using it (only after init)
+     */
+    public void setRedoLog(RedoLog redoLog) {
+        this.redoLog = redoLog;
+    }
+
+    public RedoLog getRedoLog() {
+        return redoLog;
+    }
+
+    /**
+     * Store and sync all changes, if a redo log is used. This is needed after
+     * changing maps outside of a transaction (for example creating a map), as
+     * such changes are not in the redo log.
+     */
+    public void storeUnlogged() {
+        if (redoLog != null) {
+            store.commit();
+            store.sync();
+        }
+    }
+
+    /**
+     * Apply the changes of the committed transactions in the redo log that
+     * are not in the store yet, then store the changes and clear the log.
+     */
+    private void replayRedoLog() {
+        ArrayList<ByteBuffer> records = redoLog.readAll();
+        if (records.isEmpty()) {
+            return;
+        }
+        // the store contains the changes of all versions before this one
+        final long storedVersion = store.getCurrentVersion();
+        final HashMap<ByteBuffer, long[]> headers = New.hashMap();
+        for (ByteBuffer buff : records) {
+            long sequence = DataUtils.readVarLong(buff);
+            long version = DataUtils.readVarLong(buff);
+            headers.put(buff, new long[] { sequence, version });
+        }
+        Collections.sort(records, new Comparator<ByteBuffer>() {
+            @Override
+            public int compare(ByteBuffer a, ByteBuffer b) {
+                long x = headers.get(a)[0], y = headers.get(b)[0];
+                return x < y ? -1 : x > y ? 1 : 0;
+            }
+        });
+        // changes of later transactions may be stored while the commit of
+        // an earlier one is not, so all transactions after the first
+        // missing one are applied again, in the original order
+        boolean replay = false;
+        for (ByteBuffer buff : records) {
+            boolean missing = headers.get(buff)[1] >= storedVersion;
+            replay |= missing;
+            if (replay) {
+                replayCommit(buff, missing);
+            }
+        }
+        store.commit();
+        store.sync();
+        redoLog.truncate();
+    }
+
+    private void replayCommit(ByteBuffer buff, boolean missing) {
+        int transactionId = DataUtils.readVarInt(buff);
+        long maxLogId = DataUtils.readVarLong(buff);
+        int count = DataUtils.readVarInt(buff);
+        for (int i = 0; i < count; i++) {
+            int mapId = DataUtils.readVarInt(buff);
+            Object key = dataType.read(buff);
+            Object value = buff.get() == 0 ? null : dataType.read(buff);
+            MVMap<Object, VersionedValue> map = openMap(mapId);
+            if (map == null) {
+                // the map was removed later on
+            } else if (value == null) {
+                map.remove(key);
+            } else {
+                VersionedValue v = new VersionedValue();
+                v.value = value;
+                map.put(key, v);
+            }
+        }
+        if (missing) {
+            // the undo log in the store still contains the changes
+            // of this transaction (it was open when the store was written)
+            MVMap<Long, Object[]> undoLog = getUndoLog(transactionId);
+            Long undoKey = undoLog.ceilingKey(
+                    getOperationId(transactionId, 0));
+            while (undoKey != null &&
+                    getTransactionId(undoKey) == transactionId &&
+                    getLogId(undoKey) < maxLogId) {
+                undoLog.remove(undoKey);
+                undoKey = undoLog.higherKey(undoKey);
+            }
+            preparedTransactions.remove(transactionId);
+        }
+    }
+
+    /**
+     * Append the changes of a committed transaction to the redo log, after
+     * the records of all commits with a lower sequence. Such a commit made
+     * its changes visible before this one, so this transaction may depend on
+     * them; as the file is synced in order, the record of this transaction is
+     * never kept without them.
+     *
+     * @param t the transaction
+     * @param sequence the position of the commit in the commit order
+     * @param maxLogId the last log id
+     * @param changes the changes (map id, key, and the new value or null),
+     *            or null if the changes are already stored
+     */
+    private void logRedo(Transaction t, long sequence, long maxLogId,
+            ArrayList<Object[]> changes) {
+        WriteBuffer buff = changes == null ? null :
+                getRedoRecord(t, sequence, maxLogId, changes);
+        long end = -1;
+        synchronized (redoLogOrder) {
+            boolean interrupted = false;
+            while (redoLogAppended < sequence - 1) {
+                try {
+                    redoLogOrder.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            try {
+                if (buff != null) {
+                    end = redoLog.append(buff);
+                }
+            } finally {
+                redoLogAppended = sequence;
+                redoLogOrder.notifyAll();
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (end < 0) {
+            return;
+        }
+        redoLog.sync(end);
+        if (redoLog.size() > RedoLog.MAX_SIZE) {
+            // no record is appended meanwhile, as its changes might not be
+            // in the stored version
+            synchronized (redoLogOrder) {
+                if (redoLog.size() > RedoLog.MAX_SIZE) {
+                    // all logged changes are in the store after this
+                    store.commit();
+                    store.sync();
+                    redoLog.truncate();
+                }
+            }
+        }
+    }
+
+    private WriteBuffer getRedoRecord(Transaction t, long sequence,
+            long maxLogId, ArrayList<Object[]> changes) {
+        WriteBuffer buff = new WriteBuffer();
+        buff.putVarLong(sequence);
+        // the changes are stored with the next store operation
+        buff.putVarLong(store.getCurrentVersion());
+        buff.putVarInt(t.getId());
+        buff.putVarLong(maxLogId);
+        buff.putVarInt(changes.size());
+        for (Object[] c : changes) {
+            buff.putVarInt((Integer) c[0]);
+            dataType.write(buff, c[1]);
+            if (c[2] == null) {
+                buff.put((byte) 0);
+            } else {
+                buff.put((byte) 1);
+                dataType.write(buff, c[2]);
+            }
+        }
+        return buff;
+    }
+
+    /**
+     * Check whether the keys and values of the map can be written to the
+     * redo log, that is, whether they can be read again using the data type
+     * of this store.
+     *
+     * @param map the map
+     * @return true if yes
+     */
+    private boolean isLoggable(MVMap<Object, VersionedValue> map) {
+        DataType keyType = map.getKeyType();
+        DataType valueType = ((VersionedValueType) map.getValueType()).valueType;
+        return (keyType.getClass() == dataType.getClass() ||
+                keyType instanceof LongDataType) &&
+                valueType.getClass() == dataType.getClass();
+    }
+
     /**
      * Combine the transaction id and the log id to an operation id.
      *
@@ -180,8 +495,22 @@ public class TransactionStore {
      * @return the list of transactions (sorted by id)
      */
     public List<Transaction> getOpenTransactions() {
+        ArrayList<Transaction> list = New.arrayList();
+        for (MVMap<Long, Object[]> undoLog : undoLogs) {
+            addOpenTransactions(undoLog, list);
+        }
+        Collections.sort(list, new Comparator<Transaction>() {
+            @Override
+            public int compare(Transaction a, Transaction b) {
+                return a.getId() < b.getId() ? -1 : a.getId() > b.getId() ? 1 : 0;
+            }
+        });
+        return list;
+    }
+
+    private void addOpenTransactions(MVMap<Long, Object[]> undoLog,
+            ArrayList<Transaction> list) {
         synchronized (undoLog) {
-            ArrayList<Transaction> list = New.arrayList();
             Long key = undoLog.firstKey();
             while (key != null) {
                 int transactionId = getTransactionId(key);
@@ -207,7 +536,6 @@ public class TransactionStore {
                 list.add(t);
                 key = undoLog.ceilingKey(getOperationId(transactionId + 1, 0)); //读下一个事务产生的undoLog
             }
-            return list;
         }
     }
 
@@ -216,6 +544,11 @@ public class TransactionStore {
      */
     public synchronized void close() {
         store.commit();
+        if (redoLog != null) {
+            store.sync();
+            redoLog.truncate();
+            redoLog.close();
+        }
     }
 
     /**
@@ -270,6 +603,7 @@ public class TransactionStore {
             Object key, Object oldValue) {
         Long undoKey = getOperationId(t.getId(), logId);
         Object[] log = new Object[] { mapId, key, oldValue };
+        MVMap<Long, Object[]> undoLog = getUndoLog(t.getId());
         synchronized (undoLog) {
             if (logId == 0) {
                 if (undoLog.containsKey(undoKey)) {
@@ -292,6 +626,7 @@ public class TransactionStore {
      */
     public void logUndo(Transaction t, long logId) {
         Long undoKey = getOperationId(t.getId(), logId);
+        MVMap<Long, Object[]> undoLog = getUndoLog(t.getId());
         synchronized (undoLog) {
             Object[] old = undoLog.remove(undoKey);
             if (old == null) {
@@ -312,7 +647,9 @@ public class TransactionStore {
      */
     synchronized <K, V> void removeMap(TransactionMap<K, V> map) {
         maps.remove(map.mapId);
+        uncommittedCounts.remove(map.mapId);
         store.removeMap(map.map);
+        storeUnlogged();
     }
 
     /**
@@ -325,41 +662,79 @@ public class TransactionStore {
         if (store.isClosed()) {
             return;
         }
+        // only the undo log of this transaction is locked
+        MVMap<Long, Object[]> undoLog = getUndoLog(t.getId());
+        ArrayList<Object[]> redo = null;
+        long sequence = 0;
+        boolean unlogged = false;
+        if (redoLog != null && maxLogId > 0) {
+            // the sequence is taken before the committed values are
+            // visible, so that later changes of the same entries by
+            // other transactions have a higher sequence
+            sequence = redoLogSequence.incrementAndGet();
+            redo = New.arrayList();
+        }
         // TODO could synchronize on blocks (100 at a time or so)
-        synchronized (undoLog) {
-            t.setStatus(Transaction.STATUS_COMMITTING);
-            for (long logId = 0; logId < maxLogId; logId++) {
-                Long undoKey = getOperationId(t.getId(), logId);
-                Object[] op = undoLog.get(undoKey);
-                if (op == null) {
-                    // partially committed: load next
-                    undoKey = undoLog.ceilingKey(undoKey);
-                    if (undoKey == null ||
-                            getTransactionId(undoKey) != t.getId()) {
-                        break;
+        boolean committed = false;
+        try {
+            synchronized (undoLog) {
+                t.setStatus(Transaction.STATUS_COMMITTING);
+                for (long logId = 0; logId < maxLogId; logId++) {
+                    Long undoKey = getOperationId(t.getId(), logId);
+                    Object[] op = undoLog.get(undoKey);
+                    if (op == null) {
+                        // partially committed: load next
+                        undoKey = undoLog.ceilingKey(undoKey);
+                        if (undoKey == null ||
+                                getTransactionId(undoKey) != t.getId()) {
+                            break;
+                        }
+                        logId = getLogId(undoKey) - 1;
+                        continue;
                     }
-                    logId = getLogId(undoKey) - 1;
-                    continue;
-                }
-                int mapId = (Integer) op[0];
-                MVMap<Object, VersionedValue> map = openMap(mapId);
-                if (map == null) {
-                    // map was later removed
-                } else {
-                    Object key = op[1];
-                    VersionedValue value = map.get(key);
-                    if (value == null) {
-                        // nothing to do
-                    } else if (value.value == null) {
-                        // remove the value
-                        map.remove(key);
+                    int mapId = (Integer) op[0];
+                    MVMap<Object, VersionedValue> map = openMap(mapId);
+                    if (map == null) {
+                        // map was later removed
                     } else {
-                        VersionedValue v2 = new VersionedValue();
-                        v2.value = value.value;
-                        map.put(key, v2);
+                        Object key = op[1];
+                        VersionedValue value = map.get(key);
+                        if (value == null) {
+                            // nothing to do
+                        } else {
+                            if (op[2] == null) {
+                                // the entry was added by this transaction
+                                getUncommittedCount(mapId).decrementAndGet();
+                            }
+                            if (value.value == null) {
+                                // remove the value
+                                map.remove(key);
+                            } else {
+                                VersionedValue v2 = new VersionedValue();
+                                v2.value = value.value;
+                                map.put(key, v2);
+                            }
+                            if (redo != null) {
+                                if (isLoggable(map)) {
+                                    redo.add(new Object[] { mapId, key, value.value });
+                                } else {
+                                    unlogged = true;
+                                }
+                            }
+                        }
                     }
+                    undoLog.remove(undoKey);
                 }
-                undoLog.remove(undoKey);
+            }
+            if (unlogged) {
+                storeUnlogged();
+                redo = null;
+            }
+            committed = true;
+        } finally {
+            if (sequence != 0) {
+                // after a failure, the turn of this commit is passed on
+                logRedo(t, sequence, maxLogId, committed ? redo : null);
             }
         }
         endTransaction(t);
@@ -384,10 +759,16 @@ public class TransactionStore {
         }
         VersionedValueType vt = new VersionedValueType(valueType);
         MVMap<K, VersionedValue> map;
-        MVMap.Builder<K, VersionedValue> builder =
-                new MVMap.Builder<K, VersionedValue>().
+        // concurrent writes to the same table should not block each other
+        MVMapConcurrent.Builder<K, VersionedValue> builder =
+                new MVMapConcurrent.Builder<K, VersionedValue>().
                 keyType(keyType).valueType(vt);
+        boolean created = !store.hasMap(name);
         map = store.openMap(name, builder);
+        if (created) {
+            // the redo log refers to maps by id
+            storeUnlogged();
+        }
         @SuppressWarnings("unchecked")
         MVMap<Object, VersionedValue> m = (MVMap<Object, VersionedValue>) map;
         maps.put(map.getId(), m);
@@ -411,14 +792,40 @@ public class TransactionStore {
             return null;
         }
         VersionedValueType vt = new VersionedValueType(dataType);
-        MVMap.Builder<Object, VersionedValue> mapBuilder =
-                new MVMap.Builder<Object, VersionedValue>().
+        MVMapConcurrent.Builder<Object, VersionedValue> mapBuilder =
+                new MVMapConcurrent.Builder<Object, VersionedValue>().
                 keyType(dataType).valueType(vt);
         map = store.openMap(mapName, mapBuilder);
         maps.put(mapId, map);
         return map;
     }
 
+    /**
+     * Get the number of entries of the given map that were added by open
+     * transactions.
+     *
+     * @param mapId the map id
+     * @return the counter
+     */
+    synchronized AtomicLong getUncommittedCount(int mapId) {
+        AtomicLong count = uncommittedCounts.get(mapId);
+        if (count == null) {
+            count = new AtomicLong();
+            uncommittedCounts.put(mapId, count);
+        }
+        return count;
+    }
+
+    /**
+     * Check whether the given value is an existing entry.
+     *
+     * @param value the value
+     * @return 1 if the entry exists, 0 if not
+     */
+    static int isVisible(VersionedValue value) {
+        return value == null || value.value == null ? 0 : 1;
+    }
+
     /**
      * Create a temporary map. Such maps are removed when opening the store.
      *
@@ -447,27 +854,31 @@ public class TransactionStore {
      *
      * @param t the transaction
      */
-    synchronized void endTransaction(Transaction t) {
-        if (t.getStatus() == Transaction.STATUS_PREPARED) {
-            preparedTransactions.remove(t.getId());
-        }
-        t.setStatus(Transaction.STATUS_CLOSED);
-        openTransactions.clear(t.transactionId);
-        if (store.getAutoCommitDelay() == 0) {
-            store.commit();
-            return;
-        }
-        // to avoid having to store the transaction log,
-        // if there is no open transaction,
-        // and if there have been many changes, store them now
-        if (undoLog.isEmpty()) {
-            int unsaved = store.getUnsavedMemory();
-            int max = store.getAutoCommitMemory();
-            // save at 3/4 capacity
-            if (unsaved * 4 > max * 3) {
-                store.commit();
+    void endTransaction(Transaction t) {
+        synchronized (this) {
+            if (t.getStatus() == Transaction.STATUS_PREPARED) {
+                preparedTransactions.remove(t.getId());
+            }
+            t.setStatus(Transaction.STATUS_CLOSED);
+            openTransactions.clear(t.transactionId);
+            if (store.getAutoCommitDelay() != 0 || redoLog != null) {
+                // to avoid having to store the transaction log,
+                // if there is no open transaction,
+                // and if there have been many changes, store them now
+                if (getUndoLogSize() == 0) {
+                    int unsaved = store.getUnsavedMemory();
+                    int max = store.getAutoCommitMemory();
+                    // save at 3/4 capacity
+                    if (unsaved * 4 > max * 3) {
+                        store.commit();
+                    }
+                }
+                return;
             }
         }
+        // outside of the lock, so that concurrent commits
+        // are stored together
+        store.commitGroup(syncOnCommit);
     }
 
     /**
@@ -478,6 +889,7 @@ public class TransactionStore {
      * @param toLogId the log id to roll back to
      */
     void rollbackTo(Transaction t, long maxLogId, long toLogId) {
+        MVMap<Long, Object[]> undoLog = getUndoLog(t.getId());
         // TODO could synchronize on blocks (100 at a time or so)
         synchronized (undoLog) {
             for (long logId = maxLogId - 1; logId >= toLogId; logId--) {
@@ -498,12 +910,22 @@ public class TransactionStore {
                 if (map != null) {
                     Object key = op[1];
                     VersionedValue oldValue = (VersionedValue) op[2];
+                    VersionedValue value;
                     if (oldValue == null) {
                         // this transaction added the value
-                        map.remove(key);
+                        value = map.remove(key);
+                        if (value != null) {
+                            getUncommittedCount(mapId).decrementAndGet();
+                        }
                     } else {
                         // this transaction updated the value
-                        map.put(key, oldValue);
+                        value = map.put(key, oldValue);
+                    }
+                    if (value != null) {
+                        // (if the map was cleared, the old value is now
+                        // visible to all transactions)
+                        t.addSizeChange(mapId,
+                                isVisible(oldValue) - isVisible(value));
                     }
                 }
                 undoLog.remove(undoKey);
@@ -524,6 +946,8 @@ public class TransactionStore {
             final long toLogId) {
         return new Iterator<Change>() {
 
+            private final MVMap<Long, Object[]> undoLog =
+                    getUndoLog(t.getId());
             private long logId = maxLogId - 1;
             private Change current;
 
@@ -652,6 +1076,13 @@ public class TransactionStore {
          */
         long logId;
 
+        /**
+         * The number of entries this transaction added minus the number of
+         * entries it removed, per map (key: map id). This is null for
+         * transactions that were re-opened, as the changes are not known.
+         */
+        private final HashMap<Integer, long[]> sizeChanges;
+
         private int status;
 
         private String name;
@@ -663,6 +1094,7 @@ public class TransactionStore {
             this.status = status;
             this.name = name;
             this.logId = logId;
+            sizeChanges = logId == 0 ? New.<Integer, long[]>hashMap() : null;
         }
 
         public int getId() {
@@ -716,6 +1148,24 @@ public class TransactionStore {
             store.logUndo(this, --logId);
         }
 
+        /**
+         * Update the number of entries this transaction added to the map.
+         *
+         * @param mapId the map id
+         * @param change the number of added entries (negative if removed)
+         */
+        void addSizeChange(int mapId, long change) {
+            if (sizeChanges == null || change == 0) {
+                return;
+            }
+            long[] c = sizeChanges.get(mapId);
+            if (c == null) {
+                c = new long[1];
+                sizeChanges.put(mapId, c);
+            }
+            c[0] += change;
+        }
+
         /**
          * Open a data map.
          *
@@ -871,11 +1321,18 @@ public class TransactionStore {
 
         private Transaction transaction;
 
+        /**
+         * The number of entries of the map that were added by open
+         * transactions.
+         */
+        private final AtomicLong uncommittedCount;
+
         TransactionMap(Transaction transaction, MVMap<K, VersionedValue> map,
                 int mapId) {
             this.transaction = transaction;
             this.map = map;
             this.mapId = mapId;
+            uncommittedCount = transaction.store.getUncommittedCount(mapId);
         }
 
         /**
@@ -919,12 +1376,16 @@ public class TransactionStore {
          * @return the size
          */
         public long sizeAsLong() {
-            long sizeRaw = map.sizeAsLong();
-            MVMap<Long, Object[]> undo = transaction.store.undoLog;
-            long undoLogSize;
-            synchronized (undo) {
-                undoLogSize = undo.sizeAsLong();
+            if (transaction.sizeChanges != null &&
+                    readLogId >= transaction.logId) {
+                // the committed entries plus the changes of this transaction;
+                // this may be off while other transactions are committing
+                long[] change = transaction.sizeChanges.get(mapId);
+                return map.sizeAsLong() - uncommittedCount.get() +
+                        (change == null ? 0 : change[0]);
             }
+            long sizeRaw = map.sizeAsLong();
+            long undoLogSize = transaction.store.getUndoLogSize();
             if (undoLogSize == 0) {
                 return sizeRaw;
             }
@@ -934,11 +1395,9 @@ public class TransactionStore {
                 long size = 0;
                 Cursor<K, VersionedValue> cursor = map.cursor(null);
                 while (cursor.hasNext()) {
-                    VersionedValue data;
-                    synchronized (transaction.store.undoLog) {
-                        K key = cursor.next();
-                        data = getValue(key, readLogId, cursor.getValue());
-                    }
+                    K key = cursor.next();
+                    VersionedValue data = getValue(key, readLogId,
+                            cursor.getValue());
                     if (data != null && data.value != null) {
                         size++;
                     }
@@ -946,35 +1405,37 @@ public class TransactionStore {
                 return size;
             }
             // the undo log is smaller than the map -
-            // scan the undo log and subtract invisible entries
-            synchronized (undo) {
-                // re-fetch in case any transaction was committed now
-                long size = map.sizeAsLong();
-                MVMap<Object, Integer> temp = transaction.store.createTempMap();
-                try {
-                    for (Entry<Long, Object[]> e : undo.entrySet()) {
-                        Object[] op = e.getValue();
-                        int m = (Integer) op[0];
-                        if (m != mapId) {
-                            // a different map - ignore
-                            continue;
-                        }
-                        @SuppressWarnings("unchecked")
-                        K key = (K) op[1];
-                        if (get(key) == null) {
-                            Integer old = temp.put(key, 1);
-                            // count each key only once (there might be multiple
-                            // changes for the same key)
-                            if (old == null) {
-                                size--;
+            // scan the undo logs and subtract invisible entries
+            // re-fetch in case any transaction was committed now
+            long size = map.sizeAsLong();
+            MVMap<Object, Integer> temp = transaction.store.createTempMap();
+            try {
+                for (MVMap<Long, Object[]> undo : transaction.store.undoLogs) {
+                    synchronized (undo) {
+                        for (Entry<Long, Object[]> e : undo.entrySet()) {
+                            Object[] op = e.getValue();
+                            int m = (Integer) op[0];
+                            if (m != mapId) {
+                                // a different map - ignore
+                                continue;
+                            }
+                            @SuppressWarnings("unchecked")
+                            K key = (K) op[1];
+                            if (get(key) == null) {
+                                Integer old = temp.put(key, 1);
+                                // count each key only once (there might be
+                                // multiple changes for the same key)
+                                if (old == null) {
+                                    size--;
+                                }
                             }
                         }
                     }
-                } finally {
-                    transaction.store.store.removeMap(temp);
                 }
-                return size;
+            } finally {
+                transaction.store.store.removeMap(temp);
             }
+            return size;
         }
 
         /**
@@ -1008,6 +1469,8 @@ public class TransactionStore {
 
         /**
          * Update the value for the given key, without adding an undo log entry.
+         * The change is not written to the redo log; if one is used, call
+         * TransactionStore.storeUnlogged after the last change.
          *
          * @param key the key
          * @param value the value
@@ -1022,6 +1485,43 @@ public class TransactionStore {
             return (V) (oldValue == null ? null : oldValue.value);
         }
 
+        /**
+         * Add the given keys with the same value, without adding undo log
+         * entries. The keys must be sorted and there may be no duplicates. If
+         * the map is empty, the pages are built bottom-up (see
+         * MVMap.putAllSorted). The changes are not written to the redo log, so
+         * they are stored and synced afterwards if a redo log is used.
+         *
+         * @param keys the keys, in ascending order
+         * @param value the value
+         */
+        public void putAllCommittedSorted(final Iterator<K> keys, final V value) {
+            DataUtils.checkArgument(value != null, "The value may not be null");
+            map.putAllSorted(new Iterator<Entry<K, VersionedValue>>() {
+
+                @Override
+                public boolean hasNext() {
+                    return keys.hasNext();
+                }
+
+                @Override
+                public Entry<K, VersionedValue> next() {
+                    VersionedValue v = new VersionedValue();
+                    v.value = value;
+                    return new DataUtils.MapEntry<K, VersionedValue>(
+                            keys.next(), v);
+                }
+
+                @Override
+                public void remove() {
+                    throw DataUtils.newUnsupportedOperationException(
+                            "Removing is not supported");
+                }
+
+            });
+            transaction.store.storeUnlogged();
+        }
+
         private V set(K key, V value) {
             transaction.checkNotClosed();
             V old = get(key);
@@ -1108,6 +1608,8 @@ public class TransactionStore {
                     transaction.logUndo();
                     return false;
                 }
+                uncommittedCount.incrementAndGet();
+                transaction.addSizeChange(mapId, isVisible(newValue));
                 return true;
             }
             long id = current.operationId;
@@ -1121,6 +1623,8 @@ public class TransactionStore {
                     transaction.logUndo();
                     return false;
                 }
+                transaction.addSizeChange(mapId,
+                        isVisible(newValue) - isVisible(current));
                 return true;
             }
             int tx = getTransactionId(current.operationId);
@@ -1133,6 +1637,8 @@ public class TransactionStore {
                     transaction.logUndo();
                     return false;
                 }
+                transaction.addSizeChange(mapId,
+                        isVisible(newValue) - isVisible(current));
                 return true;
             }
             // the transaction is not yet committed
@@ -1200,14 +1706,8 @@ public class TransactionStore {
         }
 
         private VersionedValue getValue(K key, long maxLog) {
-            synchronized (getUndoLog()) {
-                VersionedValue data = map.get(key);
-                return getValue(key, maxLog, data);
-            }
-        }
-
-        Object getUndoLog() {
-            return transaction.store.undoLog;
+            VersionedValue data = map.get(key);
+            return getValue(key, maxLog, data);
         }
 
         /**
@@ -1221,13 +1721,7 @@ public class TransactionStore {
         VersionedValue getValue(K key, long maxLog, VersionedValue data) {
             //基本思路是: data最先是从map中取出的值，如果为null，说明在map中没有了，如果有且operationId是0，说明是已提交的。
             //不满足这两条件，再从undo log中按operationId找
-            if (MVStore.ASSERT) {
-                if (!Thread.holdsLock(getUndoLog())) {
-                    throw DataUtils.newIllegalStateException(
-                            DataUtils.ERROR_INTERNAL,
-                            "not synchronized on undoLog");
-                }
-            }
+            //只锁住修改该记录的事务所在的undo log，而不是所有的undo log
             while (true) {
                 if (data == null) {
                     // doesn't exist or deleted by a committed transaction
@@ -1247,7 +1741,10 @@ public class TransactionStore {
                 }
                 // get the value before the uncommitted transaction
                 Object[] d;
-                d = transaction.store.undoLog.get(id);
+                MVMap<Long, Object[]> undo = transaction.store.getUndoLog(tx);
+                synchronized (undo) {
+                    d = undo.get(id);
+                }
                 if (d == null) {
                     // this entry should be committed or rolled back
                     // in the meantime (the transaction might still be open)
@@ -1275,6 +1772,11 @@ public class TransactionStore {
         public void clear() {
             // TODO truncate transactionally?
             map.clear();
+            uncommittedCount.set(0);
+            if (transaction.sizeChanges != null) {
+                transaction.sizeChanges.remove(mapId);
+            }
+            transaction.store.storeUnlogged();
         }
 
         /**
@@ -1456,39 +1958,37 @@ public class TransactionStore {
 
                 private void fetchNext() {
                     while (cursor.hasNext()) {
-                        synchronized (getUndoLog()) {
-                            K k;
-                            try {
-                                k = cursor.next();
-                            } catch (IllegalStateException e) {
-                                // TODO this is a bit ugly
-                                if (DataUtils.getErrorCode(e.getMessage()) ==
-                                        DataUtils.ERROR_CHUNK_NOT_FOUND) {
-                                    cursor = map.cursor(currentKey);
-                                    // we (should) get the current key again,
-                                    // we need to ignore that one
-                                    if (!cursor.hasNext()) {
-                                        break;
-                                    }
-                                    cursor.next();
-                                    if (!cursor.hasNext()) {
-                                        break;
-                                    }
-                                    k = cursor.next();
-                                } else {
-                                    throw e;
+                        K k;
+                        try {
+                            k = cursor.next();
+                        } catch (IllegalStateException e) {
+                            // TODO this is a bit ugly
+                            if (DataUtils.getErrorCode(e.getMessage()) ==
+                                    DataUtils.ERROR_CHUNK_NOT_FOUND) {
+                                cursor = map.cursor(currentKey);
+                                // we (should) get the current key again,
+                                // we need to ignore that one
+                                if (!cursor.hasNext()) {
+                                    break;
                                 }
+                                cursor.next();
+                                if (!cursor.hasNext()) {
+                                    break;
+                                }
+                                k = cursor.next();
+                            } else {
+                                throw e;
                             }
-                            final K key = k;
-                            VersionedValue data = cursor.getValue();
-                            data = getValue(key, readLogId, data);
-                            if (data != null && data.value != null) {
-                                @SuppressWarnings("unchecked")
-                                final V value = (V) data.value;
-                                current = new DataUtils.MapEntry<K, V>(key, value);
-                                currentKey = key;
-                                return;
-                            }
+                        }
+                        final K key = k;
+                        VersionedValue data = cursor.getValue();
+                        data = getValue(key, readLogId, data);
+                        if (data != null && data.value != null) {
+                            @SuppressWarnings("unchecked")
+                            final V value = (V) data.value;
+                            current = new DataUtils.MapEntry<K, V>(key, value);
+                            currentKey = key;
+                            return;
                         }
                     }
                     current = null;
@@ -54,7 +54,7 @@ import org.h2.value.ValueUuid;
 public class ValueDataType implements DataType {
 
     private static final int INT_0_15 = 32;
-    private static final int LONG_0_7 = 48;
+    static final int LONG_0_7 = 48;
     private static final int DECIMAL_0_1 = 56;
     private static final int DECIMAL_SMALL_0 = 58;
     private static final int DECIMAL_SMALL = 59;
@@ -63,7 +63,7 @@ public class ValueDataType implements DataType {
     private static final int BOOLEAN_FALSE = 64;
     private static final int BOOLEAN_TRUE = 65;
     private static final int INT_NEG = 66;
-    private static final int LONG_NEG = 67;
+    static final int LONG_NEG = 67;
     private static final int STRING_0_31 = 68;
     private static final int BYTES_0_31 = 100;
     private static final int SPATIAL_KEY_2D = 132;
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.db;
+
+import java.nio.ByteBuffer;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.LongDataType;
+import org.h2.value.Value;
+import org.h2.value.ValueLong;
+
+/**
+ * The key type of the primary index (the row keys). The keys are ValueLong
+ * objects, but the pages keep them as primitive longs. The format is the same
+ * as the one of ValueDataType.
+ */
+public class ValueLongDataType extends LongDataType {
+
+    @Override
+    public long toLong(Object key) {
+        return ((Value) key).getLong();
+    }
+
+    @Override
+    public Object fromLong(long x) {
+        return ValueLong.get(x);
+    }
+
+    @Override
+    protected void writeLong(WriteBuffer buff, long x) {
+        if (x < 0) {
+            buff.put((byte) ValueDataType.LONG_NEG).putVarLong(-x);
+        } else if (x < 8) {
+            buff.put((byte) (ValueDataType.LONG_0_7 + x));
+        } else {
+            buff.put((byte) Value.LONG).putVarLong(x);
+        }
+    }
+
+    @Override
+    protected long readLong(ByteBuffer buff) {
+        int type = buff.get() & 255;
+        switch (type) {
+        case ValueDataType.LONG_NEG:
+            return -DataUtils.readVarLong(buff);
+        case Value.LONG:
+            return DataUtils.readVarLong(buff);
+        }
+        if (type < ValueDataType.LONG_0_7 ||
+                type >= ValueDataType.LONG_0_7 + 8) {
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_FILE_CORRUPT,
+                    "Expected a long, got type {0}", type);
+        }
+        return type - ValueDataType.LONG_0_7;
+    }
+
+}
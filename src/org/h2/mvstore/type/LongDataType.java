@@ -0,0 +1,162 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.type;
+
+import java.nio.ByteBuffer;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+
+/**
+ * A data type for keys that can be represented as a primitive long. The pages
+ * of a map with this key type keep the keys in a long array, and search them
+ * without calling compare, which saves the memory of the key objects.
+ * <p>
+ * This class is for java.lang.Long keys, and uses the same format as
+ * ObjectDataType, so that existing maps can be opened with this type.
+ * Subclasses can support other key classes by overriding the conversion and
+ * serialization methods.
+ */
+public class LongDataType implements DataType {
+
+    /**
+     * The memory used by a key in a page.
+     */
+    public static final int KEY_MEMORY = 8;
+
+    /**
+     * Convert a key to a long.
+     *
+     * @param key the key
+     * @return the long value
+     */
+    public long toLong(Object key) {
+        return ((Long) key).longValue();
+    }
+
+    /**
+     * Convert a long to a key object.
+     *
+     * @param x the long value
+     * @return the key
+     */
+    public Object fromLong(long x) {
+        return Long.valueOf(x);
+    }
+
+    @Override
+    public int compare(Object a, Object b) {
+        long x = toLong(a), y = toLong(b);
+        return x < y ? -1 : x > y ? 1 : 0;
+    }
+
+    @Override
+    public int getMemory(Object obj) {
+        return KEY_MEMORY;
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object obj) {
+        writeLong(buff, toLong(obj));
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            writeLong(buff, toLong(obj[i]));
+        }
+    }
+
+    /**
+     * Write a list of keys.
+     *
+     * @param buff the target buffer
+     * @param keys the keys
+     * @param len the number of keys
+     */
+    public void write(WriteBuffer buff, long[] keys, int len) {
+        for (int i = 0; i < len; i++) {
+            writeLong(buff, keys[i]);
+        }
+    }
+
+    @Override
+    public Object read(ByteBuffer buff) {
+        return fromLong(readLong(buff));
+    }
+
+    @Override
+    public void read(ByteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            obj[i] = fromLong(readLong(buff));
+        }
+    }
+
+    /**
+     * Read a list of keys.
+     *
+     * @param buff the source buffer
+     * @param keys the target array
+     * @param len the number of keys
+     */
+    public void read(ByteBuffer buff, long[] keys, int len) {
+        for (int i = 0; i < len; i++) {
+            keys[i] = readLong(buff);
+        }
+    }
+
+    /**
+     * Write a key.
+     *
+     * @param buff the target buffer
+     * @param x the key
+     */
+    protected void writeLong(WriteBuffer buff, long x) {
+        if (x < 0) {
+            // -Long.MIN_VALUE is smaller than 0
+            if (-x < 0 || -x > DataUtils.COMPRESSED_VAR_LONG_MAX) {
+                buff.put((byte) ObjectDataType.TAG_LONG_FIXED);
+                buff.putLong(x);
+            } else {
+                buff.put((byte) ObjectDataType.TAG_LONG_NEGATIVE);
+                buff.putVarLong(-x);
+            }
+        } else if (x <= 7) {
+            buff.put((byte) (ObjectDataType.TAG_LONG_0_7 + x));
+        } else if (x <= DataUtils.COMPRESSED_VAR_LONG_MAX) {
+            buff.put((byte) ObjectDataType.TYPE_LONG);
+            buff.putVarLong(x);
+        } else {
+            buff.put((byte) ObjectDataType.TAG_LONG_FIXED);
+            buff.putLong(x);
+        }
+    }
+
+    /**
+     * Read a key.
+     *
+     * @param buff the source buffer
+     * @return the key
+     */
+    protected long readLong(ByteBuffer buff) {
+        int tag = buff.get();
+        switch (tag) {
+        case ObjectDataType.TYPE_LONG:
+            return DataUtils.readVarLong(buff);
+        case ObjectDataType.TAG_LONG_NEGATIVE:
+            return -DataUtils.readVarLong(buff);
+        case ObjectDataType.TAG_LONG_FIXED:
+            return buff.getLong();
+        }
+        if (tag < ObjectDataType.TAG_LONG_0_7 ||
+                tag > ObjectDataType.TAG_LONG_0_7 + 7) {
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_FILE_CORRUPT,
+                    "Expected a long, got tag {0}", tag);
+        }
+        return tag - ObjectDataType.TAG_LONG_0_7;
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.result;
+
+import org.h2.command.Command;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.expression.Expression;
+import org.h2.message.DbException;
+import org.h2.value.Value;
+
+/**
+ * A result that computes the rows only when they are read, so that the first
+ * row is available immediately, and the rows don't need to be kept in memory.
+ * The rows can only be read once, in order. The number of rows is not known
+ * until all rows were read.
+ * <p>
+ * The statement of the command that created the result only ends when all
+ * rows were read or the result is closed.
+ * </p>
+ */
+//与LocalResult不同，LazyResult在next()时才从TableFilter中读取下一行，
+//用于server端只能向前读的结果集，client端fetch多少行server端才计算多少行
+public abstract class LazyResult implements ResultInterface {
+
+    private final Session session;
+    private final Expression[] expressions;
+    private final int visibleColumnCount;
+    private Command command;
+    private Value[] currentRow;
+    private Value[] nextRow;
+    private int rowId = -1;
+    private boolean end, afterLast, closed;
+    private int fetchSize;
+
+    protected LazyResult(Session session, Expression[] expressions,
+            int visibleColumnCount) {
+        this.session = session;
+        this.expressions = expressions;
+        this.visibleColumnCount = visibleColumnCount;
+    }
+
+    /**
+     * Set the command that is stopped when all rows were read or the result
+     * is closed.
+     *
+     * @param command the command
+     */
+    public void setCommand(Command command) {
+        this.command = command;
+    }
+
+    /**
+     * Compute the next row. This method is called while the database (or the
+     * session in multi-threaded mode) is locked.
+     *
+     * @return the row, or null if there are no more rows
+     */
+    protected abstract Value[] fetchNextRow();
+
+    private Value[] fetch() {
+        if (end) {
+            return null;
+        }
+        Database db = session.getDatabase();
+        Object sync = db.isMultiThreaded() ? (Object) session : (Object) db;
+        Value[] row;
+        try {
+            synchronized (sync) {
+                row = fetchNextRow();
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw DbException.convert(e);
+        }
+        if (row == null) {
+            end = true;
+            stopCommand();
+        }
+        return row;
+    }
+
+    /**
+     * Check if there is another row, without moving to it. The next row may
+     * need to be computed.
+     *
+     * @return true if next() will return true
+     */
+    public boolean hasNext() {
+        if (closed || afterLast) {
+            return false;
+        }
+        if (nextRow == null) {
+            nextRow = fetch();
+        }
+        return nextRow != null;
+    }
+
+    @Override
+    public boolean next() {
+        if (closed || afterLast) {
+            return false;
+        }
+        rowId++;
+        if (nextRow != null) {
+            currentRow = nextRow;
+            nextRow = null;
+        } else {
+            currentRow = fetch();
+        }
+        if (currentRow == null) {
+            afterLast = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void stopCommand() {
+        if (command != null) {
+            Command c = command;
+            command = null;
+            c.stopLazy();
+        }
+    }
+
+    @Override
+    public void reset() {
+        throw DbException.getUnsupportedException("reset of a lazy result");
+    }
+
+    @Override
+    public Value[] currentRow() {
+        return currentRow;
+    }
+
+    @Override
+    public int getRowId() {
+        return rowId;
+    }
+
+    @Override
+    public int getVisibleColumnCount() {
+        return visibleColumnCount;
+    }
+
+    @Override
+    public int getRowCount() {
+        return afterLast ? rowId : -1;
+    }
+
+    @Override
+    public boolean needToClose() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        currentRow = null;
+        nextRow = null;
+        stopCommand();
+    }
+
+    /**
+     * Check if this result is closed.
+     *
+     * @return true if it is
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public String getAlias(int i) {
+        return expressions[i].getAlias();
+    }
+
+    @Override
+    public String getTableName(int i) {
+        return expressions[i].getTableName();
+    }
+
+    @Override
+    public String getSchemaName(int i) {
+        return expressions[i].getSchemaName();
+    }
+
+    @Override
+    public int getDisplaySize(int i) {
+        return expressions[i].getDisplaySize();
+    }
+
+    @Override
+    public String getColumnName(int i) {
+        return expressions[i].getColumnName();
+    }
+
+    @Override
+    public int getColumnType(int i) {
+        return expressions[i].getType();
+    }
+
+    @Override
+    public long getColumnPrecision(int i) {
+        return expressions[i].getPrecision();
+    }
+
+    @Override
+    public int getNullable(int i) {
+        return expressions[i].getNullable();
+    }
+
+    @Override
+    public boolean isAutoIncrement(int i) {
+        return expressions[i].isAutoIncrement();
+    }
+
+    @Override
+    public int getColumnScale(int i) {
+        return expressions[i].getScale();
+    }
+
+    @Override
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    @Override
+    public String toString() {
+        return "columns: " + visibleColumnCount + " pos: " + rowId;
+    }
+
+}
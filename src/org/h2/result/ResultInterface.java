@@ -8,7 +8,8 @@ package org.h2.result;
 import org.h2.value.Value;
 
 /**
- * The result interface is used by the LocalResult and ResultRemote class.
+ * The result interface is used by the LocalResult, LazyResult and
+ * ResultRemote class.
  * A result may contain rows, or just an update count.
  */
 public interface ResultInterface {
@@ -50,9 +51,10 @@ public interface ResultInterface {
     int getVisibleColumnCount();
 
     /**
-     * Get the number of rows in this object.
+     * Get the number of rows in this object. For a result that computes the
+     * rows when they are read, -1 is returned until all rows were read.
      *
-     * @return the number of rows
+     * @return the number of rows, or -1 if not yet known
      */
     int getRowCount();
 
@@ -7,6 +7,9 @@ package org.h2.result;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import org.h2.api.ErrorCode;
+import org.h2.engine.Constants;
+import org.h2.engine.PendingResponse;
 import org.h2.engine.SessionRemote;
 import org.h2.engine.SysProperties;
 import org.h2.message.DbException;
@@ -18,12 +21,14 @@ import org.h2.value.Value;
 /**
  * The client side part of a result set that is kept on the server.
  * In many cases, the complete data is kept on the client side,
- * but for large results only a subset is in-memory.
+ * but for large results only a subset is in-memory. The next rows of a large
+ * result are requested as soon as the previous rows arrive, so that they are
+ * transferred while the application reads the previous rows.
  */
 //RowList用于执行update、delete时存放先读取出来的记录
 //LocalResult用于在server端执行select时存放查询结果
 //ResultRemote用于存放client端从server端返回的结果
-public class ResultRemote implements ResultInterface {
+public class ResultRemote implements ResultInterface, PendingResponse {
 
     private int fetchSize;
     private SessionRemote session;
@@ -31,11 +36,46 @@ public class ResultRemote implements ResultInterface {
     private int id;
     private final ResultColumn[] columns;
     private Value[] currentRow;
-    private final int rowCount;
+    /**
+     * The number of rows, or -1 if the result is computed lazily on the
+     * server and the end was not reached yet.
+     */
+    private int rowCount;
     private int rowId, rowOffset;
     private ArrayList<Value[]> result;
     private final Trace trace;
 
+    /**
+     * The number of rows received so far, including the prefetched rows.
+     */
+    private int received;
+
+    /**
+     * The number of rows to request with the next fetch request. It starts
+     * with the fetch size, and grows while the application has to wait for
+     * the rows.
+     */
+    private int nextFetchSize;
+
+    /**
+     * The estimated memory of a row of the last batch.
+     */
+    private int rowMemory;
+
+    /**
+     * Whether the next rows were requested, but the response was not read
+     * yet.
+     */
+    private boolean prefetching;
+    private int prefetchCount;
+
+    /**
+     * The rows of the response that was read ahead, and the exception the
+     * server sent instead.
+     */
+    private ArrayList<Value[]> prefetched;
+    private DbException fetchError;
+
     public ResultRemote(SessionRemote session, Transfer transfer, int id,
             int columnCount, int fetchSize) throws IOException {
         this.session = session;
@@ -50,6 +90,7 @@ public class ResultRemote implements ResultInterface {
         rowId = -1;
         result = New.arrayList();
         this.fetchSize = fetchSize;
+        nextFetchSize = fetchSize;
         fetchRows(false);
     }
 
@@ -113,6 +154,11 @@ public class ResultRemote implements ResultInterface {
         synchronized (session) {
             session.checkClosed();
             try {
+                if (prefetching) {
+                    session.readPending(transfer);
+                }
+                prefetched = null;
+                fetchError = null;
                 session.traceOperation("RESULT_RESET", id);
                 transfer.writeInt(SessionRemote.RESULT_RESET).writeInt(id).flush();
             } catch (IOException e) {
@@ -128,15 +174,17 @@ public class ResultRemote implements ResultInterface {
 
     @Override
     public boolean next() {
-        if (rowId < rowCount) {
+        if (rowCount < 0 || rowId < rowCount) {
             rowId++;
             remapIfOld();
-            if (rowId < rowCount) {
+            if (rowCount < 0 || rowId < rowCount) {
                 if (rowId - rowOffset >= result.size()) {
                     fetchRows(true);
                 }
-                currentRow = result.get(rowId - rowOffset);
-                return true;
+                if (rowId - rowOffset < result.size()) {
+                    currentRow = result.get(rowId - rowOffset);
+                    return true;
+                }
             }
             currentRow = null;
         }
@@ -179,6 +227,7 @@ public class ResultRemote implements ResultInterface {
     @Override
     public void close() {
         result = null;
+        prefetched = null;
         sendClose();
     }
 
@@ -207,29 +256,43 @@ public class ResultRemote implements ResultInterface {
             session.checkClosed();
             try {
                 rowOffset += result.size();
-                result.clear();
-                int fetch = Math.min(fetchSize, rowCount - rowOffset);
-                if (sendFetch) {
-                    session.traceOperation("RESULT_FETCH_ROWS", id);
-                    transfer.writeInt(SessionRemote.RESULT_FETCH_ROWS).
-                            writeInt(id).writeInt(fetch);
-                    session.done(transfer);
-                }
-                for (int r = 0; r < fetch; r++) {
-                    boolean row = transfer.readBoolean();
-                    if (!row) {
-                        break;
+                if (!sendFetch) {
+                    // the first rows are sent together with the result
+                    result = readRows(transfer, getFetchCount());
+                } else {
+                    if (!prefetching && prefetched == null) {
+                        requestRows();
                     }
-                    int len = columns.length;
-                    Value[] values = new Value[len];
-                    for (int i = 0; i < len; i++) {
-                        Value v = transfer.readValue();
-                        values[i] = v;
+                    if (prefetching) {
+                        if (transfer.available() == 0) {
+                            // the application reads the rows faster
+                            // than they arrive
+                            growFetchSize();
+                        }
+                        session.readPending(transfer);
+                    }
+                    if (prefetching) {
+                        // the response was lost, for example
+                        // after re-connecting
+                        prefetching = false;
+                        throw DbException.get(
+                                ErrorCode.CONNECTION_BROKEN_1, "fetch");
+                    }
+                    result = prefetched;
+                    prefetched = null;
+                    if (fetchError != null) {
+                        DbException e = fetchError;
+                        fetchError = null;
+                        result = New.arrayList();
+                        throw e;
                     }
-                    result.add(values);
                 }
-                if (rowOffset + result.size() >= rowCount) {
+                if (rowCount >= 0 && received >= rowCount) {
                     sendClose();
+                } else if (session.isPipelined()) {
+                    // request the next rows now, so that they are
+                    // transferred while the application reads these rows
+                    requestRows();
                 }
             } catch (IOException e) {
                 throw DbException.convertIOException(e, null);
@@ -237,6 +300,100 @@ public class ResultRemote implements ResultInterface {
         }
     }
 
+    private int getFetchCount() {
+        if (rowCount < 0) {
+            return Math.max(1, nextFetchSize);
+        }
+        return Math.min(nextFetchSize, rowCount - received);
+    }
+
+    /**
+     * Send the request for the next rows. The response is read by
+     * readResponse, when the rows are needed or before the response of the
+     * next request.
+     */
+    private void requestRows() throws IOException {
+        prefetchCount = getFetchCount();
+        session.traceOperation("RESULT_FETCH_ROWS", id);
+        transfer.writeInt(SessionRemote.RESULT_FETCH_ROWS).
+                writeInt(id).writeInt(prefetchCount);
+        transfer.flush();
+        prefetching = true;
+        session.addPending(this);
+    }
+
+    /**
+     * Read the response of the request for the next rows. The rows are kept
+     * until the application needs them. An exception sent by the server is
+     * thrown at that point.
+     *
+     * @param s the session
+     * @param trans the transfer object
+     */
+    @Override
+    public void readResponse(SessionRemote s, Transfer trans)
+            throws IOException {
+        prefetching = false;
+        try {
+            s.readStatus(trans);
+        } catch (DbException e) {
+            fetchError = e;
+            prefetched = New.arrayList();
+            return;
+        }
+        prefetched = readRows(trans, prefetchCount);
+    }
+
+    private ArrayList<Value[]> readRows(Transfer trans, int fetch)
+            throws IOException {
+        ArrayList<Value[]> rows = New.arrayList();
+        boolean lazy = rowCount < 0;
+        boolean more = true;
+        long memory = 0;
+        for (int r = 0; r < fetch; r++) {
+            boolean row = trans.readBoolean();
+            if (!row) {
+                more = false;
+                break;
+            }
+            int len = columns.length;
+            Value[] values = new Value[len];
+            memory += Constants.MEMORY_ROW + len * Constants.MEMORY_POINTER;
+            for (int i = 0; i < len; i++) {
+                Value v = trans.readValue();
+                values[i] = v;
+                memory += v.getMemory();
+            }
+            rows.add(values);
+        }
+        received += rows.size();
+        if (!rows.isEmpty()) {
+            rowMemory = (int) Math.min(Integer.MAX_VALUE, memory / rows.size());
+        }
+        if (lazy) {
+            // after a complete batch, the server sends
+            // whether there are more rows
+            if (more) {
+                more = trans.readBoolean();
+            }
+            if (!more) {
+                rowCount = received;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Double the number of rows to fetch with the next request, limited by
+     * the estimated memory of the rows.
+     */
+    private void growFetchSize() {
+        int max = SysProperties.SERVER_RESULT_SET_FETCH_MEMORY /
+                Math.max(1, rowMemory);
+        long size = Math.min(2L * nextFetchSize, max);
+        nextFetchSize = Math.max(fetchSize, (int) size);
+    }
+
     @Override
     public String toString() {
         return "columns: " + columns.length + " rows: " + rowCount + " pos: " + rowId;
@@ -250,6 +407,7 @@ public class ResultRemote implements ResultInterface {
     @Override
     public void setFetchSize(int fetchSize) {
         this.fetchSize = fetchSize;
+        nextFetchSize = fetchSize;
     }
 
     @Override
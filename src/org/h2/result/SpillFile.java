@@ -0,0 +1,181 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.result;
+
+import java.util.ArrayList;
+import org.h2.engine.Constants;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.store.Data;
+import org.h2.store.FileStore;
+import org.h2.util.New;
+import org.h2.value.Value;
+
+/**
+ * An append-only temporary file of value arrays. Rows are written in blocks
+ * the same way as in RowList, and can be read back sequentially after
+ * calling reset. Entries of a row may be null.
+ */
+//与RowList不同，SpillFile总是写到临时文件中，用于GROUP BY等操作在内存不足时把中间状态溢出到磁盘
+public class SpillFile {
+
+    private final Session session;
+    private final ArrayList<Value[]> list = New.arrayList();
+    private FileStore file;
+    private Data buff;
+    private int size;
+    private int index, listIndex;
+    private boolean reading;
+
+    /**
+     * Create a new spill file for this session. The file itself is only
+     * created when the first row is added.
+     *
+     * @param session the session
+     */
+    public SpillFile(Session session) {
+        this.session = session;
+    }
+
+    private void init() {
+        Database db = session.getDatabase();
+        String fileName = db.createTempFile();
+        file = db.openFile(fileName, "rw", false);
+        file.setCheckedWriting(false);
+        file.autoDelete();
+        file.seek(FileStore.HEADER_LENGTH);
+        buff = Data.create(db, Constants.DEFAULT_PAGE_SIZE);
+        initBuffer();
+    }
+
+    private void initBuffer() {
+        buff.reset();
+        buff.writeInt(0);
+    }
+
+    private void flushBuffer() {
+        buff.checkCapacity(1);
+        buff.writeByte((byte) 0);
+        buff.fillAligned();
+        buff.setInt(0, buff.length() / Constants.FILE_BLOCK_SIZE);
+        file.write(buff.getBytes(), 0, buff.length());
+    }
+
+    /**
+     * Append a row. The row may not be modified afterwards.
+     *
+     * @param values the values (entries may be null)
+     */
+    public void add(Value[] values) {
+        if (reading) {
+            throw new IllegalStateException("reading");
+        }
+        if (file == null) {
+            init();
+        }
+        int len = values.length;
+        buff.checkCapacity(1 + Data.LENGTH_INT);
+        buff.writeByte((byte) 1);
+        buff.writeInt(len);
+        for (int i = 0; i < len; i++) {
+            Value v = values[i];
+            buff.checkCapacity(1);
+            if (v == null) {
+                buff.writeByte((byte) 0);
+            } else {
+                buff.writeByte((byte) 1);
+                buff.checkCapacity(buff.getValueLen(v));
+                buff.writeValue(v);
+            }
+        }
+        if (buff.length() > Constants.IO_BUFFER_SIZE) {
+            flushBuffer();
+            initBuffer();
+        }
+        size++;
+    }
+
+    /**
+     * Flush the pending rows and start reading from the beginning. No rows
+     * can be added afterwards.
+     */
+    public void reset() {
+        index = 0;
+        listIndex = 0;
+        list.clear();
+        if (file == null) {
+            return;
+        }
+        if (!reading) {
+            flushBuffer();
+            reading = true;
+        }
+        file.seek(FileStore.HEADER_LENGTH);
+    }
+
+    /**
+     * Check if there are more rows to read.
+     *
+     * @return true if there are more rows
+     */
+    public boolean hasNext() {
+        return index < size;
+    }
+
+    /**
+     * Read the next row.
+     *
+     * @return the row
+     */
+    public Value[] next() {
+        if (listIndex >= list.size()) {
+            list.clear();
+            listIndex = 0;
+            buff.reset();
+            int min = Constants.FILE_BLOCK_SIZE;
+            file.readFully(buff.getBytes(), 0, min);
+            int len = buff.readInt() * Constants.FILE_BLOCK_SIZE;
+            buff.checkCapacity(len);
+            if (len - min > 0) {
+                file.readFully(buff.getBytes(), min, len - min);
+            }
+            while (buff.readByte() != 0) {
+                int count = buff.readInt();
+                Value[] values = new Value[count];
+                for (int i = 0; i < count; i++) {
+                    if (buff.readByte() != 0) {
+                        values[i] = buff.readValue();
+                    }
+                }
+                list.add(values);
+            }
+        }
+        index++;
+        return list.get(listIndex++);
+    }
+
+    /**
+     * Get the number of rows in this file.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Close the file and delete it.
+     */
+    public void close() {
+        if (file != null) {
+            file.closeAndDeleteSilently();
+            file = null;
+            buff = null;
+        }
+        list.clear();
+    }
+
+}
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -73,6 +74,8 @@ public class TcpServer implements Service {
     private PreparedStatement managementDbRemove;
     private String managementPassword = "";
     private Thread listenerThread;
+    private int workers;
+    private TcpServerSelector selector;
     private int nextThreadId;
     private String key, keyDatabase;
 
@@ -203,6 +206,8 @@ public class TcpServer implements Service {
                 allowOthers = true;
             } else if (Tool.isOption(a, "-tcpDaemon")) {
                 isDaemon = true;
+            } else if (Tool.isOption(a, "-tcpWorkers")) {
+                workers = Integer.decode(args[++i]);
             } else if (Tool.isOption(a, "-ifExists")) {
                 ifExists = true;
             }
@@ -243,11 +248,11 @@ public class TcpServer implements Service {
     public synchronized void start() throws SQLException {
         stop = false;
         try {
-            serverSocket = NetUtils.createServerSocket(port, ssl);
+            serverSocket = createServerSocket(port);
         } catch (DbException e) {
         	//如果启动时没有指定参数-tcpPort，那么在端口被占用时自动选择其他端口，否则直接抛异常
             if (!portIsSet) {
-                serverSocket = NetUtils.createServerSocket(0, ssl);
+                serverSocket = createServerSocket(0);
             } else {
                 throw e;
             }
@@ -256,6 +261,20 @@ public class TcpServer implements Service {
         initManagementDb();
     }
 
+    /**
+     * Create the server socket. If worker threads are used, the socket is
+     * backed by a channel (SSL is not supported in this case).
+     *
+     * @param p the port
+     * @return the server socket
+     */
+    private ServerSocket createServerSocket(int p) {
+        if (workers > 0 && !ssl) {
+            return NetUtils.createServerSocketChannel(p).socket();
+        }
+        return NetUtils.createServerSocket(p, ssl);
+    }
+
     @Override
     public void listen() {
     	//在org.h2.tools.Server.start()中的service.getName() + " (" + service.getURL() + ")";
@@ -263,6 +282,13 @@ public class TcpServer implements Service {
         listenerThread = Thread.currentThread();
         String threadName = listenerThread.getName();
         try {
+            ServerSocketChannel channel = serverSocket.getChannel();
+            if (channel != null) {
+                selector = new TcpServerSelector(this, channel, workers,
+                        threadName, isDaemon);
+                selector.run();
+                selector.close();
+            }
             while (!stop) {
                 Socket s = serverSocket.accept();
                 //s.setSoTimeout(2000); //我加上的
@@ -322,6 +348,9 @@ public class TcpServer implements Service {
                 }
                 serverSocket = null;
             }
+            if (selector != null) {
+                selector.close();
+            }
             if (listenerThread != null) {
                 try {
                     listenerThread.join(1000);
@@ -335,7 +364,9 @@ public class TcpServer implements Service {
             if (c != null) {
                 c.close();
                 try {
-                    c.getThread().join(100);
+                    if (c.getThread() != null) {
+                        c.getThread().join(100);
+                    }
                 } catch (Exception e) {
                     DbException.traceThrowable(e);
                 }
@@ -383,6 +414,37 @@ public class TcpServer implements Service {
         server.shutdown();
     }
 
+    /**
+     * Create the object for a new client connection, if worker threads are
+     * used.
+     *
+     * @param s the socket
+     * @return the connection
+     */
+    TcpServerThread createServerThread(Socket s) {
+        TcpServerThread c = new TcpServerThread(s, this, nextThreadId++);
+        running.add(c);
+        return c;
+    }
+
+    /**
+     * Check whether there are open connections.
+     *
+     * @return true if there are
+     */
+    boolean hasConnections() {
+        return !running.isEmpty();
+    }
+
+    /**
+     * Check whether the server is stopped or stopping.
+     *
+     * @return true if it is
+     */
+    boolean isStopped() {
+        return stop;
+    }
+
     /**
      * Remove a thread from the list.
      *
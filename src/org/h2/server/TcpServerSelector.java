@@ -0,0 +1,265 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.message.DbException;
+import org.h2.util.New;
+
+/**
+ * Accepts connections and waits for requests of idle connections using a
+ * selector, so that a thread is only needed while a request is processed.
+ * <p>
+ * Connections are registered with the selector while they are idle (in
+ * non-blocking mode). When a connection gets readable, it is removed from the
+ * selector, switched to blocking mode, and passed to a worker, which processes
+ * all requests that are available and then registers the connection again.
+ * This way, the protocol is still read and written using blocking streams.
+ * <p>
+ * A worker may block, for example while waiting for a lock that is held by
+ * the session of a connection that is waiting for a worker (to commit, or to
+ * cancel the statement). If no worker finished a task for a second while
+ * others are waiting, an additional worker is started (up to a limit), so
+ * that such requests are still processed; the pool shrinks again when the
+ * queue is empty.
+ */
+//一个连接只有在处理请求时才占用一个worker线程，空闲的连接只在selector中注册，
+//所以线程数(以及线程栈占用的内存)取决于活动的客户端数，而不是连接数
+class TcpServerSelector {
+
+    /**
+     * The maximum number of workers that are started in addition to the
+     * configured number, if all workers are blocked.
+     */
+    private static final int MAX_ADDITIONAL_WORKERS = 32;
+
+    private final TcpServer server;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ThreadPoolExecutor workers;
+    private final int workerCount;
+
+    /**
+     * The number of completed tasks, and the time when it last changed.
+     */
+    private long completed;
+    private long lastProgress;
+
+    /**
+     * The idle connections that need to be registered with the selector.
+     */
+    private final ConcurrentLinkedQueue<TcpServerThread> idle =
+            new ConcurrentLinkedQueue<TcpServerThread>();
+
+    private volatile boolean stop;
+
+    /**
+     * Create a new selector.
+     *
+     * @param server the server
+     * @param serverChannel the channel to accept connections from
+     * @param workerCount the maximum number of worker threads
+     * @param threadName the name prefix of the worker threads
+     * @param daemon whether the worker threads are daemon threads
+     */
+    TcpServerSelector(TcpServer server, ServerSocketChannel serverChannel,
+            int workerCount, final String threadName, final boolean daemon)
+            throws IOException {
+        this.server = server;
+        this.serverChannel = serverChannel;
+        this.workerCount = workerCount;
+        selector = Selector.open();
+        workers = new ThreadPoolExecutor(workerCount, workerCount,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int id;
+                    @Override
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, threadName + " worker " + id++);
+                        t.setDaemon(daemon);
+                        return t;
+                    }
+                });
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Accept connections and dispatch requests until the server is stopped
+     * and all connections are closed, or until this object is closed.
+     */
+    void run() throws IOException {
+        try {
+            select();
+        } catch (ClosedSelectorException e) {
+            if (!stop) {
+                throw e;
+            }
+            // closed while waiting
+        }
+    }
+
+    private void select() throws IOException {
+        serverChannel.configureBlocking(false);
+        SelectionKey acceptKey = serverChannel.register(
+                selector, SelectionKey.OP_ACCEPT);
+        ArrayList<TcpServerThread> ready = New.arrayList();
+        while (!stop) {
+            if (server.isStopped()) {
+                // stop accepting connections, but process the requests
+                // of the open connections until they are closed
+                acceptKey.cancel();
+                if (!server.hasConnections()) {
+                    break;
+                }
+            }
+            selector.select(1000);
+            registerIdle();
+            checkWorkers();
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                } else if (key.isReadable()) {
+                    key.cancel();
+                    ready.add((TcpServerThread) key.attachment());
+                }
+            }
+            if (!ready.isEmpty()) {
+                // the cancelled keys are only removed by the next selection,
+                // and the blocking mode can only be changed afterwards
+                selector.selectNow();
+                for (TcpServerThread c : ready) {
+                    dispatch(c);
+                }
+                ready.clear();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        // the handshake is processed by a worker, as for any request
+        dispatch(server.createServerThread(channel.socket()));
+    }
+
+    private void dispatch(final TcpServerThread c) {
+        try {
+            c.getChannel().configureBlocking(true);
+        } catch (IOException e) {
+            server.traceError(e);
+            c.close();
+            return;
+        }
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (c.processAvailable()) {
+                        idle.add(c);
+                        selector.wakeup();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed in the meantime
+            c.close();
+        }
+    }
+
+    /**
+     * Start an additional worker if requests are waiting and no worker made
+     * progress for a while, as all workers may wait for a lock that can only
+     * be released by a waiting request. At most MAX_ADDITIONAL_WORKERS workers
+     * are added; if they are all blocked as well, the requests wait until the
+     * lock timeout ends one of the blocked statements. Shrink the pool to the
+     * configured size once no requests are waiting.
+     */
+    private void checkWorkers() {
+        long now = System.currentTimeMillis();
+        long c = workers.getCompletedTaskCount();
+        int size = workers.getMaximumPoolSize();
+        if (c != completed || lastProgress == 0) {
+            completed = c;
+            lastProgress = now;
+        }
+        if (workers.getQueue().isEmpty()) {
+            if (size > workerCount) {
+                workers.setCorePoolSize(workerCount);
+                workers.setMaximumPoolSize(workerCount);
+            }
+            lastProgress = now;
+        } else if (now - lastProgress >= 1000 &&
+                workers.getActiveCount() >= size) {
+            if (size >= workerCount + MAX_ADDITIONAL_WORKERS) {
+                server.trace("Worker limit reached: " + size +
+                        " workers are busy, " + workers.getQueue().size() +
+                        " requests wait");
+            } else {
+                workers.setMaximumPoolSize(size + 1);
+                workers.setCorePoolSize(size + 1);
+            }
+            lastProgress = now;
+        }
+    }
+
+    private void registerIdle() {
+        while (true) {
+            TcpServerThread c = idle.poll();
+            if (c == null) {
+                break;
+            }
+            try {
+                SocketChannel channel = c.getChannel();
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, c);
+            } catch (IOException e) {
+                // the connection was closed in the meantime
+                server.traceError(e);
+                c.close();
+            } catch (ClosedSelectorException e) {
+                c.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stop accepting connections and stop the workers. The connections are
+     * not closed.
+     */
+    void close() {
+        stop = true;
+        workers.shutdown();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            DbException.traceThrowable(e);
+        }
+    }
+
+}
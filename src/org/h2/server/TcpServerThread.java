@@ -12,13 +12,16 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.sql.SQLException;
 import java.util.ArrayList;
 
 import org.h2.api.ErrorCode;
 import org.h2.command.Command;
+import org.h2.compress.Compressor;
 import org.h2.engine.ConnectionInfo;
 import org.h2.engine.Constants;
+import org.h2.engine.Database;
 import org.h2.engine.Engine;
 import org.h2.engine.Session;
 import org.h2.engine.SessionRemote;
@@ -28,10 +31,13 @@ import org.h2.expression.ParameterInterface;
 import org.h2.expression.ParameterRemote;
 import org.h2.jdbc.JdbcSQLException;
 import org.h2.message.DbException;
+import org.h2.result.LazyResult;
 import org.h2.result.ResultColumn;
 import org.h2.result.ResultInterface;
 import org.h2.store.LobStorageInterface;
+import org.h2.tools.CompressTool;
 import org.h2.util.IOUtils;
+import org.h2.util.New;
 import org.h2.util.SmallLRUCache;
 import org.h2.util.SmallMap;
 import org.h2.util.StringUtils;
@@ -40,7 +46,9 @@ import org.h2.value.Value;
 import org.h2.value.ValueLobDb;
 
 /**
- * One server thread is opened per client connection.
+ * One server thread is opened per client connection. If the server uses a
+ * selector, this object only keeps the state of the connection, and the
+ * requests are processed by a worker thread of the server.
  */
 public class TcpServerThread implements Runnable {
 
@@ -58,6 +66,7 @@ public class TcpServerThread implements Runnable {
     private final int threadId;
     private int clientVersion;
     private String sessionId;
+    private boolean connected;
 
     TcpServerThread(Socket socket, TcpServer server, int id) {
         this.server = server;
@@ -73,109 +82,169 @@ public class TcpServerThread implements Runnable {
     @Override
     public void run() {
         try {
-            System.out.println("TcpServerThread : 76 : ");
-            transfer.init();
-            trace("Connect");
-            // TODO server: should support a list of allowed databases
-            // and a list of allowed clients
-            try {
-            	//如果没有加-tcpAllowOthers参数，那么只接受本地连接
-                if (!server.allow(transfer.getSocket())) {
-                    throw DbException.get(ErrorCode.REMOTE_CONNECTION_NOT_ALLOWED);
-                }
-                int minClientVersion = transfer.readInt();
-                if (minClientVersion < Constants.TCP_PROTOCOL_VERSION_6) {
-                    throw DbException.get(ErrorCode.DRIVER_VERSION_ERROR_2,
-                            "" + clientVersion, "" + Constants.TCP_PROTOCOL_VERSION_6);
-                } else if (minClientVersion > Constants.TCP_PROTOCOL_VERSION_15) {
-                    throw DbException.get(ErrorCode.DRIVER_VERSION_ERROR_2,
-                            "" + clientVersion, "" + Constants.TCP_PROTOCOL_VERSION_15);
-                }
-                int maxClientVersion = transfer.readInt();
-                if (maxClientVersion >= Constants.TCP_PROTOCOL_VERSION_15) {
-                    clientVersion = Constants.TCP_PROTOCOL_VERSION_15;
-                } else {
-                    clientVersion = minClientVersion;
+            connect();
+            while (!stop) {
+                processRequest();
+            }
+            trace("Disconnect");
+        } catch (Throwable e) {
+            server.traceError(e);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Process the requests that are available. This method returns when the
+     * client did not send any more data (without waiting for it), or when the
+     * connection was closed. It is used instead of run() if the server uses a
+     * selector.
+     *
+     * @return true if the connection is still open
+     */
+    boolean processAvailable() {
+        try {
+            if (!connected) {
+                connect();
+            }
+            while (!stop) {
+                processRequest();
+                if (!stop && transfer.available() == 0) {
+                    return true;
                 }
-                transfer.setVersion(clientVersion);
-                String db = transfer.readString();
-                String originalURL = transfer.readString();
-                if (db == null && originalURL == null) {
-                    String targetSessionId = transfer.readString();
-                    int command = transfer.readInt();
-                    stop = true;
-                    if (command == SessionRemote.SESSION_CANCEL_STATEMENT) {
-                        // cancel a running statement
-                        int statementId = transfer.readInt();
-                        server.cancelStatement(targetSessionId, statementId);
-                    } else if (command == SessionRemote.SESSION_CHECK_KEY) {
-                        // check if this is the correct server
-                        db = server.checkKeyAndGetDatabaseName(targetSessionId);
-                        if (!targetSessionId.equals(db)) {
-                            transfer.writeInt(SessionRemote.STATUS_OK);
-                        } else {
-                            transfer.writeInt(SessionRemote.STATUS_ERROR);
-                        }
+            }
+            trace("Disconnect");
+        } catch (Throwable e) {
+            server.traceError(e);
+        }
+        close();
+        return false;
+    }
+
+    private void processRequest() {
+        try {
+            process();
+            if (!stop) {
+                // a request without a response (for example closing a
+                // result) may follow a response that was not sent yet
+                flush();
+            }
+        } catch (Throwable e) {
+            sendError(e);
+        }
+    }
+
+    private void connect() throws IOException {
+        connected = true;
+        System.out.println("TcpServerThread : 76 : ");
+        transfer.init();
+        trace("Connect");
+        // TODO server: should support a list of allowed databases
+        // and a list of allowed clients
+        try {
+        	//如果没有加-tcpAllowOthers参数，那么只接受本地连接
+            if (!server.allow(transfer.getSocket())) {
+                throw DbException.get(ErrorCode.REMOTE_CONNECTION_NOT_ALLOWED);
+            }
+            int minClientVersion = transfer.readInt();
+            if (minClientVersion < Constants.TCP_PROTOCOL_VERSION_6) {
+                throw DbException.get(ErrorCode.DRIVER_VERSION_ERROR_2,
+                        "" + clientVersion, "" + Constants.TCP_PROTOCOL_VERSION_6);
+            } else if (minClientVersion > Constants.TCP_PROTOCOL_VERSION_19) {
+                throw DbException.get(ErrorCode.DRIVER_VERSION_ERROR_2,
+                        "" + clientVersion, "" + Constants.TCP_PROTOCOL_VERSION_19);
+            }
+            int maxClientVersion = transfer.readInt();
+            if (maxClientVersion >= Constants.TCP_PROTOCOL_VERSION_19) {
+                clientVersion = Constants.TCP_PROTOCOL_VERSION_19;
+            } else if (maxClientVersion >= Constants.TCP_PROTOCOL_VERSION_18) {
+                clientVersion = Constants.TCP_PROTOCOL_VERSION_18;
+            } else if (maxClientVersion >= Constants.TCP_PROTOCOL_VERSION_17) {
+                clientVersion = Constants.TCP_PROTOCOL_VERSION_17;
+            } else if (maxClientVersion >= Constants.TCP_PROTOCOL_VERSION_16) {
+                clientVersion = Constants.TCP_PROTOCOL_VERSION_16;
+            } else if (maxClientVersion >= Constants.TCP_PROTOCOL_VERSION_15) {
+                clientVersion = Constants.TCP_PROTOCOL_VERSION_15;
+            } else {
+                clientVersion = minClientVersion;
+            }
+            transfer.setVersion(clientVersion);
+            String db = transfer.readString();
+            String originalURL = transfer.readString();
+            if (db == null && originalURL == null) {
+                String targetSessionId = transfer.readString();
+                int command = transfer.readInt();
+                stop = true;
+                if (command == SessionRemote.SESSION_CANCEL_STATEMENT) {
+                    // cancel a running statement
+                    int statementId = transfer.readInt();
+                    server.cancelStatement(targetSessionId, statementId);
+                } else if (command == SessionRemote.SESSION_CHECK_KEY) {
+                    // check if this is the correct server
+                    db = server.checkKeyAndGetDatabaseName(targetSessionId);
+                    if (!targetSessionId.equals(db)) {
+                        transfer.writeInt(SessionRemote.STATUS_OK);
+                    } else {
+                        transfer.writeInt(SessionRemote.STATUS_ERROR);
                     }
                 }
-                //启动TcpServer时加"-baseDir"或者像这样System.setProperty("h2.baseDir", "E:\\H2\\baseDir")
-                String baseDir = server.getBaseDir();
-                if (baseDir == null) {
-                    baseDir = SysProperties.getBaseDir();
-                }
-                //例如启动TcpServer时，指定了"-key mydb mydatabase"，
-                //如果db变量是mydb，那么实际上就是mydatabase，相当于做一次映射
-                //如果db变量不是mydb，那么抛错: org.h2.jdbc.JdbcSQLException: Wrong user name or password [28000-170]
-                db = server.checkKeyAndGetDatabaseName(db);
-                ConnectionInfo ci = new ConnectionInfo(db);
-
-                ci.setOriginalURL(originalURL);
-                ci.setUserName(transfer.readString());
-                //password参数的值已经转换成userPasswordHash和filePasswordHash了，
-                //不能由userPasswordHash和filePasswordHash得到原始的password
-                ci.setUserPasswordHash(transfer.readBytes());
-                ci.setFilePasswordHash(transfer.readBytes()); //只有指定"CIPHER"参数时filePasswordHash才是非null的
-                int len = transfer.readInt();
-                for (int i = 0; i < len; i++) {
-                    ci.setProperty(transfer.readString(), transfer.readString());
-                }
-                // override client's requested properties with server settings
-                if (baseDir != null) { 
-                    ci.setBaseDir(baseDir);
-                }
-                if (server.getIfExists()) {
-                	//启动TcpServer时加"-ifExists"，限制只有数据库存在时客户端才能连接，也就是不允许在客户端创建数据库
-                    ci.setProperty("IFEXISTS", "TRUE");
-                }
-                transfer.writeInt(SessionRemote.STATUS_OK);
-                transfer.writeInt(clientVersion);
-                transfer.flush();
-                //每建立一个新的Session对象时，把它保存到内存数据库management_db_9092的SESSIONS表
-                if (clientVersion >= Constants.TCP_PROTOCOL_VERSION_13) {
-                    if (ci.getFilePasswordHash() != null) {
-                        ci.setFileEncryptionKey(transfer.readBytes());
+            }
+            //启动TcpServer时加"-baseDir"或者像这样System.setProperty("h2.baseDir", "E:\\H2\\baseDir")
+            String baseDir = server.getBaseDir();
+            if (baseDir == null) {
+                baseDir = SysProperties.getBaseDir();
+            }
+            //例如启动TcpServer时，指定了"-key mydb mydatabase"，
+            //如果db变量是mydb，那么实际上就是mydatabase，相当于做一次映射
+            //如果db变量不是mydb，那么抛错: org.h2.jdbc.JdbcSQLException: Wrong user name or password [28000-170]
+            db = server.checkKeyAndGetDatabaseName(db);
+            ConnectionInfo ci = new ConnectionInfo(db);
+
+            ci.setOriginalURL(originalURL);
+            ci.setUserName(transfer.readString());
+            //password参数的值已经转换成userPasswordHash和filePasswordHash了，
+            //不能由userPasswordHash和filePasswordHash得到原始的password
+            ci.setUserPasswordHash(transfer.readBytes());
+            ci.setFilePasswordHash(transfer.readBytes()); //只有指定"CIPHER"参数时filePasswordHash才是非null的
+            int len = transfer.readInt();
+            for (int i = 0; i < len; i++) {
+                ci.setProperty(transfer.readString(), transfer.readString());
+            }
+            // override client's requested properties with server settings
+            if (baseDir != null) { 
+                ci.setBaseDir(baseDir);
+            }
+            if (server.getIfExists()) {
+            	//启动TcpServer时加"-ifExists"，限制只有数据库存在时客户端才能连接，也就是不允许在客户端创建数据库
+                ci.setProperty("IFEXISTS", "TRUE");
+            }
+            transfer.writeInt(SessionRemote.STATUS_OK);
+            transfer.writeInt(clientVersion);
+            transfer.flush();
+            if (clientVersion >= Constants.TCP_PROTOCOL_VERSION_19) {
+                // the client sends the compression algorithm (or null)
+                // after reading the version, and switches right after it
+                String algorithm = transfer.readString();
+                if (algorithm != null) {
+                    int compression = CompressTool.getCompressAlgorithm(algorithm);
+                    if (compression != Compressor.NO) {
+                        transfer.setCompression(compression);
                     }
                 }
-                session = Engine.getInstance().createSession(ci);
-                transfer.setSession(session);
-                server.addConnection(threadId, originalURL, ci.getUserName());
-                trace("Connected");
-            } catch (Throwable e) {
-                sendError(e);
-                stop = true;
             }
-            while (!stop) {
-                try {
-                    process();
-                } catch (Throwable e) {
-                    sendError(e);
+            //每建立一个新的Session对象时，把它保存到内存数据库management_db_9092的SESSIONS表
+            if (clientVersion >= Constants.TCP_PROTOCOL_VERSION_13) {
+                if (ci.getFilePasswordHash() != null) {
+                    ci.setFileEncryptionKey(transfer.readBytes());
                 }
             }
-            trace("Disconnect");
+            session = Engine.getInstance().createSession(ci);
+            transfer.setSession(session);
+            server.addConnection(threadId, originalURL, ci.getUserName());
+            trace("Connected");
         } catch (Throwable e) {
-            server.traceError(e);
-        } finally {
-            close();
+            sendError(e);
+            stop = true;
         }
     }
 
@@ -221,6 +290,10 @@ public class TcpServerThread implements Runnable {
             server.traceError(e);
         } finally {
             transfer.close();
+            String statistics = transfer.getCompressionStatistics();
+            if (statistics != null) {
+                trace("Compression: " + statistics);
+            }
             trace("Close");
             server.remove(this);
         }
@@ -228,23 +301,8 @@ public class TcpServerThread implements Runnable {
 
     private void sendError(Throwable t) {
         try {
-            SQLException e = DbException.convert(t).getSQLException();
-            StringWriter writer = new StringWriter();
-            e.printStackTrace(new PrintWriter(writer));
-            String trace = writer.toString();
-            String message;
-            String sql;
-            if (e instanceof JdbcSQLException) {
-                JdbcSQLException j = (JdbcSQLException) e;
-                message = j.getOriginalMessage();
-                sql = j.getSQL();
-            } else {
-                message = e.getMessage();
-                sql = null;
-            }
-            transfer.writeInt(SessionRemote.STATUS_ERROR).
-                    writeString(e.getSQLState()).writeString(message).
-                    writeString(sql).writeInt(e.getErrorCode()).writeString(trace).flush();
+            writeError(t);
+            flush();
         } catch (Exception e2) {
             if (!transfer.isClosed()) {
                 server.traceError(e2);
@@ -254,12 +312,62 @@ public class TcpServerThread implements Runnable {
         }
     }
 
+    private void writeError(Throwable t) throws IOException {
+        SQLException e = DbException.convert(t).getSQLException();
+        StringWriter writer = new StringWriter();
+        e.printStackTrace(new PrintWriter(writer));
+        String trace = writer.toString();
+        String message;
+        String sql;
+        if (e instanceof JdbcSQLException) {
+            JdbcSQLException j = (JdbcSQLException) e;
+            message = j.getOriginalMessage();
+            sql = j.getSQL();
+        } else {
+            message = e.getMessage();
+            sql = null;
+        }
+        transfer.writeInt(SessionRemote.STATUS_ERROR).
+                writeString(e.getSQLState()).writeString(message).
+                writeString(sql).writeInt(e.getErrorCode()).writeString(trace);
+    }
+
+    private static void executeBatch(Command command, Value[][] batch,
+            int[] updateCounts, DbException[] errors) {
+        ArrayList<? extends ParameterInterface> params = command.getParameters();
+        for (int i = 0; i < batch.length; i++) {
+            Value[] set = batch[i];
+            for (int j = 0; j < set.length; j++) {
+                ((Parameter) params.get(j)).setValue(set[j]);
+            }
+            try {
+                updateCounts[i] = command.executeUpdate();
+            } catch (DbException e) {
+                errors[i] = e;
+            }
+        }
+    }
+
+    /**
+     * Read the parameter values and set them. The values are read even if the
+     * command does not exist (for example because a pipelined prepare request
+     * failed), so that the next request can be read.
+     *
+     * @param command the command, or null if it does not exist
+     */
     private void setParameters(Command command) throws IOException {
         int len = transfer.readInt();
+        Value[] values = new Value[len];
+        for (int i = 0; i < len; i++) {
+            values[i] = transfer.readValue();
+        }
+        if (command == null) {
+            throw DbException.get(ErrorCode.OBJECT_CLOSED);
+        }
         ArrayList<? extends ParameterInterface> params = command.getParameters();
         for (int i = 0; i < len; i++) {
             Parameter p = (Parameter) params.get(i);
-            p.setValue(transfer.readValue());
+            p.setValue(values[i]);
         }
     }
     
@@ -293,7 +401,7 @@ public class TcpServerThread implements Runnable {
                     ParameterRemote.writeMetaData(transfer, p);
                 }
             }
-            transfer.flush();
+            flush();
             break;
         }
         case SessionRemote.SESSION_CLOSE: {
@@ -311,7 +419,8 @@ public class TcpServerThread implements Runnable {
             }
             int old = session.getModificationId();
             commit.executeUpdate();
-            transfer.writeInt(getState(old)).flush();
+            transfer.writeInt(getState(old));
+            flush();
             break;
         }
         case SessionRemote.COMMAND_GET_META_DATA: {
@@ -326,7 +435,7 @@ public class TcpServerThread implements Runnable {
             for (int i = 0; i < columnCount; i++) {
                 ResultColumn.writeColumn(transfer, result, i);
             }
-            transfer.flush();
+            flush();
             break;
         }
         case SessionRemote.COMMAND_EXECUTE_QUERY: {
@@ -335,33 +444,58 @@ public class TcpServerThread implements Runnable {
             int objectId = transfer.readInt();
             int maxRows = transfer.readInt();
             int fetchSize = transfer.readInt();
-            Command command = (Command) cache.getObject(id, false);
+            Command command = (Command) cache.getObject(id, true);
             setParameters(command);
             int old = session.getModificationId();
+            // scrollable results (and results of a cluster) are
+            // read completely, with a fetch size of Integer.MAX_VALUE
+            boolean lazy = clientVersion >= Constants.TCP_PROTOCOL_VERSION_17 &&
+                    fetchSize > 0 && fetchSize != Integer.MAX_VALUE;
             ResultInterface result;
             synchronized (session) {
                 System.out.println("TcpServerThread : 343 : hello ");
-                result = command.executeQuery(maxRows, false);
+                if (lazy) {
+                    result = command.executeQueryLazy(maxRows);
+                } else {
+                    result = command.executeQuery(maxRows, false);
+                }
+            }
+            ArrayList<Value[]> rows = null;
+            boolean more = false;
+            if (result instanceof LazyResult) {
+                // the rows are computed before anything is sent,
+                // so that an error can still be reported
+                LazyResult lazyResult = (LazyResult) result;
+                rows = readRows(lazyResult, fetchSize);
+                more = rows.size() == fetchSize && lazyResult.hasNext();
             }
             cache.addObject(objectId, result);
             int columnCount = result.getVisibleColumnCount();
             int state = getState(old);
             transfer.writeInt(state).writeInt(columnCount);
+            // -1 if the result is lazy and not all rows were read
             int rowCount = result.getRowCount();
             transfer.writeInt(rowCount);
             for (int i = 0; i < columnCount; i++) {
                 ResultColumn.writeColumn(transfer, result, i);
             }
-            int fetch = Math.min(rowCount, fetchSize);
-            for (int i = 0; i < fetch; i++) {
-                sendRow(result);
+            if (rows != null) {
+                writeRows(rows, columnCount);
+                if (rowCount < 0) {
+                    transfer.writeBoolean(more);
+                }
+            } else {
+                int fetch = Math.min(rowCount, fetchSize);
+                for (int i = 0; i < fetch; i++) {
+                    sendRow(result);
+                }
             }
-            transfer.flush();
+            flush();
             break;
         }
         case SessionRemote.COMMAND_EXECUTE_UPDATE: {
             int id = transfer.readInt();
-            Command command = (Command) cache.getObject(id, false);
+            Command command = (Command) cache.getObject(id, true);
             //if(command!=null)throw new Error();
             setParameters(command);
             int old = session.getModificationId();
@@ -377,7 +511,59 @@ public class TcpServerThread implements Runnable {
             }
             transfer.writeInt(status).writeInt(updateCount).
                     writeBoolean(session.getAutoCommit());
-            transfer.flush();
+            flush();
+            break;
+        }
+        case SessionRemote.COMMAND_EXECUTE_BATCH_UPDATE: {
+            int id = transfer.readInt();
+            Command command = (Command) cache.getObject(id, false);
+            int size = transfer.readInt();
+            int len = transfer.readInt();
+            Value[][] batch = new Value[size][len];
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < len; j++) {
+                    batch[i][j] = transfer.readValue();
+                }
+            }
+            int old = session.getModificationId();
+            int[] updateCounts = new int[size];
+            DbException[] errors = new DbException[size];
+            Database db = session.getDatabase();
+            Object sync = db.isMultiThreaded() ? (Object) session : (Object) db;
+            synchronized (session) {
+                boolean done = false;
+                // the lock is kept for the whole batch, so that other
+                // sessions can't run statements between the rows
+                synchronized (sync) {
+                    Session exclusive = db.getExclusiveSession();
+                    if ((exclusive == null || exclusive == session) &&
+                            !db.isFileLockSerialized()) {
+                        executeBatch(command, batch, updateCounts, errors);
+                        done = true;
+                    }
+                }
+                if (!done) {
+                    // the rows may need to wait for other sessions
+                    executeBatch(command, batch, updateCounts, errors);
+                }
+            }
+            int status;
+            if (session.isClosed()) {
+                status = SessionRemote.STATUS_CLOSED;
+            } else {
+                status = getState(old);
+            }
+            transfer.writeInt(status);
+            for (int i = 0; i < size; i++) {
+                if (errors[i] != null) {
+                    writeError(errors[i]);
+                } else {
+                    transfer.writeInt(SessionRemote.STATUS_OK).
+                            writeInt(updateCounts[i]);
+                }
+            }
+            transfer.writeBoolean(session.getAutoCommit());
+            flush();
             break;
         }
         case SessionRemote.COMMAND_CLOSE: {
@@ -393,11 +579,21 @@ public class TcpServerThread implements Runnable {
             int id = transfer.readInt();
             int count = transfer.readInt();
             ResultInterface result = (ResultInterface) cache.getObject(id, false);
+            if (result instanceof LazyResult) {
+                LazyResult lazyResult = (LazyResult) result;
+                ArrayList<Value[]> rows = readRows(lazyResult, count);
+                boolean more = rows.size() == count && lazyResult.hasNext();
+                transfer.writeInt(SessionRemote.STATUS_OK);
+                writeRows(rows, lazyResult.getVisibleColumnCount());
+                transfer.writeBoolean(more);
+                flush();
+                break;
+            }
             transfer.writeInt(SessionRemote.STATUS_OK);
             for (int i = 0; i < count; i++) {
                 sendRow(result);
             }
-            transfer.flush();
+            flush();
             break;
         }
         case SessionRemote.RESULT_RESET: {
@@ -427,18 +623,20 @@ public class TcpServerThread implements Runnable {
             sessionId = transfer.readString();
             transfer.writeInt(SessionRemote.STATUS_OK);
             transfer.writeBoolean(session.getAutoCommit());
-            transfer.flush();
+            flush();
             break;
         }
         case SessionRemote.SESSION_SET_AUTOCOMMIT: {
             boolean autoCommit = transfer.readBoolean();
             session.setAutoCommit(autoCommit);
-            transfer.writeInt(SessionRemote.STATUS_OK).flush();
+            transfer.writeInt(SessionRemote.STATUS_OK);
+            flush();
             break;
         }
         case SessionRemote.SESSION_HAS_PENDING_TRANSACTION: {
             transfer.writeInt(SessionRemote.STATUS_OK).
-                writeInt(session.hasPendingTransaction() ? 1 : 0).flush();
+                writeInt(session.hasPendingTransaction() ? 1 : 0);
+            flush();
             break;
         }
         case SessionRemote.LOB_READ: {
@@ -488,7 +686,7 @@ public class TcpServerThread implements Runnable {
             transfer.writeInt(SessionRemote.STATUS_OK);
             transfer.writeInt(length);
             transfer.writeBytes(buff, 0, length);
-            transfer.flush();
+            flush();
             break;
         }
         default:
@@ -505,6 +703,43 @@ public class TcpServerThread implements Runnable {
         return SessionRemote.STATUS_OK_STATE_CHANGED;
     }
 
+    /**
+     * Compute the next rows of a lazy result.
+     *
+     * @param result the result
+     * @param count the maximum number of rows
+     * @return the rows
+     */
+    private static ArrayList<Value[]> readRows(LazyResult result, int count) {
+        ArrayList<Value[]> rows = New.arrayList();
+        while (rows.size() < count && result.next()) {
+            rows.add(result.currentRow());
+        }
+        return rows;
+    }
+
+    /**
+     * Send the response, unless the client already sent the next request. In
+     * this case, the responses are sent together when there are no more
+     * requests (the client pipelines requests and reads the responses after
+     * sending all of them).
+     */
+    private void flush() throws IOException {
+        if (transfer.available() == 0) {
+            transfer.flush();
+        }
+    }
+
+    private void writeRows(ArrayList<Value[]> rows, int columnCount)
+            throws IOException {
+        for (Value[] v : rows) {
+            transfer.writeBoolean(true);
+            for (int i = 0; i < columnCount; i++) {
+                transfer.writeValue(v[i]);
+            }
+        }
+    }
+
     private void sendRow(ResultInterface result) throws IOException {
         if (result.next()) {
             transfer.writeBoolean(true);
@@ -542,6 +777,15 @@ public class TcpServerThread implements Runnable {
         return thread;
     }
 
+    /**
+     * Get the channel of the socket (only set if the server uses a selector).
+     *
+     * @return the channel
+     */
+    SocketChannel getChannel() {
+        return transfer.getSocket().getChannel();
+    }
+
     /**
      * Cancel a running statement.
      *
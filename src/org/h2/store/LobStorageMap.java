@@ -22,6 +22,7 @@ import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.StreamStore;
 import org.h2.mvstore.db.MVTableEngine.Store;
+import org.h2.mvstore.db.TransactionStore;
 import org.h2.util.IOUtils;
 import org.h2.util.New;
 import org.h2.util.StringUtils;
@@ -73,6 +74,11 @@ public class LobStorageMap implements LobStorageInterface {
 
     private StreamStore streamStore;
 
+    /**
+     * The transaction store, or null for in-memory databases.
+     */
+    private TransactionStore transactionStore;
+
     public LobStorageMap(Database database) {
         this.database = database;
     }
@@ -90,6 +96,7 @@ public class LobStorageMap implements LobStorageInterface {
             mvStore = MVStore.open(null);
         } else {
             mvStore = s.getStore();
+            transactionStore = s.getTransactionStore();
         }
         lobMap = mvStore.openMap("lobMap");
         refMap = mvStore.openMap("lobRef");
@@ -267,6 +274,7 @@ public class LobStorageMap implements LobStorageInterface {
         lobMap.put(lobId, value);
         Object[] key = new Object[] { streamStoreId, lobId };
         refMap.put(key, Boolean.TRUE);
+        storeUnlogged();
         ValueLobDb lob = ValueLobDb.create(
                 type, database, tableId, lobId, null, length);
         if (TRACE) {
@@ -306,6 +314,18 @@ public class LobStorageMap implements LobStorageInterface {
         }
         value[1] = tableId;
         lobMap.put(lobId, value);
+        storeUnlogged();
+    }
+
+    /**
+     * The LOB maps are not changed within transactions, so if a redo log is
+     * used, the changes need to be stored before the row that references the
+     * LOB is committed.
+     */
+    private void storeUnlogged() {
+        if (transactionStore != null) {
+            transactionStore.storeUnlogged();
+        }
     }
 
     @Override
@@ -655,7 +655,7 @@ public class Column {
      * @return true if every visited expression returned true, or if there are
      *         no expressions
      */
-    boolean isEverything(ExpressionVisitor visitor) {
+    public boolean isEverything(ExpressionVisitor visitor) {
         if (visitor.getType() == ExpressionVisitor.GET_DEPENDENCIES) {
             if (sequence != null) {
                 visitor.getDependencies().add(sequence);
@@ -18,6 +18,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
 import org.h2.command.Command;
+import org.h2.command.StatementCache;
 import org.h2.constraint.Constraint;
 import org.h2.constraint.ConstraintCheck;
 import org.h2.constraint.ConstraintReferential;
@@ -1018,6 +1019,17 @@ public class MetaTable extends Table {
                             mvStore.getStore().getCacheSizeUsed());
                 }
             }
+            StatementCache statementCache = database.getStatementCache();
+            if (statementCache != null) {
+                add(rows, "info.STATEMENT_CACHE_SIZE",
+                        "" + statementCache.size());
+                add(rows, "info.STATEMENT_CACHE_HITS",
+                        "" + statementCache.getHits());
+                add(rows, "info.STATEMENT_CACHE_MISSES",
+                        "" + statementCache.getMisses());
+                add(rows, "info.STATEMENT_CACHE_EVICTIONS",
+                        "" + statementCache.getEvictions());
+            }
             break;
         }
         case TYPE_INFO: {
@@ -5,6 +5,9 @@
  */
 package org.h2.table;
 
+import org.h2.engine.Constants;
+import org.h2.engine.Session;
+import org.h2.index.HashJoinIndex;
 import org.h2.index.Index;
 
 /**
@@ -46,4 +49,27 @@ public class PlanItem {
         this.nestedJoinPlan = nestedJoinPlan;
     }
 
+    /**
+     * Estimate the number of rows that are read with this plan item for each
+     * row of the outer tables. The cost of an index is roughly proportional
+     * to the number of rows read, so this is the row count multiplied with
+     * the cost relative to the cost of reading all rows.
+     *
+     * @param session the session
+     * @param filter the table filter
+     * @return the estimated number of rows (at least 1)
+     */
+    double getRowCountEstimate(Session session, TableFilter filter) {
+        double rows = index.getRowCountApproximation();
+        double all;
+        if (index instanceof HashJoinIndex) {
+            // the cost of a lookup is about the number of rows
+            all = rows + Constants.COST_ROW_OFFSET;
+        } else {
+            all = index.getCost(session, null, filter, null);
+        }
+        double r = rows * cost / Math.max(1, all);
+        return Math.max(1, Math.min(rows, r));
+    }
+
 }
@@ -145,7 +145,7 @@ public class RangeTable extends Table {
 
     @Override
     public String getTableType() {
-        throw DbException.throwInternalError();
+        return Table.SYSTEM_TABLE;
     }
 
     @Override
@@ -209,6 +209,21 @@ public abstract class Table extends SchemaObjectBase {
      */
     public abstract void addRow(Session session, Row row);
 
+    /**
+     * Add a number of rows to the table and all indexes. The rows are not
+     * added to the undo log of the session, and if an exception is thrown,
+     * some rows may already have been added.
+     *
+     * @param session the session
+     * @param rows the rows
+     * @throws DbException if a constraint was violated
+     */
+    public void addRows(Session session, ArrayList<Row> rows) {
+        for (int i = 0, size = rows.size(); i < size; i++) {
+            addRow(session, rows.get(i));
+        }
+    }
+
     /**
      * Commit an operation (when using multi-version concurrency).
      *
@@ -914,6 +929,28 @@ public abstract class Table extends SchemaObjectBase {
         return (constraints != null && constraints.size() > 0) || (triggers != null && triggers.size() > 0);
     }
 
+    /**
+     * Check if rows can be added to this table as a group (using addRows)
+     * instead of one by one. This is not possible if there are triggers,
+     * because they might read the table, or constraints that are checked
+     * after a row was added.
+     *
+     * @return true if rows can be added as a group
+     */
+    public boolean canAddRows() {
+        if (triggers != null && triggers.size() > 0) {
+            return false;
+        }
+        if (constraints != null) {
+            for (int i = 0, size = constraints.size(); i < size; i++) {
+                if (!constraints.get(i).isBefore()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * Fire all triggers that need to be called before a row is updated.
      *
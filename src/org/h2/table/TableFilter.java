@@ -16,9 +16,11 @@ import org.h2.expression.Comparison;
 import org.h2.expression.ConditionAndOr;
 import org.h2.expression.Expression;
 import org.h2.expression.ExpressionColumn;
+import org.h2.index.HashJoinIndex;
 import org.h2.index.Index;
 import org.h2.index.IndexCondition;
 import org.h2.index.IndexCursor;
+import org.h2.index.IndexType;
 import org.h2.message.DbException;
 import org.h2.result.Row;
 import org.h2.result.SearchRow;
@@ -118,6 +120,12 @@ public class TableFilter implements ColumnResolver {
     private Expression fullCondition;
     private final int hashCode;
 
+    /**
+     * The estimated number of rows of the tables that are read before this
+     * table (used while the plan is calculated).
+     */
+    private double outerRowCount = 1;
+
     /**
      * Create a new table filter object.
      *
@@ -212,6 +220,19 @@ public class TableFilter implements ColumnResolver {
                 sortOrder = select.getSortOrder();
             }
             item = table.getBestPlanItem(s, masks, this, sortOrder);
+            //内表没有合适的索引时，可以考虑hash join
+            //outer join的右表虽然level是1，但也是内表
+            if ((level > 1 || joinOuter) &&
+                    item.getIndex().getIndexType().isScan()) {
+                HashJoinIndex hashIndex = HashJoinIndex.create(s, table, masks);
+                if (hashIndex != null) {
+                    double cost = hashIndex.getCost(s, masks, this, sortOrder);
+                    if (cost < item.cost) {
+                        item.cost = cost;
+                        item.setIndex(hashIndex);
+                    }
+                }
+            }
             // The more index conditions, the earlier the table.
             // This is to ensure joins without indexes run quickly:
             // x (x.a=10); y (x.b=y.b) - see issue 113
@@ -219,8 +240,10 @@ public class TableFilter implements ColumnResolver {
             //索引条件越多，cost越小
             item.cost -= item.cost * indexConditions.size() / 100 / level;
         }
+        double rows = outerRowCount * item.getRowCountEstimate(s, this);
         if (nestedJoin != null) {
             setEvaluatable(nestedJoin);
+            nestedJoin.setOuterRowCount(rows);
             item.setNestedJoinPlan(nestedJoin.getBestPlanItem(s, level));
             // TODO optimizer: calculate cost of a join: should use separate
             // expected row number and lookup cost
@@ -228,6 +251,7 @@ public class TableFilter implements ColumnResolver {
         }
         if (join != null) {
             setEvaluatable(join);
+            join.setOuterRowCount(rows);
             item.setJoinPlan(join.getBestPlanItem(s, level));
             // TODO optimizer: calculate cost of a join: should use separate
             // expected row number and lookup cost
@@ -236,6 +260,90 @@ public class TableFilter implements ColumnResolver {
         return item;
     }
 
+    /**
+     * Get the column of another table filter this table is joined with, if
+     * all index conditions that can be used with the given index are equality
+     * conditions of the first index column with this column.
+     *
+     * @param idx the index
+     * @return the column of the other table filter, or null
+     */
+    public ExpressionColumn getMergeJoinColumn(Index idx) {
+        if (!session.getDatabase().getSettings().mergeJoin ||
+                !Table.TABLE.equals(table.getTableType())) {
+            return null;
+        }
+        IndexColumn first = getFirstSortedColumn(idx);
+        if (first == null) {
+            return null;
+        }
+        ExpressionColumn result = null;
+        for (IndexCondition condition : indexConditions) {
+            Column col = condition.getColumn();
+            if (col.getColumnId() < 0) {
+                return null;
+            }
+            if (idx.getColumnIndex(col) < 0) {
+                // not used
+                continue;
+            }
+            if (condition.getCompareType() != Comparison.EQUAL ||
+                    col != first.column) {
+                return null;
+            }
+            Expression e = condition.getExpression();
+            if (!(e instanceof ExpressionColumn)) {
+                return null;
+            }
+            ExpressionColumn ec = (ExpressionColumn) e;
+            TableFilter f = ec.getTableFilter();
+            if (f == null || f == this ||
+                    ec.getColumn().getType() != col.getType()) {
+                return null;
+            }
+            if (result != null && (result.getTableFilter() != f ||
+                    result.getColumn() != ec.getColumn())) {
+                return null;
+            }
+            result = ec;
+        }
+        return result;
+    }
+
+    /**
+     * Check whether the rows of the outer index are read in the same order as
+     * the rows of the inner index, if the given column is joined with the
+     * first column of the inner index.
+     *
+     * @param outer the index of the outer table
+     * @param outerColumn the join column of the outer table
+     * @param inner the index of the inner table
+     * @return true if the order is the same
+     */
+    public static boolean isOrderedBy(Index outer, Column outerColumn,
+            Index inner) {
+        if (outer == null ||
+                !Table.TABLE.equals(outer.getTable().getTableType())) {
+            return false;
+        }
+        IndexColumn o = getFirstSortedColumn(outer);
+        IndexColumn i = getFirstSortedColumn(inner);
+        return o != null && i != null && o.column == outerColumn &&
+                o.sortType == i.sortType;
+    }
+
+    private static IndexColumn getFirstSortedColumn(Index idx) {
+        if (idx instanceof HashJoinIndex) {
+            return null;
+        }
+        IndexType type = idx.getIndexType();
+        if (type.isHash() || type.isScan() || type.isSpatial()) {
+            return null;
+        }
+        IndexColumn[] cols = idx.getIndexColumns();
+        return cols == null || cols.length == 0 ? null : cols[0];
+    }
+
     private void setEvaluatable(TableFilter join) {
         if (session.getDatabase().getSettings().nestedJoins) {
             setEvaluatable(true);
@@ -329,6 +437,26 @@ public class TableFilter implements ColumnResolver {
         }
     }
 
+    /**
+     * Set the estimated number of rows of the tables that are read before
+     * this table, which is the number of lookups in this table.
+     *
+     * @param outerRowCount the row count
+     */
+    public void setOuterRowCount(double outerRowCount) {
+        this.outerRowCount = outerRowCount;
+    }
+
+    /**
+     * Get the estimated number of rows of the tables that are read before
+     * this table (the number of lookups in this table).
+     *
+     * @return the row count
+     */
+    public double getOuterRowCount() {
+        return outerRowCount;
+    }
+
     /**
      * Start the query. This will reset the scan counts.
      *
@@ -337,6 +465,14 @@ public class TableFilter implements ColumnResolver {
     public void startQuery(Session s) {
         this.session = s;
         scanCount = 0;
+        if (index instanceof HashJoinIndex) {
+            // the table may have changed since the last execution
+            ((HashJoinIndex) index).reset();
+        }
+        ExpressionColumn mergeColumn = getMergeJoinColumn(index);
+        cursor.setMergeJoin(mergeColumn != null && isOrderedBy(
+                mergeColumn.getTableFilter().getIndex(),
+                mergeColumn.getColumn(), index));
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -345,6 +481,22 @@ public class TableFilter implements ColumnResolver {
         }
     }
 
+    /**
+     * End the query. This releases the rows (and temporary files) of a hash
+     * join, so that they are not kept by the cached statement.
+     */
+    public void endQuery() {
+        if (index instanceof HashJoinIndex) {
+            ((HashJoinIndex) index).reset();
+        }
+        if (nestedJoin != null) {
+            nestedJoin.endQuery();
+        }
+        if (join != null) {
+            join.endQuery();
+        }
+    }
+
     /**
      * Reset to the current position.
      */
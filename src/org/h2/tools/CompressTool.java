@@ -266,7 +266,10 @@ public class CompressTool {
         }
     }
 
-    private static Compressor getCompressor(int algorithm) {
+    /**
+     * INTERNAL
+     */
+    public static Compressor getCompressor(int algorithm) {
         switch (algorithm) {
         case Compressor.NO:
             return new CompressNo();
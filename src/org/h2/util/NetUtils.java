@@ -13,6 +13,7 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 
 import org.h2.api.ErrorCode;
 import org.h2.engine.SysProperties;
@@ -198,6 +199,35 @@ public class NetUtils {
         }
     }
 
+    /**
+     * Create a server socket channel, so that connections can be used with a
+     * selector. SSL is not supported. The system property h2.bindAddress is
+     * used if set.
+     *
+     * @param port the port to listen on
+     * @return the server socket channel
+     */
+    public static ServerSocketChannel createServerSocketChannel(int port) {
+        ServerSocketChannel channel = null;
+        try {
+            InetAddress bindAddress = getBindAddress();
+            channel = ServerSocketChannel.open();
+            channel.socket().bind(new InetSocketAddress(bindAddress, port));
+            return channel;
+        } catch (BindException be) {
+            if (channel != null) {
+                closeSilently(channel.socket());
+            }
+            throw DbException.get(ErrorCode.EXCEPTION_OPENING_PORT_2,
+                    be, "" + port, be.toString());
+        } catch (IOException e) {
+            if (channel != null) {
+                closeSilently(channel.socket());
+            }
+            throw DbException.convertIOException(e, "port: " + port);
+        }
+    }
+
     /**
      * Check if a socket is connected to a local address.
      *
@@ -20,13 +20,17 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 
 import org.h2.api.ErrorCode;
+import org.h2.compress.CompressedInputStream;
+import org.h2.compress.CompressedOutputStream;
 import org.h2.engine.Constants;
 import org.h2.engine.SessionInterface;
+import org.h2.engine.SysProperties;
 import org.h2.message.DbException;
 import org.h2.mvstore.DataUtils;
 import org.h2.security.SHA256;
 import org.h2.store.Data;
 import org.h2.store.DataReader;
+import org.h2.tools.CompressTool;
 import org.h2.tools.SimpleResultSet;
 import org.h2.util.DateTimeUtils;
 import org.h2.util.IOUtils;
@@ -53,6 +57,8 @@ public class Transfer {
     private boolean ssl;
     private int version;
     private byte[] lobMacSalt;
+    private CompressedOutputStream compressOut;
+    private CompressedInputStream compressIn;
 
     /**
      * Create a new transfer object for the specified session.
@@ -87,6 +93,49 @@ public class Transfer {
         }
     }
 
+    /**
+     * Compress the data that is sent, and expand the data that is received,
+     * from now on. Both sides of the connection need to switch at the same
+     * point of the protocol.
+     *
+     * @param algorithm the compression algorithm (see Compressor)
+     */
+    public synchronized void setCompression(int algorithm) {
+        compressOut = new CompressedOutputStream(out,
+                CompressTool.getCompressor(algorithm), Transfer.BUFFER_SIZE,
+                SysProperties.NETWORK_COMPRESSION_MIN_SIZE);
+        compressIn = new CompressedInputStream(in,
+                CompressTool.getCompressor(algorithm));
+        out = new DataOutputStream(compressOut);
+        in = new DataInputStream(compressIn);
+    }
+
+    /**
+     * Get the number of bytes sent and received, before and after
+     * compression.
+     *
+     * @return the statistics, or null if compression is not used
+     */
+    public String getCompressionStatistics() {
+        if (compressOut == null) {
+            return null;
+        }
+        return "sent " + compressOut.getBytes() + " bytes (" +
+                compressOut.getCompressedBytes() + " compressed), received " +
+                compressIn.getBytes() + " bytes (" +
+                compressIn.getCompressedBytes() + " compressed)";
+    }
+
+    /**
+     * Get the number of bytes that can be read without blocking (buffered, or
+     * already received).
+     *
+     * @return the number of bytes
+     */
+    public int available() throws IOException {
+        return in.available();
+    }
+
     /**
      * Write pending changes.
      */
@@ -0,0 +1,93 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+// A statement that was cached by a closed session is used by another session.
+// The nested queries must use the new session as well, otherwise the
+// uncommitted changes of the new session are not visible.
+public class StatementCacheTest extends TestBase {
+    public static void main(String[] args) throws Exception {
+        new StatementCacheTest().start();
+    }
+
+    @Override
+    public void init() throws Exception {
+        org.h2.Driver.load();
+        url = "jdbc:h2:mem:StatementCacheTest";
+    }
+
+    @Override
+    public void startInternal() throws Exception {
+        stmt.executeUpdate("create table s(id int primary key)");
+        stmt.executeUpdate("create table t(id int primary key)");
+        stmt.executeUpdate("insert into s values(1)");
+        stmt.executeUpdate("insert into t values(1), (2)");
+
+        String[] queries = {
+                // IN(SELECT ...) that uses the primary key of t
+                "select id from t where id in(select id from s) order by id",
+                "select count(*) from s union all select count(*) from t",
+                "select (select count(*) from s) from t where id=1",
+                "select id from t where exists(select * from s where s.id=t.id) order by id" };
+
+        Connection a = getConnection();
+        for (String q : queries) {
+            query(a, q);
+        }
+        PreparedStatement update = a.prepareStatement(
+                "update t set id=id where id in(select id from s)");
+        update.executeUpdate();
+        update.close();
+        a.close();
+
+        long hits = getStatementCacheHits();
+        Connection b = getConnection();
+        b.setAutoCommit(false);
+        b.createStatement().executeUpdate("insert into s values(2)");
+        assertEquals("1 2", query(b, queries[0]));
+        assertEquals("2 2", query(b, queries[1]));
+        assertEquals("2", query(b, queries[2]));
+        assertEquals("1 2", query(b, queries[3]));
+        update = b.prepareStatement("update t set id=id where id in(select id from s)");
+        assertEquals("2", "" + update.executeUpdate());
+        update.close();
+        b.rollback();
+        b.close();
+        if (getStatementCacheHits() <= hits) {
+            throw new AssertionError("statements were not taken from the cache");
+        }
+        p("ok");
+    }
+
+    private static String query(Connection conn, String sql) throws Exception {
+        PreparedStatement prep = conn.prepareStatement(sql);
+        ResultSet r = prep.executeQuery();
+        StringBuilder buff = new StringBuilder();
+        while (r.next()) {
+            if (buff.length() > 0) {
+                buff.append(' ');
+            }
+            buff.append(r.getString(1));
+        }
+        r.close();
+        prep.close();
+        return buff.toString();
+    }
+
+    private long getStatementCacheHits() throws Exception {
+        ResultSet r = stmt.executeQuery("select value from information_schema.settings " +
+                "where name='info.STATEMENT_CACHE_HITS'");
+        r.next();
+        long hits = r.getLong(1);
+        r.close();
+        return hits;
+    }
+
+    private static void assertEquals(String expected, String actual) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError("expected: " + expected + " actual: " + actual);
+        }
+    }
+}